@@ -7,6 +7,7 @@ import android.util.Log;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import com.fyp.mydataismine.packetcapture.HostnameMap;
 import com.fyp.mydataismine.packetcapture.PacketInfo;
 import com.fyp.mydataismine.packetcapture.SimpleEventBus;
 import com.google.firebase.auth.FirebaseAuth;
@@ -244,12 +245,20 @@ public class NetworkMonitorService extends Service {
 
     /**
      * Processes network traffic data asynchronously, performs geolocation lookup for IP addresses,
-     * and uploads the results to a Firebase database.
+     * and uploads the results to a Firebase database. Destinations whose hostname is already known from
+     * the DNS traffic seen by the VPN are labelled with it and skip the remote lookup.
      *
      * @param trafficData the network traffic data to be processed and stored.
      * @param processor a functional interface callback for processing the traffic data after lookup.
      */
     private void processAndStoreTrafficData(NetworkTrafficData trafficData, TrafficDataProcessor processor) {
+        String hostname = HostnameMap.getShared().lookup(trafficData.getDestinationIp());
+        if (hostname != null) {
+            trafficData.setHostname(hostname);
+            processor.process(trafficData);
+            uploadPacketToFirebase(trafficData);
+            return;
+        }
         ExecutorService executor = Executors.newSingleThreadExecutor();
         executor.execute(() -> {
             try {
@@ -21,6 +21,7 @@ public class NetworkTrafficData {
     private int length;
     private String location;
     private String organisation;
+    private String hostname;
     private boolean isSuspicious;
 
     // Constructor, getters, and setters
@@ -44,6 +45,10 @@ public class NetworkTrafficData {
         this.organisation = organisation;
     }
 
+    public void setHostname(String hostname) {
+        this.hostname = hostname;
+    }
+
     public void setDestinationPort(int destinationPort) {
         this.destinationPort = destinationPort;
     }
@@ -89,6 +94,10 @@ public class NetworkTrafficData {
         return organisation;
     }
 
+    public String getHostname() {
+        return hostname;
+    }
+
     public boolean isSuspicious() {
         return isSuspicious;
     }
@@ -106,6 +115,7 @@ public class NetworkTrafficData {
                 ", length=" + length +
                 ", location='" + location + '\'' +
                 ", organisation='" + organisation + '\'' +
+                ", hostname='" + hostname + '\'' +
                 ", isSuspicious=" + isSuspicious +
                 '}';
     }
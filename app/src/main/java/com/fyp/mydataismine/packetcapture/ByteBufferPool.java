@@ -1,6 +1,7 @@
 package com.fyp.mydataismine.packetcapture;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
@@ -10,33 +11,70 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  */
 public class ByteBufferPool {
     private static final int BUFFER_SIZE = 32768 ; // Adjust as needed
+    private static final int THREAD_CACHE_SIZE = 32;
     private static ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    // Per-thread caches, only for threads that called enableThreadCache()
+    private static final ThreadLocal<ArrayDeque<ByteBuffer>> threadCache = new ThreadLocal<>();
+
+    /**
+     * Gives the calling thread its own small cache of buffers in front of the shared pool, so a busy thread
+     * such as a {@link TCPReactor} shard reuses its own buffers without touching the shared queue.
+     */
+    public static void enableThreadCache() {
+        if (threadCache.get() == null)
+            threadCache.set(new ArrayDeque<ByteBuffer>(THREAD_CACHE_SIZE));
+    }
+
+    /**
+     * Returns the calling thread's cached buffers to the shared pool and stops caching for it.
+     */
+    public static void disableThreadCache() {
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache != null) {
+            pool.addAll(cache);
+            threadCache.remove();
+        }
+    }
 
     /**
      * Acquires a ByteBuffer from the pool or creates a new one if the pool is empty.
      * @return A ByteBuffer ready for use.
      */
     public static ByteBuffer acquire() {
-        ByteBuffer buffer = pool.poll();
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        ByteBuffer buffer = cache != null ? cache.pollLast() : null;
+        if (buffer == null)
+            buffer = pool.poll();
         if (buffer == null)
             buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
         return buffer;
     }
 
     /**
-     * Returns a ByteBuffer to the pool for reuse.
+     * Returns a ByteBuffer to the pool for reuse. Buffers the pool did not hand out, such as read-only
+     * packet views, are left to the garbage collector.
      * @param buffer The ByteBuffer to be released back to the pool.
      */
     public static void release(ByteBuffer buffer) {
+        if (buffer.isReadOnly() || !buffer.isDirect() || buffer.capacity() != BUFFER_SIZE)
+            return;
         buffer.clear();
-        pool.offer(buffer);
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache != null && cache.size() < THREAD_CACHE_SIZE)
+            cache.addLast(buffer);
+        else
+            pool.offer(buffer);
     }
 
     /**
-     * Clears the ByteBuffer pool, releasing all held resources.
+     * Clears the ByteBuffer pool and the calling thread's cache, releasing all held resources.
+     * Other threads' caches are dropped when those threads end.
      */
     public static void clear() {
         pool.clear();
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache != null)
+            cache.clear();
     }
 }
 
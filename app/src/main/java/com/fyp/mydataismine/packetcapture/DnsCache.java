@@ -0,0 +1,265 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers repeated DNS queries from the device out of memory, so a cached lookup never leaves the VPN.
+ * Responses are kept as received, keyed by their question and by whether they carry an EDNS OPT record, for as
+ * long as the shortest TTL of their answers allows; NXDOMAIN and empty answers are cached too, for the time
+ * given by the SOA record of their authority section (RFC 2308). A cached response is replayed with the query's ID and question and with every TTL
+ * reduced by the time it has spent in the cache. The least recently used responses are evicted first.
+ * <p>
+ * Not thread-safe; the cache belongs to the {@link UDPReactor} and is only touched by its thread. The metrics
+ * may be read from any thread, and may then lag slightly behind.
+ */
+public class DnsCache {
+    private static final String TAG = DnsCache.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    // Upper bounds on how long anything is cached, whatever the TTLs say
+    private static final long MAX_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+    // RFC 2308 suggests capping negative answers at one to three hours; keep new names from being hidden for long
+    private static final long MAX_NEGATIVE_TTL_SECONDS = TimeUnit.MINUTES.toSeconds(10);
+
+    private static final class Entry {
+        final byte[] response;
+        // Indices in the response of the TTL fields to age, which excludes the EDNS OPT pseudo-record
+        final int[] ttlIndices;
+        final long storedNanos;
+        final long expiresNanos;
+        final boolean negative;
+
+        Entry(byte[] response, int[] ttlIndices, long storedNanos, long expiresNanos, boolean negative) {
+            this.response = response;
+            this.ttlIndices = ttlIndices;
+            this.storedNanos = storedNanos;
+            this.expiresNanos = expiresNanos;
+            this.negative = negative;
+        }
+    }
+
+    private final LRUCache<String, Entry> entries;
+
+    private volatile long hits;
+    private volatile long negativeHits;
+    private volatile long misses;
+    private volatile long evictions;
+
+    /**
+     * Creates a cache holding the default number of responses.
+     */
+    public DnsCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries The most responses the cache holds before evicting the least recently used.
+     */
+    public DnsCache(int maxEntries) {
+        entries = new LRUCache<>(maxEntries, new LRUCache.CleanupCallback<String, Entry>() {
+            @Override
+            public void cleanup(Map.Entry<String, Entry> eldest) {
+                evictions++;
+            }
+        });
+    }
+
+    /**
+     * Writes the cached response to a query, if there is one that has not expired.
+     *
+     * @param query The buffer holding the query.
+     * @param queryOffset The index of the query's first byte.
+     * @param queryLength The length of the query.
+     * @param out The buffer to write the response into.
+     * @param outOffset The index to write the response at.
+     * @param nowNanos The current time from System.nanoTime().
+     * @return The length of the response written, or -1 if the query cannot be answered from the cache.
+     */
+    public int answer(ByteBuffer query, int queryOffset, int queryLength, ByteBuffer out, int outOffset,
+                      long nowNanos) {
+        // Check the length before reading any header field, so a runt datagram cannot read past its end
+        if (queryLength < DnsMessage.HEADER_SIZE) {
+            return -1;
+        }
+        int queryFlags = DnsMessage.getFlags(query, queryOffset);
+        if (DnsMessage.isResponse(queryFlags)) {
+            return -1;
+        }
+        String questionKey = DnsMessage.questionKey(query, queryOffset, queryLength);
+        if (questionKey == null) {
+            return -1;
+        }
+        // A client that did not offer EDNS is only answered from responses without an OPT record
+        String key = DnsMessage.answerKey(questionKey, DnsMessage.getAdditionalCount(query, queryOffset) != 0);
+        Entry entry = entries.get(key);
+        if (entry != null && nowNanos - entry.expiresNanos >= 0) {
+            entries.remove(key);
+            entry = null;
+        }
+        // A client that did not offer EDNS must not be sent more than it can take
+        if (entry == null || out.capacity() - outOffset < entry.response.length
+                || (entry.response.length > DnsMessage.MAX_UDP_SIZE_WITHOUT_EDNS
+                    && DnsMessage.getAdditionalCount(query, queryOffset) == 0)) {
+            misses++;
+            return -1;
+        }
+
+        out.position(outOffset);
+        out.put(entry.response);
+        DnsMessage.setId(out, outOffset, DnsMessage.getId(query, queryOffset));
+        int flags = DnsMessage.getFlags(out, outOffset);
+        flags = (flags & ~DnsMessage.FLAG_RECURSION_DESIRED) | (queryFlags & DnsMessage.FLAG_RECURSION_DESIRED);
+        out.putShort(outOffset + 2, (short) flags);
+        // Echo the question exactly as asked, letter case included; it only differs from the cached one in case
+        int questionLength = questionKey.length();
+        for (int i = 0; i < questionLength; i++) {
+            out.put(outOffset + DnsMessage.HEADER_SIZE + i, query.get(queryOffset + DnsMessage.HEADER_SIZE + i));
+        }
+        long ageSeconds = TimeUnit.NANOSECONDS.toSeconds(nowNanos - entry.storedNanos);
+        for (int ttlIndex : entry.ttlIndices) {
+            long ttl = out.getInt(outOffset + ttlIndex) & 0xFFFFFFFFL;
+            out.putInt(outOffset + ttlIndex, (int) Math.max(0, ttl - ageSeconds));
+        }
+
+        hits++;
+        if (entry.negative) {
+            negativeHits++;
+        }
+        return entry.response.length;
+    }
+
+    /**
+     * Caches a response from the upstream server, if it is a complete answer to a standard query that
+     * may be cached: a positive answer with a non-zero TTL, or a negative answer with an SOA record.
+     * Truncated responses, server failures and malformed messages are ignored.
+     *
+     * @param response The buffer holding the response.
+     * @param offset The index of the response's first byte.
+     * @param length The length of the response.
+     * @param nowNanos The current time from System.nanoTime().
+     * @return Whether the response was cached.
+     */
+    public boolean put(ByteBuffer response, int offset, int length, long nowNanos) {
+        if (length < DnsMessage.HEADER_SIZE) {
+            return false;
+        }
+        int flags = DnsMessage.getFlags(response, offset);
+        int rcode = DnsMessage.getRcode(flags);
+        if (!DnsMessage.isResponse(flags) || DnsMessage.isTruncated(flags)
+                || (rcode != DnsMessage.RCODE_NOERROR && rcode != DnsMessage.RCODE_NXDOMAIN)) {
+            return false;
+        }
+        String questionKey = DnsMessage.questionKey(response, offset, length);
+        if (questionKey == null) {
+            return false;
+        }
+
+        int answerCount = DnsMessage.getAnswerCount(response, offset);
+        int recordCount = answerCount + DnsMessage.getAuthorityCount(response, offset)
+                + DnsMessage.getAdditionalCount(response, offset);
+        int[] ttlIndices = new int[recordCount];
+        int ttlCount = 0;
+        long minAnswerTtl = Long.MAX_VALUE;
+        long negativeTtl = -1;
+        int end = offset + length;
+        int position = offset + DnsMessage.HEADER_SIZE + questionKey.length();
+        boolean edns = false;
+        for (int i = 0; i < recordCount; i++) {
+            position = DnsMessage.skipName(response, position, end);
+            if (position < 0 || position + DnsMessage.RECORD_FIXED_SIZE > end) {
+                return false;
+            }
+            int type = response.getShort(position) & 0xFFFF;
+            long ttl = response.getInt(position + 4) & 0xFFFFFFFFL;
+            int dataLength = response.getShort(position + 8) & 0xFFFF;
+            int dataIndex = position + DnsMessage.RECORD_FIXED_SIZE;
+            if (dataIndex + dataLength > end) {
+                return false;
+            }
+            if (type != DnsMessage.TYPE_OPT) {
+                ttlIndices[ttlCount++] = position + 4 - offset;
+            } else {
+                edns = true;
+            }
+            if (i < answerCount) {
+                minAnswerTtl = Math.min(minAnswerTtl, ttl);
+            } else if (type == DnsMessage.TYPE_SOA && i < answerCount + DnsMessage.getAuthorityCount(response, offset)
+                    && dataLength >= 4) {
+                // RFC 2308 section 5: the lesser of the SOA's own TTL and its MINIMUM field
+                long minimum = response.getInt(dataIndex + dataLength - 4) & 0xFFFFFFFFL;
+                negativeTtl = Math.min(ttl, minimum);
+            }
+            position = dataIndex + dataLength;
+        }
+
+        boolean negative = rcode == DnsMessage.RCODE_NXDOMAIN || answerCount == 0;
+        long ttlSeconds = negative
+                ? Math.min(negativeTtl, MAX_NEGATIVE_TTL_SECONDS)
+                : Math.min(minAnswerTtl, MAX_TTL_SECONDS);
+        if (ttlSeconds <= 0) {
+            return false;
+        }
+
+        byte[] bytes = new byte[length];
+        ByteBuffer copy = response.duplicate();
+        copy.limit(end).position(offset);
+        copy.get(bytes);
+        entries.put(DnsMessage.answerKey(questionKey, edns), new Entry(bytes, Arrays.copyOf(ttlIndices, ttlCount), nowNanos,
+                nowNanos + TimeUnit.SECONDS.toNanos(ttlSeconds), negative));
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "Cached " + (negative ? "negative " : "") + "response for " + ttlSeconds + " s; " + getStats());
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of queries answered from the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of queries answered from the cache with a negative answer.
+     */
+    public long getNegativeHits() {
+        return negativeHits;
+    }
+
+    /**
+     * @return The number of cacheable queries that had to be forwarded upstream.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of responses evicted to make room for newer ones.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of responses held, including expired ones not looked up since.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return A one-line summary of the cache's hit rate and occupancy, for logging.
+     */
+    public String getStats() {
+        long hitCount = hits;
+        long lookups = hitCount + misses;
+        return size() + " entries, " + hitCount + "/" + lookups + " hits ("
+                + (lookups == 0 ? 0 : hitCount * 100 / lookups) + "%), " + negativeHits + " negative, "
+                + evictions + " evicted";
+    }
+}
@@ -0,0 +1,183 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Static helpers for reading the few parts of a DNS message (RFC 1035) the VPN needs, straight out of the
+ * buffer holding a UDP payload: the header fields, the single question, and the resource records' TTLs.
+ * Messages are never fully parsed, and every read is bounds-checked, so a malformed message is simply
+ * treated as one that cannot be cached.
+ */
+public class DnsMessage {
+
+    public static final int PORT = 53;
+    public static final int HEADER_SIZE = 12;
+    // RFC 1035: the largest UDP response a client that does not use EDNS (RFC 6891) accepts
+    public static final int MAX_UDP_SIZE_WITHOUT_EDNS = 512;
+
+    static final int TYPE_SOA = 6;
+    static final int TYPE_OPT = 41;
+    static final int RCODE_NOERROR = 0;
+    static final int RCODE_NXDOMAIN = 3;
+
+    private static final int FLAG_RESPONSE = 0x8000;
+    private static final int FLAG_TRUNCATED = 0x0200;
+    static final int FLAG_RECURSION_DESIRED = 0x0100;
+    // Fixed part of a resource record after its name: type, class, TTL and data length
+    static final int RECORD_FIXED_SIZE = 10;
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private DnsMessage() {
+    }
+
+    // Header fields, at fixed offsets from the start of the message
+
+    public static int getId(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    public static void setId(ByteBuffer buffer, int offset, int id) {
+        buffer.putShort(offset, (short) id);
+    }
+
+    public static int getFlags(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + 2) & 0xFFFF;
+    }
+
+    public static boolean isResponse(int flags) {
+        return (flags & FLAG_RESPONSE) != 0;
+    }
+
+    public static boolean isTruncated(int flags) {
+        return (flags & FLAG_TRUNCATED) != 0;
+    }
+
+    public static int getOpcode(int flags) {
+        return (flags >> 11) & 0xF;
+    }
+
+    public static int getRcode(int flags) {
+        return flags & 0xF;
+    }
+
+    public static int getQuestionCount(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + 4) & 0xFFFF;
+    }
+
+    public static int getAnswerCount(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + 6) & 0xFFFF;
+    }
+
+    public static int getAuthorityCount(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + 8) & 0xFFFF;
+    }
+
+    public static int getAdditionalCount(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + 10) & 0xFFFF;
+    }
+
+    /**
+     * Checks that a message is a standard query or response with exactly one question, the only kind the
+     * cache and the upstream resolver deal with.
+     *
+     * @param buffer The buffer holding the message.
+     * @param offset The index of the message's first byte.
+     * @param length The length of the message.
+     * @return Whether the message has a full header, opcode QUERY and a single question.
+     */
+    public static boolean isStandardQuery(ByteBuffer buffer, int offset, int length) {
+        return length >= HEADER_SIZE && getOpcode(getFlags(buffer, offset)) == 0
+                && getQuestionCount(buffer, offset) == 1;
+    }
+
+    /**
+     * Builds the key under which the answers to a question are shared. Queries with and without EDNS
+     * (RFC 6891) get different keys, as a response carrying an OPT record must never be sent to a client that
+     * did not offer one, and a response without one would withhold the larger size from a client that did.
+     *
+     * @param questionKey The key of the question, see {@link #questionKey(ByteBuffer, int, int)}.
+     * @param edns Whether the query offered EDNS, or the response carries an OPT record.
+     * @return The key.
+     */
+    public static String answerKey(String questionKey, boolean edns) {
+        return edns ? questionKey + '+' : questionKey;
+    }
+
+    /**
+     * Builds a key identifying the question of a message: its name, compared case-insensitively, type and
+     * class. The key is the name's wire format with ASCII letters lowercased, one char per byte.
+     *
+     * @param buffer The buffer holding the message.
+     * @param offset The index of the message's first byte.
+     * @param length The length of the message.
+     * @return The key, or null if the message is not a standard single-question message or is malformed.
+     */
+    public static String questionKey(ByteBuffer buffer, int offset, int length) {
+        int end = questionEnd(buffer, offset, length);
+        if (end < 0) {
+            return null;
+        }
+        int start = offset + HEADER_SIZE;
+        StringBuilder key = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            int b = buffer.get(i) & 0xFF;
+            if (i < end - 4 && b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            key.append((char) b);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param buffer The buffer holding the message.
+     * @param offset The index of the message's first byte.
+     * @param length The length of the message.
+     * @return The index just past the single question, or -1 if the message is not a standard
+     *         single-question message, is malformed, or compresses the question's name.
+     */
+    public static int questionEnd(ByteBuffer buffer, int offset, int length) {
+        if (!isStandardQuery(buffer, offset, length)) {
+            return -1;
+        }
+        int end = offset + length;
+        int position = offset + HEADER_SIZE;
+        while (position < end) {
+            int labelLength = buffer.get(position) & 0xFF;
+            if (labelLength == 0) {
+                position++;
+                return position + 4 <= end && position - offset - HEADER_SIZE <= MAX_NAME_LENGTH
+                        ? position + 4 : -1;
+            }
+            if (labelLength > 63) {
+                return -1;
+            }
+            position += 1 + labelLength;
+        }
+        return -1;
+    }
+
+    /**
+     * @param buffer The buffer holding the message.
+     * @param position The index of the first byte of a name.
+     * @param end The index just past the message.
+     * @return The index just past the name, or -1 if it runs past the end of the message.
+     */
+    static int skipName(ByteBuffer buffer, int position, int end) {
+        while (position < end) {
+            int labelLength = buffer.get(position) & 0xFF;
+            if (labelLength == 0) {
+                return position + 1;
+            }
+            if ((labelLength & 0xC0) == 0xC0) {
+                // A compression pointer always ends the name
+                return position + 2 <= end ? position + 2 : -1;
+            }
+            if (labelLength > 63) {
+                return -1;
+            }
+            position += 1 + labelLength;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,368 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards the DNS queries the {@link DnsCache} cannot answer over one protected, non-blocking socket shared by
+ * every lookup, instead of a socket per query. Each query is sent upstream under a fresh random transaction ID;
+ * outstanding queries are tracked in a table of parallel arrays, with the rewritten ID indexing a {@code char[]}
+ * that maps it to the query's slot. A query goes to the resolver the device addressed first, and is retried once
+ * on a secondary resolver if no answer comes in time. Identical queries that arrive while one is outstanding wait
+ * for its answer rather than going upstream again.
+ * Not thread-safe; the upstream belongs to the {@link UDPReactor} and is only touched by its thread.
+ */
+public class DnsUpstream {
+    private static final String TAG = DnsUpstream.class.getSimpleName();
+
+    public static final int MAX_PENDING = 256;
+    private static final long QUERY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int MAX_ATTEMPTS = 2;
+    private static final int HEADER_SIZE = HeaderTemplate.UDP_HEADER_SIZE;
+    // The address the removed per-query forwarder sent every lookup to
+    private static final InetSocketAddress DEFAULT_SECONDARY_SERVER = new InetSocketAddress("8.8.8.8", DnsMessage.PORT);
+
+    // A device query waiting for the answer to an outstanding query: its own ID and reply header
+    private static final class Waiter {
+        final int id;
+        final HeaderTemplate headerTemplate;
+        Waiter next;
+
+        Waiter(int id, HeaderTemplate headerTemplate) {
+            this.id = id;
+            this.headerTemplate = headerTemplate;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private final DnsCache dnsCache;
+    private final HostnameMap hostnameMap;
+    private final TimerWheel timerWheel;
+    private final Random random = new SecureRandom();
+    private DatagramChannel channel;
+    private InetSocketAddress secondaryServer = DEFAULT_SECONDARY_SERVER;
+
+    // Slot + 1 of the outstanding query sent under each upstream ID, or 0 if the ID is free
+    private final char[] slotById = new char[0x10000];
+    // Outstanding queries, one slot each; a null query marks a free slot
+    private final byte[][] queries = new byte[MAX_PENDING][];
+    private final String[] keys = new String[MAX_PENDING];
+    private final int[] upstreamIds = new int[MAX_PENDING];
+    private final int[] attempts = new int[MAX_PENDING];
+    private final InetSocketAddress[] servers = new InetSocketAddress[MAX_PENDING];
+    private final Waiter[] waiters = new Waiter[MAX_PENDING];
+    private final TimerWheel.Timer[] timers = new TimerWheel.Timer[MAX_PENDING];
+    // Question key to slot, for coalescing identical queries
+    private final HashMap<String, Integer> slotByKey = new HashMap<>();
+    private int pending;
+
+    private long forwarded;
+    private long coalesced;
+    private long retries;
+    private long timeouts;
+
+    /**
+     * @param outputQueue The queue of packets to be written to the device, which answers go to.
+     * @param dnsCache The cache answers are stored in, or null to cache nothing.
+     * @param hostnameMap The map the answered addresses are learnt into, or null to learn nothing.
+     * @param timerWheel The wheel of the reactor, which drives the query timeouts.
+     */
+    public DnsUpstream(ConcurrentLinkedQueue<ByteBuffer> outputQueue, DnsCache dnsCache, HostnameMap hostnameMap,
+                       TimerWheel timerWheel) {
+        this.outputQueue = outputQueue;
+        this.dnsCache = dnsCache;
+        this.hostnameMap = hostnameMap;
+        this.timerWheel = timerWheel;
+        for (int i = 0; i < MAX_PENDING; i++) {
+            final int slot = i;
+            timers[i] = new TimerWheel.Timer(new Runnable() {
+                @Override
+                public void run() {
+                    onTimeout(slot);
+                }
+            });
+        }
+    }
+
+    /**
+     * Opens and protects the upstream socket and registers it with the reactor's selector.
+     *
+     * @param selector The reactor's selector.
+     * @param vpnService The VPN service used to protect the socket.
+     * @throws IOException if the socket cannot be opened.
+     */
+    public void open(Selector selector, VPNNetworkService vpnService) throws IOException {
+        channel = DatagramChannel.open();
+        vpnService.protect(channel.socket());
+        channel.configureBlocking(false);
+        channel.bind(null);
+        channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * @param secondaryServer The resolver a query is retried on when the one the device addressed does not answer.
+     */
+    public void setSecondaryServer(InetSocketAddress secondaryServer) {
+        this.secondaryServer = secondaryServer;
+    }
+
+    /**
+     * Sends a query from the device upstream, or attaches it to an identical query already outstanding.
+     *
+     * @param currentPacket The device's datagram, whose addresses and ports the answer is sent back with.
+     * @param query The query, from its position to its limit. Left unchanged.
+     * @return {@code false} if the query was not taken, because it is not a standard query, too many
+     *         queries are outstanding or the upstream socket failed; the caller should forward it itself.
+     */
+    public boolean forward(Packet currentPacket, ByteBuffer query) {
+        int offset = query.position();
+        int length = query.remaining();
+        // Check the length before reading any header field, so a runt datagram cannot read past its end
+        if (channel == null || length < DnsMessage.HEADER_SIZE
+                || DnsMessage.isResponse(DnsMessage.getFlags(query, offset))) {
+            return false;
+        }
+        String key = DnsMessage.questionKey(query, offset, length);
+        if (key == null) {
+            return false;
+        }
+        key = DnsMessage.answerKey(key, DnsMessage.getAdditionalCount(query, offset) != 0);
+        Waiter waiter = new Waiter(DnsMessage.getId(query, offset),
+                HeaderTemplate.forUdpResponse(currentPacket.ip4Header, currentPacket.udpHeader));
+
+        Integer outstanding = slotByKey.get(key);
+        if (outstanding != null) {
+            waiter.next = waiters[outstanding];
+            waiters[outstanding] = waiter;
+            coalesced++;
+            return true;
+        }
+        if (pending == MAX_PENDING) {
+            return false;
+        }
+
+        int slot = freeSlot();
+        byte[] bytes = new byte[length];
+        query.duplicate().get(bytes);
+        int upstreamId = freeId();
+        bytes[0] = (byte) (upstreamId >> 8);
+        bytes[1] = (byte) upstreamId;
+        InetSocketAddress server = new InetSocketAddress(
+                IPAddressFormatter.toInetAddress(currentPacket.ip4Header.destinationAddress),
+                currentPacket.udpHeader.destinationPort);
+
+        queries[slot] = bytes;
+        keys[slot] = key;
+        upstreamIds[slot] = upstreamId;
+        attempts[slot] = 0;
+        waiters[slot] = waiter;
+        slotById[upstreamId] = (char) (slot + 1);
+        slotByKey.put(key, slot);
+        pending++;
+        if (!send(slot, server)) {
+            free(slot);
+            return false;
+        }
+        forwarded++;
+        return true;
+    }
+
+    /**
+     * Reads every answer waiting on the upstream socket and sends it to the device queries waiting for it.
+     * Answers to unknown IDs, from a server the query was not sent to, or to a different question are dropped.
+     */
+    void processInput() {
+        ByteBuffer receiveBuffer = ByteBufferPool.acquire();
+        try {
+            while (true) {
+                receiveBuffer.clear();
+                SocketAddress sender = channel.receive(receiveBuffer);
+                if (sender == null) {
+                    break;
+                }
+                int length = receiveBuffer.position();
+                if (length < DnsMessage.HEADER_SIZE) {
+                    continue;
+                }
+                int slot = slotById[DnsMessage.getId(receiveBuffer, 0)] - 1;
+                if (slot < 0 || !sender.equals(servers[slot])
+                        || !answersQuestion(receiveBuffer, length, slot)) {
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Dropping unexpected answer from " + sender);
+                    }
+                    continue;
+                }
+                long now = System.nanoTime();
+                if (dnsCache != null) {
+                    dnsCache.put(receiveBuffer, 0, length, now);
+                }
+                if (hostnameMap != null) {
+                    hostnameMap.observe(receiveBuffer, 0, length, now);
+                }
+                for (Waiter waiter = waiters[slot]; waiter != null; waiter = waiter.next) {
+                    reply(waiter, receiveBuffer, length);
+                }
+                free(slot);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading DNS answers", e);
+        } finally {
+            ByteBufferPool.release(receiveBuffer);
+        }
+    }
+
+    // Called by a query's timer on the reactor's thread
+    void onTimeout(int slot) {
+        if (queries[slot] == null) {
+            return;
+        }
+        if (attempts[slot] < MAX_ATTEMPTS && send(slot, secondaryServer)) {
+            retries++;
+            return;
+        }
+        // Give up; the device's resolver retries on its own
+        timeouts++;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "DNS query timed out after " + attempts[slot] + " attempts");
+        }
+        free(slot);
+    }
+
+    /**
+     * @return The number of queries waiting for an answer from upstream.
+     */
+    public int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * @return The number of queries sent upstream.
+     */
+    public long getForwardedCount() {
+        return forwarded;
+    }
+
+    /**
+     * @return The number of queries that waited for an identical outstanding query instead of going upstream.
+     */
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * @return The number of queries retried on the secondary resolver.
+     */
+    public long getRetryCount() {
+        return retries;
+    }
+
+    /**
+     * @return The number of queries given up on.
+     */
+    public long getTimeoutCount() {
+        return timeouts;
+    }
+
+    /**
+     * @return A one-line summary of the upstream's traffic, for logging.
+     */
+    public String getStats() {
+        return pending + " pending, " + forwarded + " forwarded, " + coalesced + " coalesced, "
+                + retries + " retried, " + timeouts + " timed out";
+    }
+
+    /**
+     * Forgets every outstanding query and closes the upstream socket.
+     */
+    public void close() {
+        for (int slot = 0; slot < MAX_PENDING; slot++) {
+            if (queries[slot] != null) {
+                free(slot);
+            }
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing upstream socket", e);
+            }
+        }
+    }
+
+    private boolean send(int slot, InetSocketAddress server) {
+        try {
+            if (channel.send(ByteBuffer.wrap(queries[slot]), server) == 0) {
+                return false;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error sending DNS query to " + server, e);
+            return false;
+        }
+        servers[slot] = server;
+        attempts[slot]++;
+        timerWheel.schedule(timers[slot], System.nanoTime() + QUERY_TIMEOUT_NANOS);
+        return true;
+    }
+
+    // Whether an answer is for the question of the query in a slot; the server may change the name's case
+    private boolean answersQuestion(ByteBuffer answer, int length, int slot) {
+        String key = DnsMessage.questionKey(answer, 0, length);
+        String expected = keys[slot];
+        return key != null && expected.startsWith(key)
+                && expected.length() - key.length() <= 1;
+    }
+
+    private void reply(Waiter waiter, ByteBuffer answer, int length) {
+        ByteBuffer responseBuffer = ByteBufferPool.acquire();
+        ByteBuffer source = answer.duplicate();
+        source.limit(length).position(0);
+        responseBuffer.position(HEADER_SIZE);
+        responseBuffer.put(source);
+        DnsMessage.setId(responseBuffer, HEADER_SIZE, waiter.id);
+        waiter.headerTemplate.writeUdp(responseBuffer, 0, length,
+                InternetChecksum.sum(responseBuffer, HEADER_SIZE, length));
+        responseBuffer.position(HEADER_SIZE + length);
+        outputQueue.offer(responseBuffer);
+    }
+
+    private int freeSlot() {
+        for (int slot = 0; ; slot++) {
+            if (queries[slot] == null) {
+                return slot;
+            }
+        }
+    }
+
+    // A random ID not used by another outstanding query, so answers cannot be guessed or confused
+    private int freeId() {
+        while (true) {
+            int id = random.nextInt(0x10000);
+            if (slotById[id] == 0) {
+                return id;
+            }
+        }
+    }
+
+    private void free(int slot) {
+        timerWheel.cancel(timers[slot]);
+        slotById[upstreamIds[slot]] = 0;
+        slotByKey.remove(keys[slot]);
+        queries[slot] = null;
+        keys[slot] = null;
+        servers[slot] = null;
+        waiters[slot] = null;
+        pending--;
+    }
+}
@@ -0,0 +1,422 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A hash table from packed flow keys to per-flow state, such as {@link TCB}s.
+ * Keys are held in a primitive {@code long[]} with open addressing and linear probing, so a lookup never
+ * allocates: IPv4 flows use a single packed {@code long} (see {@link TCB#flowKey(int, int, int)}), and IPv6
+ * flows use the 128-bit remote address plus both ports.
+ * <p>
+ * Writers take an exclusive lock; readers first try an optimistic read that takes no lock at all and only
+ * fall back to a shared read lock if a write happened concurrently. The table grows up to a fixed maximum
+ * number of flows, after which new flows are refused.
+ */
+public class FlowTable<V> {
+
+    private static final int KEY_STRIDE = 3;
+    // Marks the third key word of IPv6 flows, so they can never collide with IPv4 flows
+    private static final long IPV6_TAG = 1L << 32;
+
+    /**
+     * Called for every flow removed by {@link #clear(RemovalCallback)} or {@link #removeIf(Filter, RemovalCallback)}.
+     */
+    public interface RemovalCallback<V> {
+        void onRemoved(V value);
+    }
+
+    /**
+     * Selects the flows removed by {@link #removeIf(Filter, RemovalCallback)}. Runs under the write lock.
+     */
+    public interface Filter<V> {
+        boolean matches(V value);
+    }
+
+    /**
+     * Visits the flows passed over by {@link #forEach(Visitor)}. Runs under the read lock, so must not modify
+     * the table.
+     */
+    public interface Visitor<V> {
+        void visit(V value);
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final int maxSize;
+
+    // Slot i holds keys[3i..3i+2] and values[i]; a null value marks a free slot
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Creates a flow table.
+     *
+     * @param initialCapacity The number of flows to size the table for initially.
+     * @param maxSize The maximum number of flows the table will hold.
+     */
+    public FlowTable(int initialCapacity, int maxSize) {
+        this.maxSize = maxSize;
+        int capacity = tableSizeFor(Math.min(initialCapacity, maxSize));
+        keys = new long[capacity * KEY_STRIDE];
+        values = new Object[capacity];
+    }
+
+    // Keep the load factor at or below one half, so probe sequences stay short
+    private static int tableSizeFor(int flows) {
+        int capacity = 8;
+        while (capacity < flows * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Packs both ports of an IPv6 flow into the third key word.
+     *
+     * @param remotePort The remote port.
+     * @param localPort The local (device) port.
+     * @return The packed ports.
+     */
+    public static int ports(int remotePort, int localPort) {
+        return (remotePort & 0xFFFF) << 16 | (localPort & 0xFFFF);
+    }
+
+    /**
+     * @param flowKey The packed IPv4 flow key.
+     * @return The state for the flow, or null if there is none.
+     */
+    public V get(long flowKey) {
+        return lookup(flowKey, 0, 0);
+    }
+
+    /**
+     * @param addressHigh The upper 64 bits of the remote IPv6 address.
+     * @param addressLow The lower 64 bits of the remote IPv6 address.
+     * @param ports Both ports, packed with {@link #ports(int, int)}.
+     * @return The state for the flow, or null if there is none.
+     */
+    public V get(long addressHigh, long addressLow, int ports) {
+        return lookup(addressHigh, addressLow, IPV6_TAG | (ports & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Adds or replaces the state for an IPv4 flow.
+     *
+     * @param flowKey The packed IPv4 flow key.
+     * @param value The state for the flow.
+     * @return {@code false} if the flow is new and the table is already full, {@code true} otherwise.
+     */
+    public boolean put(long flowKey, V value) {
+        return insert(flowKey, 0, 0, value);
+    }
+
+    /**
+     * Adds or replaces the state for an IPv6 flow.
+     *
+     * @param addressHigh The upper 64 bits of the remote IPv6 address.
+     * @param addressLow The lower 64 bits of the remote IPv6 address.
+     * @param ports Both ports, packed with {@link #ports(int, int)}.
+     * @param value The state for the flow.
+     * @return {@code false} if the flow is new and the table is already full, {@code true} otherwise.
+     */
+    public boolean put(long addressHigh, long addressLow, int ports, V value) {
+        return insert(addressHigh, addressLow, IPV6_TAG | (ports & 0xFFFFFFFFL), value);
+    }
+
+    /**
+     * @param flowKey The packed IPv4 flow key.
+     * @return The removed state, or null if there was none.
+     */
+    public V remove(long flowKey) {
+        return delete(flowKey, 0, 0);
+    }
+
+    /**
+     * @param addressHigh The upper 64 bits of the remote IPv6 address.
+     * @param addressLow The lower 64 bits of the remote IPv6 address.
+     * @param ports Both ports, packed with {@link #ports(int, int)}.
+     * @return The removed state, or null if there was none.
+     */
+    public V remove(long addressHigh, long addressLow, int ports) {
+        return delete(addressHigh, addressLow, IPV6_TAG | (ports & 0xFFFFFFFFL));
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The approximate number of bytes used by the table's own arrays, excluding the values.
+     */
+    public long getTableBytes() {
+        long stamp = lock.readLock();
+        try {
+            // 8 bytes per key word, and a compressed reference per value slot
+            return (long) keys.length * 8 + (long) values.length * 4;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Passes every flow to the visitor, in no particular order.
+     *
+     * @param visitor Called for each value.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<V> visitor) {
+        long stamp = lock.readLock();
+        try {
+            for (Object value : values) {
+                if (value != null) {
+                    visitor.visit((V) value);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Removes every flow the filter matches, then passes each removed value to the callback outside the lock.
+     *
+     * @param filter Selects the flows to remove.
+     * @param callback Called for each removed value, or null.
+     * @return The number of flows removed.
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(Filter<V> filter, RemovalCallback<V> callback) {
+        List<V> removed = null;
+        long stamp = lock.writeLock();
+        try {
+            int slot = 0;
+            while (slot < values.length) {
+                V value = (V) values[slot];
+                if (value != null && filter.matches(value)) {
+                    if (removed == null) {
+                        removed = new ArrayList<>();
+                    }
+                    removed.add(value);
+                    // A later entry may shift back into this slot, so look at it again
+                    deleteAt(slot);
+                } else {
+                    slot++;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (removed == null) {
+            return 0;
+        }
+        if (callback != null) {
+            for (V value : removed) {
+                callback.onRemoved(value);
+            }
+        }
+        return removed.size();
+    }
+
+    /**
+     * Removes every flow, then passes each removed value to the callback outside the lock.
+     *
+     * @param callback Called for each removed value, or null.
+     */
+    public void clear(RemovalCallback<V> callback) {
+        List<V> removed;
+        long stamp = lock.writeLock();
+        try {
+            removed = new ArrayList<>(size);
+            for (int slot = 0; slot < values.length; slot++) {
+                @SuppressWarnings("unchecked")
+                V value = (V) values[slot];
+                if (value != null) {
+                    removed.add(value);
+                    values[slot] = null;
+                }
+            }
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (callback != null) {
+            for (V value : removed) {
+                callback.onRemoved(value);
+            }
+        }
+    }
+
+    private V lookup(long k0, long k1, long k2) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            V value = find(k0, k1, k2);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return find(k0, k1, k2);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // May run without the lock, so it reads both arrays once and never trusts them for more than one pass
+    @SuppressWarnings("unchecked")
+    private V find(long k0, long k1, long k2) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int capacity = values.length;
+        if (keys.length != capacity * KEY_STRIDE) {
+            // Caught mid-resize; the caller's validation will fail and retry under the lock
+            return null;
+        }
+        int mask = capacity - 1;
+        int slot = hash(k0, k1, k2) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            Object value = values[slot];
+            if (value == null) {
+                return null;
+            }
+            int base = slot * KEY_STRIDE;
+            if (keys[base] == k0 && keys[base + 1] == k1 && keys[base + 2] == k2) {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private boolean insert(long k0, long k1, long k2, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Flow state must not be null");
+        }
+        long stamp = lock.writeLock();
+        try {
+            int mask = values.length - 1;
+            int slot = hash(k0, k1, k2) & mask;
+            while (values[slot] != null) {
+                int base = slot * KEY_STRIDE;
+                if (keys[base] == k0 && keys[base + 1] == k1 && keys[base + 2] == k2) {
+                    values[slot] = value;
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size >= maxSize) {
+                return false;
+            }
+            if ((size + 1) * 2 > values.length) {
+                resize(values.length * 2);
+                return putAbsent(k0, k1, k2, value);
+            }
+            insertAt(slot, k0, k1, k2, value);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Must hold the write lock, and the key must not be present
+    private boolean putAbsent(long k0, long k1, long k2, Object value) {
+        int mask = values.length - 1;
+        int slot = hash(k0, k1, k2) & mask;
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        insertAt(slot, k0, k1, k2, value);
+        return true;
+    }
+
+    private void insertAt(int slot, long k0, long k1, long k2, Object value) {
+        int base = slot * KEY_STRIDE;
+        keys[base] = k0;
+        keys[base + 1] = k1;
+        keys[base + 2] = k2;
+        values[slot] = value;
+        size++;
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[newCapacity * KEY_STRIDE];
+        values = new Object[newCapacity];
+        size = 0;
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != null) {
+                int base = slot * KEY_STRIDE;
+                putAbsent(oldKeys[base], oldKeys[base + 1], oldKeys[base + 2], oldValues[slot]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V delete(long k0, long k1, long k2) {
+        long stamp = lock.writeLock();
+        try {
+            int mask = values.length - 1;
+            int slot = hash(k0, k1, k2) & mask;
+            while (values[slot] != null) {
+                int base = slot * KEY_STRIDE;
+                if (keys[base] == k0 && keys[base + 1] == k1 && keys[base + 2] == k2) {
+                    V removed = (V) values[slot];
+                    deleteAt(slot);
+                    return removed;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Backward-shift deletion: later entries of the same probe run move into the hole, so no tombstones are needed
+    private void deleteAt(int hole) {
+        int mask = values.length - 1;
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == null) {
+                break;
+            }
+            int base = slot * KEY_STRIDE;
+            int home = hash(keys[base], keys[base + 1], keys[base + 2]) & mask;
+            // The entry may move back if its home slot is not between the hole and its current slot
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                int holeBase = hole * KEY_STRIDE;
+                keys[holeBase] = keys[base];
+                keys[holeBase + 1] = keys[base + 1];
+                keys[holeBase + 2] = keys[base + 2];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        values[hole] = null;
+        size--;
+    }
+
+    private static int hash(long k0, long k1, long k2) {
+        long h = k0 ^ Long.rotateLeft(k1, 21) ^ Long.rotateLeft(k2, 42);
+        // Finaliser from MurmurHash3, so that keys differing only in a port spread across the table
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
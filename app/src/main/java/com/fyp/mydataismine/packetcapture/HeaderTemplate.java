@@ -0,0 +1,309 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pre-built IPv4 and TCP or UDP header for the packets sent back to the device on one connection or flow.
+ * Addresses, ports and TTL never change for a connection, so they are serialised once into a 40 byte
+ * template together with the one's complement sums of those fixed words. The window changes rarely and is
+ * kept in the template too, but outside the sums. Building a response is
+ * then a single bulk copy plus patching the sequence and acknowledgement numbers, flags, length and
+ * checksums, instead of re-serialising both headers from a full {@link Packet}.
+ */
+public class HeaderTemplate {
+
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE;
+    /** The size of the headers written by {@link #writeUdp(ByteBuffer, int, int, long)}. */
+    public static final int UDP_HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE;
+    private static final byte DATA_OFFSET = (byte) (Packet.TCP_HEADER_SIZE << 2);
+
+    private final byte[] header;
+    // Unfolded sums of the template's IPv4 header and of its TCP or UDP header plus pseudo-header,
+    // without the fields patched for each packet
+    private final long ip4HeaderSum;
+    private final long transportHeaderSum;
+    private int window;
+    private final int sourceAddress;
+    private final int destinationAddress;
+
+    private static final int MSS_OPTION_SIZE = 4;
+    // A NOP to keep the following options word aligned, then the 3 byte window scale option
+    private static final int WINDOW_SCALE_OPTION_SIZE = 4;
+
+    // Reversed templates swap the addresses and ports of the given headers, to answer the packet they came from
+    private HeaderTemplate(IP4Header ip4Header, TCPHeader tcpHeader, int window, boolean reversed) {
+        sourceAddress = reversed ? ip4Header.destinationAddress : ip4Header.sourceAddress;
+        destinationAddress = reversed ? ip4Header.sourceAddress : ip4Header.destinationAddress;
+        header = new byte[HEADER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        putIp4Header(buffer, ip4Header, TransportProtocol.TCP);
+
+        // Sequence, acknowledgement, flags and checksum are patched per packet
+        buffer.putShort((short) (reversed ? tcpHeader.destinationPort : tcpHeader.sourcePort));
+        buffer.putShort((short) (reversed ? tcpHeader.sourcePort : tcpHeader.destinationPort));
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.put(DATA_OFFSET);
+        buffer.put((byte) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) tcpHeader.urgentPointer);
+
+        ip4HeaderSum = InternetChecksum.sum(buffer, 0, Packet.IP4_HEADER_SIZE);
+        transportHeaderSum = InternetChecksum.pseudoHeaderSum(sourceAddress, destinationAddress,
+                TransportProtocol.TCP.getNumber(), 0)
+                + InternetChecksum.sum(buffer, Packet.IP4_HEADER_SIZE, Packet.TCP_HEADER_SIZE);
+        setWindow(window);
+    }
+
+    private HeaderTemplate(IP4Header ip4Header, UDPHeader udpHeader, boolean reversed) {
+        sourceAddress = reversed ? ip4Header.destinationAddress : ip4Header.sourceAddress;
+        destinationAddress = reversed ? ip4Header.sourceAddress : ip4Header.destinationAddress;
+        header = new byte[UDP_HEADER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        putIp4Header(buffer, ip4Header, TransportProtocol.UDP);
+
+        // Length and checksum are patched per packet
+        buffer.putShort((short) (reversed ? udpHeader.destinationPort : udpHeader.sourcePort));
+        buffer.putShort((short) (reversed ? udpHeader.sourcePort : udpHeader.destinationPort));
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+
+        ip4HeaderSum = InternetChecksum.sum(buffer, 0, Packet.IP4_HEADER_SIZE);
+        transportHeaderSum = InternetChecksum.pseudoHeaderSum(sourceAddress, destinationAddress,
+                TransportProtocol.UDP.getNumber(), 0)
+                + InternetChecksum.sum(buffer, Packet.IP4_HEADER_SIZE, Packet.UDP_HEADER_SIZE);
+    }
+
+    // Responses never carry IP options, and total length and checksum are patched per packet
+    private void putIp4Header(ByteBuffer buffer, IP4Header ip4Header, TransportProtocol protocol) {
+        buffer.put((byte) (4 << 4 | Packet.IP4_HEADER_SIZE >> 2));
+        buffer.put((byte) ip4Header.typeOfService);
+        buffer.putShort((short) 0);
+        buffer.putInt(ip4Header.identificationAndFlagsAndFragmentOffset);
+        buffer.put((byte) ip4Header.TTL);
+        buffer.put((byte) protocol.getNumber());
+        buffer.putShort((short) 0);
+        buffer.putInt(sourceAddress);
+        buffer.putInt(destinationAddress);
+    }
+
+    /**
+     * Builds the template for responses to a packet sent by the device, swapping its addresses and ports.
+     *
+     * @param ip4Header The IPv4 header of the device's packet.
+     * @param tcpHeader The TCP header of the device's packet.
+     * @return The header template for the connection.
+     */
+    public static HeaderTemplate forTcpResponse(IP4Header ip4Header, TCPHeader tcpHeader) {
+        return new HeaderTemplate(ip4Header, tcpHeader, tcpHeader.window, true);
+    }
+
+    /**
+     * Builds a template that writes a packet's own headers, with its addresses and ports as they are.
+     * Used by {@link Packet#updateTCPBuffer(ByteBuffer, byte, long, long, int)} on packets whose addresses
+     * were already swapped.
+     *
+     * @param ip4Header The IPv4 header to write.
+     * @param tcpHeader The TCP header to write.
+     * @return The header template.
+     */
+    static HeaderTemplate forTcpPacket(IP4Header ip4Header, TCPHeader tcpHeader) {
+        return new HeaderTemplate(ip4Header, tcpHeader, tcpHeader.window, false);
+    }
+
+    /**
+     * Builds the template for replies to a UDP datagram sent by the device, swapping its addresses and ports.
+     *
+     * @param ip4Header The IPv4 header of the device's datagram.
+     * @param udpHeader The UDP header of the device's datagram.
+     * @return The header template for the flow.
+     */
+    public static HeaderTemplate forUdpResponse(IP4Header ip4Header, UDPHeader udpHeader) {
+        return new HeaderTemplate(ip4Header, udpHeader, true);
+    }
+
+    /**
+     * Builds a template that writes a datagram's own headers, with its addresses and ports as they are.
+     *
+     * @param ip4Header The IPv4 header to write.
+     * @param udpHeader The UDP header to write.
+     * @return The header template.
+     */
+    static HeaderTemplate forUdpPacket(IP4Header ip4Header, UDPHeader udpHeader) {
+        return new HeaderTemplate(ip4Header, udpHeader, false);
+    }
+
+    /**
+     * Writes a UDP reply header at an offset in the buffer, in front of a payload that already follows it.
+     * Only valid on UDP templates. The buffer is left
+     * positioned just after the header.
+     *
+     * @param buffer The buffer to write the header into.
+     * @param offset The index of the first byte of the header.
+     * @param payloadSize The size of the payload in bytes that follows the UDP header.
+     * @param payloadSum The unfolded one's complement sum of the payload bytes.
+     */
+    public void writeUdp(ByteBuffer buffer, int offset, int payloadSize, long payloadSum) {
+        buffer.position(offset);
+        buffer.put(header);
+
+        int udpLength = Packet.UDP_HEADER_SIZE + payloadSize;
+        int totalLength = Packet.IP4_HEADER_SIZE + udpLength;
+        buffer.putShort(offset + 2, (short) totalLength);
+        buffer.putShort(offset + 10, (short) InternetChecksum.finish(ip4HeaderSum + totalLength));
+
+        int udpOffset = offset + Packet.IP4_HEADER_SIZE;
+        buffer.putShort(udpOffset + 4, (short) udpLength);
+        // The length is counted twice: once in the pseudo-header and once in the UDP header
+        int checksum = InternetChecksum.finish(transportHeaderSum + 2L * udpLength + payloadSum);
+        // Zero means "no checksum" in UDP over IPv4, so a computed zero is sent as all ones
+        buffer.putShort(udpOffset + 6, (short) (checksum == 0 ? 0xFFFF : checksum));
+    }
+
+    /**
+     * Writes a SYN-ACK into the start of the buffer, with a maximum segment size option and, if the device
+     * offered window scaling, a window scale option. These options are only allowed on SYNs, so unlike the
+     * other responses the header is summed in full rather than patched. The buffer is left positioned just
+     * after the header.
+     *
+     * @param buffer The buffer to write the SYN-ACK into.
+     * @param sequenceNum The sequence number for the TCP segment.
+     * @param ackNum The acknowledgment number for the TCP segment.
+     * @param synWindow The window field of the SYN-ACK, which is never scaled.
+     * @param mss The largest segment the device may send us.
+     * @param windowShift The shift count to advertise, or -1 to leave out the window scale option.
+     */
+    public void writeSynAck(ByteBuffer buffer, long sequenceNum, long ackNum, int synWindow, int mss,
+                            int windowShift) {
+        int optionsSize = MSS_OPTION_SIZE + (windowShift >= 0 ? WINDOW_SCALE_OPTION_SIZE : 0);
+        int tcpLength = Packet.TCP_HEADER_SIZE + optionsSize;
+        int totalLength = Packet.IP4_HEADER_SIZE + tcpLength;
+
+        buffer.clear();
+        buffer.put(header);
+        buffer.put((byte) TCPHeader.OPTION_MSS);
+        buffer.put((byte) MSS_OPTION_SIZE);
+        buffer.putShort((short) mss);
+        if (windowShift >= 0) {
+            buffer.put((byte) TCPHeader.OPTION_NOP);
+            buffer.put((byte) TCPHeader.OPTION_WINDOW_SCALE);
+            buffer.put((byte) 3);
+            buffer.put((byte) windowShift);
+        }
+
+        buffer.putShort(2, (short) totalLength);
+        buffer.putShort(10, (short) InternetChecksum.finish(ip4HeaderSum + totalLength));
+
+        int tcpOffset = Packet.IP4_HEADER_SIZE;
+        buffer.putInt(tcpOffset + 4, (int) sequenceNum);
+        buffer.putInt(tcpOffset + 8, (int) ackNum);
+        buffer.put(tcpOffset + 12, (byte) (tcpLength << 2));
+        buffer.put(tcpOffset + 13, (byte) (TCPHeader.SYN | TCPHeader.ACK));
+        buffer.putShort(tcpOffset + 14, (short) synWindow);
+
+        long sum = InternetChecksum.pseudoHeaderSum(sourceAddress, destinationAddress,
+                TransportProtocol.TCP.getNumber(), tcpLength)
+                + InternetChecksum.sum(buffer, tcpOffset, tcpLength);
+        buffer.putShort(tcpOffset + 16, (short) InternetChecksum.finish(sum));
+    }
+
+    /**
+     * Writes a TCP response header into the start of the buffer, summing the payload that already follows it.
+     * The buffer is left positioned just after the header.
+     *
+     * @param buffer The buffer to write the header into.
+     * @param flags The control flags for the TCP segment (e.g., SYN, ACK, FIN).
+     * @param sequenceNum The sequence number for the TCP segment.
+     * @param ackNum The acknowledgment number for the TCP segment.
+     * @param payloadSize The size of the payload in bytes that follows the TCP header.
+     */
+    public void writeTcp(ByteBuffer buffer, byte flags, long sequenceNum, long ackNum, int payloadSize) {
+        long payloadSum = payloadSize > 0 ? InternetChecksum.sum(buffer, HEADER_SIZE, payloadSize) : 0;
+        writeTcp(buffer, flags, sequenceNum, ackNum, payloadSize, payloadSum);
+    }
+
+    /**
+     * Writes a TCP response header into the start of the buffer, using a payload sum the caller computed
+     * with {@link InternetChecksum#sum(ByteBuffer, int, int)} while the payload was read.
+     * The buffer is left positioned just after the header.
+     *
+     * @param buffer The buffer to write the header into.
+     * @param flags The control flags for the TCP segment (e.g., SYN, ACK, FIN).
+     * @param sequenceNum The sequence number for the TCP segment.
+     * @param ackNum The acknowledgment number for the TCP segment.
+     * @param payloadSize The size of the payload in bytes that follows the TCP header.
+     * @param payloadSum The unfolded one's complement sum of the payload bytes.
+     */
+    public void writeTcp(ByteBuffer buffer, byte flags, long sequenceNum, long ackNum, int payloadSize,
+                         long payloadSum) {
+        writeTcp(buffer, 0, flags, sequenceNum, ackNum, payloadSize, payloadSum);
+    }
+
+    /**
+     * Writes a TCP response header at an offset in the buffer, in front of a payload that already follows it.
+     * Used to build several segments back to back in one buffer. The buffer is left positioned just after
+     * the header.
+     *
+     * @param buffer The buffer to write the header into.
+     * @param offset The index of the first byte of the header.
+     * @param flags The control flags for the TCP segment (e.g., SYN, ACK, FIN).
+     * @param sequenceNum The sequence number for the TCP segment.
+     * @param ackNum The acknowledgment number for the TCP segment.
+     * @param payloadSize The size of the payload in bytes that follows the TCP header.
+     * @param payloadSum The unfolded one's complement sum of the payload bytes.
+     */
+    public void writeTcp(ByteBuffer buffer, int offset, byte flags, long sequenceNum, long ackNum, int payloadSize,
+                         long payloadSum) {
+        buffer.position(offset);
+        buffer.put(header);
+
+        int tcpLength = Packet.TCP_HEADER_SIZE + payloadSize;
+        int totalLength = Packet.IP4_HEADER_SIZE + tcpLength;
+        buffer.putShort(offset + 2, (short) totalLength);
+        buffer.putShort(offset + 10, (short) InternetChecksum.finish(ip4HeaderSum + totalLength));
+
+        int tcpOffset = offset + Packet.IP4_HEADER_SIZE;
+        buffer.putInt(tcpOffset + 4, (int) sequenceNum);
+        buffer.putInt(tcpOffset + 8, (int) ackNum);
+        buffer.put(tcpOffset + 13, flags);
+
+        long sum = transportHeaderSum + tcpLength + payloadSum
+                + ((sequenceNum >>> 16) & 0xFFFF) + (sequenceNum & 0xFFFF)
+                + ((ackNum >>> 16) & 0xFFFF) + (ackNum & 0xFFFF)
+                + (flags & 0xFF) + window;
+        buffer.putShort(tcpOffset + 16, (short) InternetChecksum.finish(sum));
+    }
+
+    /**
+     * Changes the window field of the responses written from now on.
+     *
+     * @param window The new window field, after any window scaling has been applied.
+     */
+    public void setWindow(int window) {
+        this.window = window & 0xFFFF;
+        header[Packet.IP4_HEADER_SIZE + 14] = (byte) (this.window >> 8);
+        header[Packet.IP4_HEADER_SIZE + 15] = (byte) this.window;
+    }
+
+    /**
+     * @return The window field of the responses.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return The source address of the responses, i.e. the remote host, as a big-endian int.
+     */
+    public int getSourceAddress() {
+        return sourceAddress;
+    }
+
+    /**
+     * @return The destination address of the responses, i.e. the device, as a big-endian int.
+     */
+    public int getDestinationAddress() {
+        return destinationAddress;
+    }
+}
@@ -0,0 +1,258 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps the addresses the device connects to back to the hostnames it looked them up by, learnt passively from
+ * the DNS answers passing through the VPN. Packets can then be labelled with a hostname at no network cost,
+ * and remote lookups are only needed for addresses the device never resolved through the VPN.
+ * <p>
+ * Entries live in a {@link FlowTable}, keyed by the IPv4 address or by the 128-bit IPv6 address, so lookups
+ * never allocate and never block the reactor that learns new entries. An entry is kept for the record's TTL,
+ * but at least {@link #MIN_RETENTION_SECONDS}, since connections routinely outlive the answer they were opened
+ * from. The map is bounded; if it fills up with live entries it is flushed and relearnt.
+ */
+public class HostnameMap {
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    static final long MIN_RETENTION_SECONDS = TimeUnit.MINUTES.toSeconds(10);
+    private static final long MAX_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private static final int TYPE_A = 1;
+    private static final int TYPE_AAAA = 28;
+    private static final int CLASS_IN = 1;
+
+    private static final HostnameMap SHARED = new HostnameMap(DEFAULT_MAX_ENTRIES);
+
+    private static final class Entry {
+        final String hostname;
+        final long expiresNanos;
+
+        Entry(String hostname, long expiresNanos) {
+            this.hostname = hostname;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    private final FlowTable<Entry> table;
+    private volatile long learned;
+    private volatile long flushes;
+
+    /**
+     * @return The map shared by the capture pipeline and the monitoring services of this process.
+     */
+    public static HostnameMap getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @param maxEntries The maximum number of addresses to remember.
+     */
+    public HostnameMap(int maxEntries) {
+        table = new FlowTable<>(Math.min(256, maxEntries), maxEntries);
+    }
+
+    /**
+     * Learns the addresses in the A and AAAA records of a DNS response, mapping each to the name of the
+     * question. Records reached through a CNAME chain are mapped to the name the device asked for, which is
+     * the one it knows the host by. Only called from the {@link UDPReactor}'s thread.
+     *
+     * @param response The buffer holding the response.
+     * @param offset The index of the response's first byte.
+     * @param length The length of the response.
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return The number of addresses learnt; 0 if the message is not a successful response or is malformed.
+     */
+    public int observe(ByteBuffer response, int offset, int length, long nowNanos) {
+        int position = DnsMessage.questionEnd(response, offset, length);
+        if (position < 0) {
+            return 0;
+        }
+        int flags = DnsMessage.getFlags(response, offset);
+        if (!DnsMessage.isResponse(flags) || DnsMessage.getRcode(flags) != DnsMessage.RCODE_NOERROR) {
+            return 0;
+        }
+        String hostname = null;
+        int end = offset + length;
+        int answerCount = DnsMessage.getAnswerCount(response, offset);
+        int count = 0;
+        for (int i = 0; i < answerCount; i++) {
+            position = DnsMessage.skipName(response, position, end);
+            if (position < 0 || position + DnsMessage.RECORD_FIXED_SIZE > end) {
+                break;
+            }
+            int type = response.getShort(position) & 0xFFFF;
+            int recordClass = response.getShort(position + 2) & 0xFFFF;
+            long ttl = response.getInt(position + 4) & 0xFFFFFFFFL;
+            int dataLength = response.getShort(position + 8) & 0xFFFF;
+            int dataIndex = position + DnsMessage.RECORD_FIXED_SIZE;
+            position = dataIndex + dataLength;
+            if (position > end) {
+                break;
+            }
+            boolean address = type == TYPE_A && dataLength == 4 || type == TYPE_AAAA && dataLength == 16;
+            if (recordClass != CLASS_IN || !address) {
+                continue;
+            }
+            if (hostname == null) {
+                hostname = questionName(response, offset);
+            }
+            long retention = Math.min(Math.max(ttl, MIN_RETENTION_SECONDS), MAX_RETENTION_SECONDS);
+            Entry entry = new Entry(hostname, nowNanos + TimeUnit.SECONDS.toNanos(retention));
+            if (type == TYPE_A) {
+                put(response.getInt(dataIndex) & 0xFFFFFFFFL, 0, false, entry, nowNanos);
+            } else {
+                put(response.getLong(dataIndex), response.getLong(dataIndex + 8), true, entry, nowNanos);
+            }
+            count++;
+        }
+        learned += count;
+        return count;
+    }
+
+    /**
+     * @param address The IPv4 address as a big-endian int.
+     * @return The hostname the address was last resolved from, or null if it is unknown or has expired.
+     */
+    public String lookup(int address) {
+        return hostnameOf(table.get(address & 0xFFFFFFFFL), System.nanoTime());
+    }
+
+    /**
+     * @param high The upper 64 bits of the IPv6 address.
+     * @param low The lower 64 bits of the IPv6 address.
+     * @return The hostname the address was last resolved from, or null if it is unknown or has expired.
+     */
+    public String lookup(long high, long low) {
+        return hostnameOf(table.get(high, low, 0), System.nanoTime());
+    }
+
+    /**
+     * Looks up an address in textual form, for callers that only have a formatted IP. Never performs a DNS
+     * lookup itself.
+     *
+     * @param ip The IPv4 address in dotted-decimal form, or a literal IPv6 address.
+     * @return The hostname the address was last resolved from, or null if it is unknown, has expired or the
+     *         string is not an IP address.
+     */
+    public String lookup(String ip) {
+        if (ip == null) {
+            return null;
+        }
+        if (ip.indexOf(':') < 0) {
+            long address = parseIPv4(ip);
+            return address < 0 ? null : lookup((int) address);
+        }
+        try {
+            // A literal IPv6 address is parsed without a lookup
+            InetAddress address = InetAddress.getByName(ip);
+            if (!(address instanceof Inet6Address)) {
+                return null;
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(address.getAddress());
+            return lookup(bytes.getLong(0), bytes.getLong(8));
+        } catch (UnknownHostException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of addresses held, including any that have expired but not yet been removed.
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * @return The number of address to hostname mappings learnt so far.
+     */
+    public long getLearnedCount() {
+        return learned;
+    }
+
+    /**
+     * @return A one-line summary of the map, for logging.
+     */
+    public String getStats() {
+        return table.size() + "/" + table.getMaxSize() + " addresses, " + learned + " learnt, "
+                + flushes + " flushes";
+    }
+
+    /**
+     * Forgets every address.
+     */
+    public void clear() {
+        table.clear(null);
+    }
+
+    private void put(long high, long low, boolean ipv6, Entry entry, final long nowNanos) {
+        if (insert(high, low, ipv6, entry)) {
+            return;
+        }
+        table.removeIf(new FlowTable.Filter<Entry>() {
+            @Override
+            public boolean matches(Entry value) {
+                return value.expiresNanos - nowNanos <= 0;
+            }
+        }, null);
+        if (!insert(high, low, ipv6, entry)) {
+            // Full of live entries; start over rather than stop learning
+            table.clear(null);
+            flushes++;
+            insert(high, low, ipv6, entry);
+        }
+    }
+
+    private boolean insert(long high, long low, boolean ipv6, Entry entry) {
+        return ipv6 ? table.put(high, low, 0, entry) : table.put(high, entry);
+    }
+
+    private static String hostnameOf(Entry entry, long nowNanos) {
+        return entry == null || entry.expiresNanos - nowNanos <= 0 ? null : entry.hostname;
+    }
+
+    // The question's name in dotted form, lowercased; questionEnd() has already checked its labels
+    private static String questionName(ByteBuffer buffer, int offset) {
+        StringBuilder name = new StringBuilder();
+        int position = offset + DnsMessage.HEADER_SIZE;
+        int labelLength;
+        while ((labelLength = buffer.get(position++) & 0xFF) != 0) {
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = 0; i < labelLength; i++) {
+                int b = buffer.get(position++) & 0xFF;
+                name.append((char) (b >= 'A' && b <= 'Z' ? b + 'a' - 'A' : b));
+            }
+        }
+        return name.toString();
+    }
+
+    // The address as an unsigned int, or -1 if the string is not a dotted-decimal IPv4 address
+    private static long parseIPv4(String ip) {
+        long address = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || ++octets > 4) {
+                    return -1;
+                }
+                address = address << 8 | value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? address : -1;
+    }
+}
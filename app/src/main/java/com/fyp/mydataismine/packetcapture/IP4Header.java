@@ -4,13 +4,12 @@ import static com.google.firebase.appcheck.internal.util.Logger.TAG;
 
 import android.util.Log;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
 /**
  * Represents the IPv4 header of a network packet. This class provides methods to parse
  * and access IPv4 header fields such as version, header length, total length, protocol, and addresses.
+ * Addresses are kept as big-endian ints; use {@link IPAddressFormatter} to turn them into text.
  */
 public class IP4Header {
 
@@ -25,8 +24,8 @@ public class IP4Header {
     private short protocolNum;
     public TransportProtocol protocol;
     public int headerChecksum;
-    public InetAddress sourceAddress;
-    public InetAddress destinationAddress;
+    public int sourceAddress;
+    public int destinationAddress;
 
     public static final int IP4_HEADER_SIZE = 20;
 
@@ -34,9 +33,8 @@ public class IP4Header {
      * Constructs an IP4Header instance by parsing data from the given ByteBuffer.
      *
      * @param buffer The ByteBuffer containing the raw IPv4 header data.
-     * @throws UnknownHostException if IP address conversion fails.
      */
-    public IP4Header(ByteBuffer buffer) throws UnknownHostException {
+    public IP4Header(ByteBuffer buffer) {
         if (buffer.remaining() < IP4_HEADER_SIZE) {
             throw new IllegalArgumentException("Buffer too small for IPv4 header");
         }
@@ -65,15 +63,8 @@ public class IP4Header {
         this.protocol = TransportProtocol.numberToEnum(protocolNum);
         this.headerChecksum = BitUtils.getUnsignedShort(buffer.getShort());
 
-        byte[] sourceAddressBytes = new byte[4];
-        buffer.get(sourceAddressBytes);
-        //buffer.get(addressBytes, 0, 4);
-        this.sourceAddress = InetAddress.getByAddress(sourceAddressBytes);
-
-        byte[] destinationAddressBytes = new byte[4];
-        //buffer.get(addressBytes, 0, 4);
-        buffer.get(destinationAddressBytes);
-        this.destinationAddress = InetAddress.getByAddress(destinationAddressBytes);
+        this.sourceAddress = buffer.getInt();
+        this.destinationAddress = buffer.getInt();
     }
 
     /**
@@ -82,7 +73,7 @@ public class IP4Header {
      * @return The IP4Header instance with swapped addresses.
      */
     public IP4Header swapSourceAndDestination() {
-        InetAddress temp = sourceAddress;
+        int temp = sourceAddress;
         sourceAddress = destinationAddress;
         destinationAddress = temp;
         return this; // Return the updated IP4Header object
@@ -113,8 +104,8 @@ public class IP4Header {
         buffer.put((byte) this.protocol.getNumber());
         buffer.putShort((short) this.headerChecksum);
 
-        buffer.put(this.sourceAddress.getAddress());
-        buffer.put(this.destinationAddress.getAddress());
+        buffer.putInt(this.sourceAddress);
+        buffer.putInt(this.destinationAddress);
     }
 
     // Getters
@@ -140,11 +131,11 @@ public class IP4Header {
         return this.protocol.getNumber();  // Assuming you have a method getNumber() in TransportProtocol enum
     }
 
-    public InetAddress getDestinationAddress() {
+    public int getDestinationAddress() {
         return this.destinationAddress;
     }
 
-    public InetAddress getSourceAddress() {
+    public int getSourceAddress() {
         return this.sourceAddress;
     }
 
@@ -159,8 +150,8 @@ public class IP4Header {
         sb.append(", TTL=").append(TTL);
         sb.append(", protocol=").append(protocolNum).append(":").append(protocol);
         sb.append(", headerChecksum=").append(headerChecksum);
-        sb.append(", sourceAddress=").append(sourceAddress.getHostAddress());
-        sb.append(", destinationAddress=").append(destinationAddress.getHostAddress());
+        sb.append(", sourceAddress=").append(IPAddressFormatter.formatIPv4(sourceAddress));
+        sb.append(", destinationAddress=").append(IPAddressFormatter.formatIPv4(destinationAddress));
         sb.append('}');
         return sb.toString();
     }
@@ -1,12 +1,12 @@
 package com.fyp.mydataismine.packetcapture;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
 /**
  * Represents the IPv6 header of a network packet. This class provides methods to parse
  * and access IPv6 header fields such as version, traffic class, flow label, and addresses.
+ * Each address is kept as two big-endian longs; {@link InetAddress} instances are only created on request.
  */
 public class IP6Header {
     // IPv6 specific fields
@@ -16,16 +16,17 @@ public class IP6Header {
     private int payloadLength;
     private int nextHeader;
     private int hopLimit;
-    private InetAddress sourceAddress;
-    private InetAddress destinationAddress;
+    private long sourceAddressHigh;
+    private long sourceAddressLow;
+    private long destinationAddressHigh;
+    private long destinationAddressLow;
 
     /**
      * Constructs an IP6Header instance by parsing data from the given ByteBuffer.
      *
      * @param buffer The ByteBuffer containing the raw IPv6 header data.
-     * @throws UnknownHostException if IP address conversion fails.
      */
-    public IP6Header(ByteBuffer buffer) throws UnknownHostException {
+    public IP6Header(ByteBuffer buffer) {
         // Parse the first 4 bytes for version, traffic class, and flow label
         int firstFourBytes = buffer.getInt();
         this.version = (firstFourBytes >> 28) & 0x0F;
@@ -40,12 +41,10 @@ public class IP6Header {
         this.hopLimit = buffer.get() & 0xFF;
 
         // Source and destination addresses (16 bytes each)
-        byte[] addressBytes = new byte[16];
-        buffer.get(addressBytes);
-        this.sourceAddress = InetAddress.getByAddress(addressBytes);
-
-        buffer.get(addressBytes);
-        this.destinationAddress = InetAddress.getByAddress(addressBytes);
+        this.sourceAddressHigh = buffer.getLong();
+        this.sourceAddressLow = buffer.getLong();
+        this.destinationAddressHigh = buffer.getLong();
+        this.destinationAddressLow = buffer.getLong();
     }
 
     // Getters and setters
@@ -68,11 +67,23 @@ public class IP6Header {
     public int getHopLimit() {
         return hopLimit;
     }
+    public long getSourceAddressHigh() {
+        return sourceAddressHigh;
+    }
+    public long getSourceAddressLow() {
+        return sourceAddressLow;
+    }
+    public long getDestinationAddressHigh() {
+        return destinationAddressHigh;
+    }
+    public long getDestinationAddressLow() {
+        return destinationAddressLow;
+    }
     public InetAddress getSourceAddress() {
-        return sourceAddress;
+        return IPAddressFormatter.toInetAddress(sourceAddressHigh, sourceAddressLow);
     }
     public InetAddress getDestinationAddress() {
-        return destinationAddress;
+        return IPAddressFormatter.toInetAddress(destinationAddressHigh, destinationAddressLow);
     }
 
     @Override
@@ -84,8 +95,8 @@ public class IP6Header {
                 ", payloadLength=" + payloadLength +
                 ", nextHeader=" + nextHeader +
                 ", hopLimit=" + hopLimit +
-                ", sourceAddress=" + sourceAddress.getHostAddress() +
-                ", destinationAddress=" + destinationAddress.getHostAddress() +
+                ", sourceAddress=" + IPAddressFormatter.formatIPv6(sourceAddressHigh, sourceAddressLow) +
+                ", destinationAddress=" + IPAddressFormatter.formatIPv6(destinationAddressHigh, destinationAddressLow) +
                 '}';
     }
 }
@@ -0,0 +1,137 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Converts the primitive address representation used by the capture pipeline into Strings and
+ * {@link InetAddress} instances. IPv4 addresses are carried as big-endian ints and IPv6 addresses as
+ * two big-endian longs; text is only produced here, at the presentation edge.
+ * Recently formatted addresses are kept in a small direct-mapped cache, since a device talks to a
+ * limited set of hosts at any one time.
+ */
+public class IPAddressFormatter {
+
+    private static final int IPV4_CACHE_SIZE = 256;
+    private static final int IPV6_CACHE_SIZE = 64;
+
+    // Entries are immutable, so racing threads can only ever observe a complete entry
+    private static final IPv4Entry[] ipv4Cache = new IPv4Entry[IPV4_CACHE_SIZE];
+    private static final IPv6Entry[] ipv6Cache = new IPv6Entry[IPV6_CACHE_SIZE];
+
+    private static final class IPv4Entry {
+        final int address;
+        final String text;
+
+        IPv4Entry(int address, String text) {
+            this.address = address;
+            this.text = text;
+        }
+    }
+
+    private static final class IPv6Entry {
+        final long high;
+        final long low;
+        final String text;
+
+        IPv6Entry(long high, long low, String text) {
+            this.high = high;
+            this.low = low;
+            this.text = text;
+        }
+    }
+
+    private IPAddressFormatter() {
+    }
+
+    /**
+     * Formats an IPv4 address into dotted-decimal notation.
+     * @param address The IPv4 address as a big-endian int.
+     * @return The textual form of the address, e.g. "192.168.0.1".
+     */
+    public static String formatIPv4(int address) {
+        int slot = mix(address) & (IPV4_CACHE_SIZE - 1);
+        IPv4Entry entry = ipv4Cache[slot];
+        if (entry != null && entry.address == address) {
+            return entry.text;
+        }
+        String text = ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "."
+                + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+        ipv4Cache[slot] = new IPv4Entry(address, text);
+        return text;
+    }
+
+    /**
+     * Formats an IPv6 address in the same uncompressed form as {@link InetAddress#getHostAddress()}.
+     * @param high The upper 64 bits of the address.
+     * @param low The lower 64 bits of the address.
+     * @return The textual form of the address, e.g. "2001:db8:0:0:0:0:0:1".
+     */
+    public static String formatIPv6(long high, long low) {
+        int slot = mix((int) (high ^ (high >>> 32) ^ low ^ (low >>> 32))) & (IPV6_CACHE_SIZE - 1);
+        IPv6Entry entry = ipv6Cache[slot];
+        if (entry != null && entry.high == high && entry.low == low) {
+            return entry.text;
+        }
+        StringBuilder sb = new StringBuilder(39);
+        appendGroups(sb, high);
+        sb.append(':');
+        appendGroups(sb, low);
+        String text = sb.toString();
+        ipv6Cache[slot] = new IPv6Entry(high, low, text);
+        return text;
+    }
+
+    private static void appendGroups(StringBuilder sb, long bits) {
+        for (int shift = 48; shift >= 0; shift -= 16) {
+            sb.append(Integer.toHexString((int) (bits >>> shift) & 0xFFFF));
+            if (shift > 0) {
+                sb.append(':');
+            }
+        }
+    }
+
+    private static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x45D9F3B;
+        value ^= value >>> 16;
+        return value;
+    }
+
+    /**
+     * Creates an {@link InetAddress} for an IPv4 address, for APIs such as socket connects that need one.
+     * @param address The IPv4 address as a big-endian int.
+     * @return The corresponding InetAddress.
+     */
+    public static InetAddress toInetAddress(int address) {
+        byte[] bytes = {
+                (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address
+        };
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Cannot happen for a 4 byte address
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Creates an {@link InetAddress} for an IPv6 address.
+     * @param high The upper 64 bits of the address.
+     * @param low The lower 64 bits of the address.
+     * @return The corresponding InetAddress.
+     */
+    public static InetAddress toInetAddress(long high, long low) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Cannot happen for a 16 byte address
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Internet checksum (RFC 1071) used by IPv4, TCP, UDP and ICMPv6.
+ * Data is read eight bytes at a time with {@link ByteBuffer#getLong(int)}, which on direct buffers
+ * compiles to a single unaligned load. Each long is added as two 32-bit halves, so carries collect in the
+ * upper bits of the accumulator instead of being lost, and are added back in (end-around carry) when the
+ * sum is folded. Because the one's complement sum is independent of word size, the wide sum folds
+ * down to the same 16-bit result as summing one 16-bit word at a time.
+ * Sums are carried as unfolded {@code long} values so partial sums can be added together freely and
+ * folded once at the end with {@link #fold(long)} or {@link #finish(long)}.
+ */
+public class InternetChecksum {
+
+    private InternetChecksum() {
+    }
+
+    /**
+     * Sums a range of bytes as big-endian 16-bit words. The range may start at any index, and an odd
+     * trailing byte is padded with zero. The buffer's position, limit and byte order are left unchanged,
+     * and the result is the same whichever byte order the buffer is set to.
+     *
+     * @param buffer The buffer holding the data.
+     * @param offset The absolute index of the first byte to sum.
+     * @param length The number of bytes to sum.
+     * @return The unfolded one's complement sum of the range.
+     */
+    public static long sum(ByteBuffer buffer, int offset, int length) {
+        // Two independent accumulators let consecutive loads overlap instead of waiting on one add chain
+        long even = 0;
+        long odd = 0;
+        int end = offset + length;
+        int index = offset;
+        for (; index + 16 <= end; index += 16) {
+            long first = buffer.getLong(index);
+            long second = buffer.getLong(index + 8);
+            even += (first >>> 32) + (first & 0xFFFFFFFFL);
+            odd += (second >>> 32) + (second & 0xFFFFFFFFL);
+        }
+        long sum = even + odd;
+        if (index + 8 <= end) {
+            long word = buffer.getLong(index);
+            sum += (word >>> 32) + (word & 0xFFFFFFFFL);
+            index += 8;
+        }
+        if (index + 4 <= end) {
+            sum += buffer.getInt(index) & 0xFFFFFFFFL;
+            index += 4;
+        }
+        if (index + 2 <= end) {
+            sum += buffer.getShort(index) & 0xFFFF;
+            index += 2;
+        }
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            // Every word above was read byte-swapped, and a swapped one's complement sum is the swapped sum
+            sum = swapBytes(fold(sum));
+        }
+        if (index < end) {
+            sum += (buffer.get(index) & 0xFF) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the IPv4 pseudo-header used by the TCP and UDP checksums.
+     *
+     * @param sourceAddress The source address as a big-endian int.
+     * @param destinationAddress The destination address as a big-endian int.
+     * @param protocol The transport protocol number.
+     * @param length The length of the transport header and payload in bytes.
+     * @return The unfolded sum of the pseudo-header.
+     */
+    public static long pseudoHeaderSum(int sourceAddress, int destinationAddress, int protocol, int length) {
+        return (sourceAddress & 0xFFFFFFFFL) + (destinationAddress & 0xFFFFFFFFL) + protocol + length;
+    }
+
+    /**
+     * Sums the IPv6 pseudo-header used by the TCP, UDP and ICMPv6 checksums.
+     *
+     * @param sourceHigh The upper 64 bits of the source address.
+     * @param sourceLow The lower 64 bits of the source address.
+     * @param destinationHigh The upper 64 bits of the destination address.
+     * @param destinationLow The lower 64 bits of the destination address.
+     * @param nextHeader The upper-layer protocol number.
+     * @param length The upper-layer packet length in bytes.
+     * @return The unfolded sum of the pseudo-header.
+     */
+    public static long pseudoHeaderSum(long sourceHigh, long sourceLow, long destinationHigh, long destinationLow,
+                                       int nextHeader, int length) {
+        return halves(sourceHigh) + halves(sourceLow) + halves(destinationHigh) + halves(destinationLow)
+                + nextHeader + length;
+    }
+
+    private static long halves(long value) {
+        return (value >>> 32) + (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds a partial sum of data that started at {@code offset} bytes into the checksummed range.
+     * A range starting at an odd offset was summed with its bytes in the opposite lanes, so its sum is
+     * byte-swapped before it is added.
+     *
+     * @param sum The running sum.
+     * @param partialSum The sum of the later range, as returned by {@link #sum(ByteBuffer, int, int)}.
+     * @param offset The offset of the later range from the start of the checksummed data.
+     * @return The combined unfolded sum.
+     */
+    public static long combine(long sum, long partialSum, int offset) {
+        if ((offset & 1) != 0) {
+            partialSum = swapBytes(fold(partialSum));
+        }
+        return sum + partialSum;
+    }
+
+    /**
+     * Folds an unfolded sum into 16 bits by adding the carries back in.
+     *
+     * @param sum The unfolded sum.
+     * @return The folded 16-bit sum.
+     */
+    public static int fold(long sum) {
+        sum = (sum >>> 32) + (sum & 0xFFFFFFFFL);
+        sum = (sum >>> 32) + (sum & 0xFFFFFFFFL);
+        sum = (sum >>> 16) + (sum & 0xFFFF);
+        sum = (sum >>> 16) + (sum & 0xFFFF);
+        return (int) sum;
+    }
+
+    /**
+     * Folds an unfolded sum and complements it, giving the value to store in a checksum field.
+     *
+     * @param sum The unfolded sum.
+     * @return The 16-bit checksum.
+     */
+    public static int finish(long sum) {
+        return ~fold(sum) & 0xFFFF;
+    }
+
+    private static int swapBytes(int folded) {
+        return ((folded & 0xFF) << 8) | (folded >>> 8);
+    }
+}
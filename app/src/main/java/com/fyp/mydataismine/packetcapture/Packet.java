@@ -4,8 +4,6 @@ import static androidx.constraintlayout.helper.widget.MotionEffect.TAG;
 
 import android.util.Log;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -13,6 +11,8 @@ import java.util.Arrays;
 /**
  * Represents a network packet, including both IPv4 and IPv6 packets, and provides methods
  * for parsing and accessing different components of the packet, such as headers and payload.
+ * Parsing allocates a header object per layer, so the per-packet capture path uses {@link PacketView}
+ * and only builds a Packet for the slower forwarding paths that need one.
  */
 public class Packet {
 
@@ -34,9 +34,15 @@ public class Packet {
     private boolean isTCP;
     private boolean isUDP;
 
+    // Writes the response headers built from this packet; rebuilt after the addresses or ports are swapped
+    private HeaderTemplate headerTemplate;
+
     /**
      * Parses the packet data from the given ByteBuffer and initializes the respective headers
      * based on the IP version and transport protocol.
+     * The packet takes ownership of the buffer, which becomes its {@link #backingBuffer} positioned at the
+     * payload; it is not copied, so the caller must not reuse it, and the stage that consumes the packet
+     * releases it to the {@link ByteBufferPool}.
      *
      * @param buffer ByteBuffer containing the raw packet data
      * @throws IllegalArgumentException if the packet data is invalid or unsupported
@@ -55,12 +61,10 @@ public class Packet {
             } else {
                 throw new IllegalArgumentException("Unsupported IP version: " + version);
             }
-        } catch (UnknownHostException e) {
-            throw new IllegalArgumentException("Invalid IP address", e);
         } catch (BufferUnderflowException e) {
             throw new IllegalArgumentException("Packet buffer is too short", e);
         }
-        this.backingBuffer = buffer.asReadOnlyBuffer();
+        this.backingBuffer = buffer;
     }
 
     /**
@@ -71,7 +75,7 @@ public class Packet {
      * @param buffer ByteBuffer containing the raw packet data positioned at the start of the IPv4 header.
      *               The buffer's position will be advanced to the end of the parsed header.
      */
-    private void parseIPv4(ByteBuffer buffer) throws UnknownHostException {
+    private void parseIPv4(ByteBuffer buffer) {
         if (!hasEnoughData(buffer, IP4_HEADER_SIZE)) {
             throw new IllegalArgumentException("Not enough data for IPv4 header");
         }
@@ -105,48 +109,81 @@ public class Packet {
     }
 
     /**
-     * Retrieves the payload of the packet as a ByteBuffer.
+     * Retrieves a copy of the payload of the packet as a ByteBuffer.
+     * Only use this when the payload has to outlive the packet's backing buffer; otherwise use
+     * {@link #getPayloadSlice()}, which does not copy.
      *
      * @return ByteBuffer containing the packet's payload, or null if there is no payload.
      */
     public ByteBuffer getPayload() {
-        int headerLength = 0;
-        int totalLength = 0;
-        ByteBuffer payload = null;
+        ByteBuffer slice = getPayloadSlice();
+        if (slice == null) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(slice.remaining());
+        payload.put(slice);
+        payload.flip();
+        return payload;
+    }
 
-        // Determine header length based on IP version
+    /**
+     * Retrieves the payload of the packet as a read-only view into the backing buffer, without copying.
+     * The slice starts at the first payload byte (position 0) and its limit is the payload size. Reading
+     * it does not move the backing buffer's position or limit.
+     * <p>
+     * The slice shares memory with the backing buffer, which is usually a pooled buffer from
+     * {@link ByteBufferPool}. It is only valid while the packet owns that buffer: once the buffer is released
+     * to the pool or reused for a response, the slice sees whatever is written into it next. Consumers must
+     * read it synchronously and copy out anything they need to keep.
+     *
+     * @return A view of the packet's payload, or null if there is no payload.
+     */
+    public ByteBuffer getPayloadSlice() {
+        int payloadOffset = getPayloadOffset();
+        int payloadSize = getPayloadSize();
+        if (payloadSize <= 0 || backingBuffer == null || payloadOffset + payloadSize > backingBuffer.limit()) {
+            return null;
+        }
+        ByteBuffer view = backingBuffer.duplicate();
+        view.limit(payloadOffset + payloadSize);
+        view.position(payloadOffset);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The absolute index of the first payload byte in the backing buffer.
+     */
+    private int getPayloadOffset() {
+        int headerLength = 0;
         if (this.ip4Header != null) {
-            // IPv4
             headerLength = this.ip4Header.headerLength;
-            totalLength = this.ip4Header.totalLength;
         } else if (this.ip6Header != null) {
-            // IPv6 - initial header is 40 bytes, does not include payload length
             headerLength = 40; // Fixed size for the IPv6 header
-            totalLength = this.ip6Header.getPayloadLength() + headerLength; // Total length is payload length + header
         }
 
-        // Adjust header length based on protocol
-        if (this.isTCP() && this.tcpHeader != null) {
-            headerLength += this.tcpHeader.getDataOffset(); // TCP data offset includes TCP header length
+        if (this.isTCP()) {
+            headerLength += this.tcpHeader.getDataOffset(); // TCP data offset is already in bytes
         } else if (this.isUDP()) {
-            headerLength += UDP_HEADER_SIZE; // Add UDP header size
+            headerLength += UDP_HEADER_SIZE;
         }
+        return headerLength;
+    }
 
-        // Calculate payload size
-        int payloadSize = totalLength - headerLength;
-        if (payloadSize > 0) {
-            payload = ByteBuffer.allocate(payloadSize);
-            // Set the buffer's position to the start of the payload
-            this.backingBuffer.position(headerLength);
-            // Create a new limit for the buffer to mark the end of the payload
-            this.backingBuffer.limit(headerLength + payloadSize);
-            // Copy the payload into the new buffer
-            payload.put(this.backingBuffer.slice());
-            // Prepare the buffer for reading
-            payload.flip();
+    /**
+     * Computes the payload size from the header fields, without touching the payload.
+     *
+     * @return The payload size in bytes, excluding the IP and TCP/UDP headers, or 0 if there is none.
+     */
+    public int getPayloadSize() {
+        int totalLength = 0;
+        if (this.ip4Header != null) {
+            totalLength = this.ip4Header.totalLength;
+        } else if (this.ip6Header != null) {
+            // IPv6 payload length does not include the 40 byte header
+            totalLength = this.ip6Header.getPayloadLength() + 40;
         }
-
-        return payload; // Return the payload, or null if there's no payload or an error occurred
+        int payloadSize = totalLength - getPayloadOffset();
+        return payloadSize > 0 ? payloadSize : 0;
     }
 
     /**
@@ -154,18 +191,20 @@ public class Packet {
      */
     public void logPacketDetails() {
         // Method to log details about the packet
-        String sourceIp = this.ip4Header.sourceAddress.getHostAddress();
-        String destinationIp = this.ip4Header.destinationAddress.getHostAddress();
-        int payloadSize = getPayload() != null ? getPayload().remaining() : 0;
+        String sourceIp = IPAddressFormatter.formatIPv4(this.ip4Header.sourceAddress);
+        String destinationIp = IPAddressFormatter.formatIPv4(this.ip4Header.destinationAddress);
+        int payloadSize = getPayloadSize();
         Log.d("PacketDetails", "From: " + sourceIp + " To: " + destinationIp + " Payload size: " + payloadSize + " bytes");
     }
 
     /**
      * Swaps the source and destination addresses in the IP header.
      *
-     * @return A new Packet instance with swapped source and destination addresses.
+     * @return A new Packet instance with swapped source and destination addresses, which takes over this
+     *         packet's backing buffer.
      */
     public Packet swapSourceAndDestination() {
+        headerTemplate = null;
         IP4Header newIp4Header = ip4Header.swapSourceAndDestination();
         if (isTCP()) {
             tcpHeader.swapSourceAndDestination();
@@ -187,84 +226,75 @@ public class Packet {
      * @param payloadSize The size of the payload in bytes that follows the TCP header.
      */
     public void updateTCPBuffer(ByteBuffer buffer, byte flags, long sequenceNum, long ackNum, int payloadSize) {
-        buffer.position(0);
-        fillHeader(buffer);
+        long payloadSum = payloadSize > 0 ? InternetChecksum.sum(buffer, IP4_HEADER_SIZE + TCP_HEADER_SIZE, payloadSize) : 0;
+        updateTCPBuffer(buffer, flags, sequenceNum, ackNum, payloadSize, payloadSum);
+    }
+
+    /**
+     * Updates the TCP buffer like {@link #updateTCPBuffer(ByteBuffer, byte, long, long, int)}, using a payload sum
+     * the caller already computed with {@link InternetChecksum#sum(ByteBuffer, int, int)} while the payload was read.
+     * The headers are written through a {@link HeaderTemplate} of this packet, so both checksums are derived
+     * incrementally (RFC 1624) and the payload is never summed a second time.
+     *
+     * @param buffer The ByteBuffer to be updated with the TCP header and payload data.
+     * @param flags The control flags for the TCP segment (e.g., SYN, ACK, FIN).
+     * @param sequenceNum The sequence number for the TCP segment.
+     * @param ackNum The acknowledgment number for the TCP segment.
+     * @param payloadSize The size of the payload in bytes that follows the TCP header.
+     * @param payloadSum The unfolded one's complement sum of the payload bytes.
+     */
+    public void updateTCPBuffer(ByteBuffer buffer, byte flags, long sequenceNum, long ackNum, int payloadSize,
+                                long payloadSum) {
+        if (headerTemplate == null) {
+            headerTemplate = HeaderTemplate.forTcpPacket(ip4Header, tcpHeader);
+        }
+        headerTemplate.writeTcp(buffer, flags, sequenceNum, ackNum, payloadSize, payloadSum);
         backingBuffer = buffer;
 
+        // Keep the header objects in step with what was written
         tcpHeader.flags = flags;
-        backingBuffer.put(IP4_HEADER_SIZE + 13, flags);
-
         tcpHeader.sequenceNumber = sequenceNum;
-        backingBuffer.putInt(IP4_HEADER_SIZE + 4, (int) sequenceNum);
-
         tcpHeader.acknowledgementNumber = ackNum;
-        backingBuffer.putInt(IP4_HEADER_SIZE + 8, (int) ackNum);
-
-        // Reset header size, since we don't need options
-        byte dataOffset = (byte) (TCP_HEADER_SIZE << 2);
-        tcpHeader.dataOffsetAndReserved = dataOffset;
-        backingBuffer.put(IP4_HEADER_SIZE + 12, dataOffset);
-
-        updateTCPChecksum(payloadSize);
-
-        int ip4TotalLength = IP4_HEADER_SIZE + TCP_HEADER_SIZE + payloadSize;
-        backingBuffer.putShort(2, (short) ip4TotalLength);
-        ip4Header.totalLength = ip4TotalLength;
-
-        updateIP4Checksum();
+        tcpHeader.dataOffsetAndReserved = (byte) (TCP_HEADER_SIZE << 2);
+        tcpHeader.checksum = buffer.getShort(IP4_HEADER_SIZE + 16) & 0xFFFF;
+        ip4Header.totalLength = IP4_HEADER_SIZE + TCP_HEADER_SIZE + payloadSize;
+        ip4Header.headerChecksum = buffer.getShort(10) & 0xFFFF;
     }
 
     /**
      * Updates the UDP buffer with the specified payload size.
      * This method prepares the UDP header in the buffer, setting the UDP length field and recalculating
-     * the IP header checksum to reflect the new packet size. It also disables the UDP checksum validation
-     * by setting it to zero.
+     * the IP header and UDP checksums to reflect the new packet. The headers are written through a
+     * {@link HeaderTemplate} of this packet, so only the payload is summed.
      *
      * @param buffer The ByteBuffer to be updated with the UDP header and payload data.
      * @param payloadSize The size of the payload in bytes that follows the UDP header.
      */
     public void updateUDPBuffer(ByteBuffer buffer, int payloadSize) {
-        buffer.position(0);
-        fillHeader(buffer);
+        if (headerTemplate == null) {
+            headerTemplate = HeaderTemplate.forUdpPacket(ip4Header, udpHeader);
+        }
+        long payloadSum = payloadSize > 0 ? InternetChecksum.sum(buffer, IP4_HEADER_SIZE + UDP_HEADER_SIZE, payloadSize) : 0;
+        headerTemplate.writeUdp(buffer, 0, payloadSize, payloadSum);
         backingBuffer = buffer;
 
-        int udpTotalLength = UDP_HEADER_SIZE + payloadSize;
-        backingBuffer.putShort(IP4_HEADER_SIZE + 4, (short) udpTotalLength);
-        udpHeader.length = udpTotalLength;
-
-        // Disable UDP checksum validation
-        backingBuffer.putShort(IP4_HEADER_SIZE + 6, (short) 0);
-        udpHeader.checksum = 0;
-
-        int ip4TotalLength = IP4_HEADER_SIZE + udpTotalLength;
-        backingBuffer.putShort(2, (short) ip4TotalLength);
-        ip4Header.totalLength = ip4TotalLength;
-
-        updateIP4Checksum();
+        udpHeader.length = UDP_HEADER_SIZE + payloadSize;
+        udpHeader.checksum = buffer.getShort(IP4_HEADER_SIZE + 6) & 0xFFFF;
+        ip4Header.totalLength = IP4_HEADER_SIZE + udpHeader.length;
+        ip4Header.headerChecksum = buffer.getShort(10) & 0xFFFF;
     }
 
     /**
      * Recalculates and updates the IPv4 header checksum.
      * This method computes the checksum for the IPv4 header and updates the checksum field in the header.
      * It is essential to call this method after modifying any part of the IP header that affects the checksum.
+     * The response paths use a {@link HeaderTemplate} instead; this full recomputation is kept as the reference.
      */
-    private void updateIP4Checksum() {
-        ByteBuffer buffer = backingBuffer.duplicate();
-        buffer.position(0);
-
+    void updateIP4Checksum() {
         // Clear previous checksum
-        buffer.putShort(10, (short) 0);
-
-        int ipLength = ip4Header.headerLength;
-        int sum = 0;
-        while (ipLength > 0) {
-            sum += BitUtils.getUnsignedShort(buffer.getShort());
-            ipLength -= 2;
-        }
-        while (sum >> 16 > 0)
-            sum = (sum & 0xFFFF) + (sum >> 16);
+        backingBuffer.putShort(10, (short) 0);
 
-        sum = ~sum;
+        int sum = InternetChecksum.finish(InternetChecksum.sum(backingBuffer, 0, ip4Header.headerLength));
         ip4Header.headerChecksum = sum;
         backingBuffer.putShort(10, (short) sum);
     }
@@ -320,16 +350,15 @@ public class Packet {
      * @param ip4Header The IPv4 header of the packet; can be null if this is an IPv6 packet.
      * @param tcpHeader The TCP header of the packet; should be non-null if the packet is TCP, otherwise null.
      * @param udpHeader The UDP header of the packet; should be non-null if the packet is UDP, otherwise null.
-     * @param buffer The ByteBuffer containing the data portion of the packet.
+     * @param buffer The ByteBuffer containing the data portion of the packet. The packet takes ownership of it
+     *               rather than copying it.
      * @throws IllegalArgumentException if the provided buffer is too small or otherwise invalid.
      */
     public Packet(IP4Header ip4Header, TCPHeader tcpHeader, UDPHeader udpHeader, ByteBuffer buffer) throws IllegalArgumentException {
         this.ip4Header = ip4Header;
         this.tcpHeader = tcpHeader;
         this.udpHeader = udpHeader;
-        this.backingBuffer = ByteBuffer.allocate(buffer.remaining());
-        this.backingBuffer.put(buffer);
-        this.backingBuffer.flip();
+        this.backingBuffer = buffer;
     }
 
     /**
@@ -344,7 +373,7 @@ public class Packet {
             int headerSize = ip4Header.getIHL() * 4; // IHL to bytes
 
             if (isTCP() && tcpHeader != null) {
-                headerSize += tcpHeader.getDataOffset() * 4; // TCP data offset to bytes
+                headerSize += tcpHeader.getDataOffset(); // TCP data offset is already in bytes
             } else if (isUDP()) {
                 headerSize += UDP_HEADER_SIZE;
             }
@@ -365,55 +394,24 @@ public class Packet {
      * This method computes and sets the TCP checksum for the packet, considering the pseudo-header,
      * TCP header, and data payload. The checksum calculation follows the standard TCP checksum algorithm.
      *
+     * The response paths use a {@link HeaderTemplate} instead; this full recomputation is kept as the reference.
+     *
      * @param payloadSize The size of the TCP payload in bytes, used to calculate the checksum.
      */
     void updateTCPChecksum(int payloadSize) {
-        int sum = 0;
         int tcpLength = TCP_HEADER_SIZE + payloadSize;
 
         // Calculate pseudo-header checksum
-        ByteBuffer buffer = ByteBuffer.wrap(ip4Header.sourceAddress.getAddress());
-        sum = BitUtils.getUnsignedShort(buffer.getShort()) + BitUtils.getUnsignedShort(buffer.getShort());
+        long sum = InternetChecksum.pseudoHeaderSum(ip4Header.sourceAddress, ip4Header.destinationAddress,
+                TransportProtocol.TCP.getNumber(), tcpLength);
 
-        buffer = ByteBuffer.wrap(ip4Header.destinationAddress.getAddress());
-        sum += BitUtils.getUnsignedShort(buffer.getShort()) + BitUtils.getUnsignedShort(buffer.getShort());
-
-        sum += TransportProtocol.TCP.getNumber() + tcpLength;
-
-        buffer = backingBuffer.duplicate();
         // Clear previous checksum
-        buffer.putShort(IP4_HEADER_SIZE + 16, (short) 0);
+        backingBuffer.putShort(IP4_HEADER_SIZE + 16, (short) 0);
 
         // Calculate TCP segment checksum
-        buffer.position(IP4_HEADER_SIZE);
-        while (tcpLength > 1) {
-            sum += BitUtils.getUnsignedShort(buffer.getShort());
-            tcpLength -= 2;
-        }
-        if (tcpLength > 0)
-            sum += BitUtils.getUnsignedByte(buffer.get()) << 8;
-
-        while (sum >> 16 > 0)
-            sum = (sum & 0xFFFF) + (sum >> 16);
-
-        sum = ~sum;
-        tcpHeader.checksum = sum;
-        backingBuffer.putShort(IP4_HEADER_SIZE + 16, (short) sum);
-    }
-
-    /**
-     * Fills the provided buffer with the packet header information.
-     * This method populates the buffer with the header data of the packet. Depending on the packet type,
-     * it includes the IPv4/IPv6 header and the TCP/UDP header.
-     *
-     * @param buffer The ByteBuffer to be filled with the packet's header information.
-     */
-    private void fillHeader(ByteBuffer buffer) {
-        ip4Header.fillHeader(buffer);
-        if (isUDP())
-            udpHeader.fillHeader(buffer);
-        else if (isTCP())
-            tcpHeader.fillHeader(buffer);
+        sum += InternetChecksum.sum(backingBuffer, IP4_HEADER_SIZE, tcpLength);
+        tcpHeader.checksum = InternetChecksum.finish(sum);
+        backingBuffer.putShort(IP4_HEADER_SIZE + 16, (short) tcpHeader.checksum);
     }
 
     @Override
@@ -472,9 +470,10 @@ public class Packet {
 
     public byte[] getSourceAddress() {
         if (isIPv6()) {
-            return ip6Header.getSourceAddress().getAddress();
+            return ByteBuffer.allocate(16).putLong(ip6Header.getSourceAddressHigh())
+                    .putLong(ip6Header.getSourceAddressLow()).array();
         } else {
-            return ip4Header.sourceAddress.getAddress();
+            return ByteBuffer.allocate(4).putInt(ip4Header.sourceAddress).array();
         }
     }
 
@@ -496,9 +495,10 @@ public class Packet {
 
     public byte[] getDestinationAddress() {
         if (isIPv6()) {
-            return ip6Header.getDestinationAddress().getAddress();
+            return ByteBuffer.allocate(16).putLong(ip6Header.getDestinationAddressHigh())
+                    .putLong(ip6Header.getDestinationAddressLow()).array();
         } else {
-            return ip4Header.destinationAddress.getAddress();
+            return ByteBuffer.allocate(4).putInt(ip4Header.destinationAddress).array();
         }
     }
 
@@ -5,7 +5,9 @@ import java.util.Date;
 
 /**
  * Represents the information of a network packet, including source and destination IPs, payload size,
- * protocol used, geographical location, and organization name.
+ * protocol used, geographical location, organization name, and the hostname the destination was resolved from.
+ * Packets created by the capture pipeline carry their addresses and capture time as primitives;
+ * the textual IPs and timestamp are only produced when first requested by the UI or an upload.
  */
 public class PacketInfo {
     // Member variables for packet details
@@ -15,8 +17,17 @@ public class PacketInfo {
     private String protocol;
     private String location;
     private String organization; // Added new field for organization
+    private String hostname;
     private String timestamp;
 
+    // Primitive form of the addresses; IPv4 addresses are held in the low word
+    private boolean ipv6;
+    private long sourceAddressHigh;
+    private long sourceAddressLow;
+    private long destinationAddressHigh;
+    private long destinationAddressLow;
+    private long timestampMillis;
+
     /**
      * Constructor to initialize the packet information.
      *
@@ -30,7 +41,45 @@ public class PacketInfo {
         this.destinationIp = destinationIp;
         this.payloadSize = payloadSize;
         this.protocol = protocol;
-        this.timestamp = generateTimestamp(); // Timestamp for creation moment
+        this.timestampMillis = System.currentTimeMillis(); // Timestamp for creation moment
+    }
+
+    /**
+     * Constructor to initialize the information of an IPv4 packet without formatting its addresses.
+     *
+     * @param sourceAddress      The source IPv4 address as a big-endian int.
+     * @param destinationAddress The destination IPv4 address as a big-endian int.
+     * @param payloadSize        The size of the packet's payload.
+     * @param protocol           The protocol used by the packet.
+     */
+    public PacketInfo(int sourceAddress, int destinationAddress, int payloadSize, String protocol) {
+        this.sourceAddressLow = sourceAddress;
+        this.destinationAddressLow = destinationAddress;
+        this.payloadSize = payloadSize;
+        this.protocol = protocol;
+        this.timestampMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Constructor to initialize the information of an IPv6 packet without formatting its addresses.
+     *
+     * @param sourceAddressHigh      The upper 64 bits of the source address.
+     * @param sourceAddressLow       The lower 64 bits of the source address.
+     * @param destinationAddressHigh The upper 64 bits of the destination address.
+     * @param destinationAddressLow  The lower 64 bits of the destination address.
+     * @param payloadSize            The size of the packet's payload.
+     * @param protocol               The protocol used by the packet.
+     */
+    public PacketInfo(long sourceAddressHigh, long sourceAddressLow, long destinationAddressHigh, long destinationAddressLow,
+                      int payloadSize, String protocol) {
+        this.ipv6 = true;
+        this.sourceAddressHigh = sourceAddressHigh;
+        this.sourceAddressLow = sourceAddressLow;
+        this.destinationAddressHigh = destinationAddressHigh;
+        this.destinationAddressLow = destinationAddressLow;
+        this.payloadSize = payloadSize;
+        this.protocol = protocol;
+        this.timestampMillis = System.currentTimeMillis();
     }
 
     /**
@@ -52,31 +101,44 @@ public class PacketInfo {
     }
 
     /**
-     * Generates a timestamp for when the packet info is created.
+     * Sets the hostname the packet's destination was resolved from, as observed in the device's DNS traffic.
+     *
+     * @param hostname The destination's hostname, or null if it is unknown.
+     */
+    public void setHostname(String hostname) {
+        this.hostname = hostname;
+    }
+
+    /**
+     * Generates a timestamp for when the packet info was created.
      *
      * @return The timestamp in "yyyy-MM-dd HH:mm:ss" format.
      */
     private String generateTimestamp() {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        Date now = new Date();
-        return dateFormat.format(now);
+        return dateFormat.format(new Date(timestampMillis));
     }
 
     @Override
     public String toString() {
         return "PacketInfo{" +
-                "sourceIp='" + sourceIp + '\'' +
-                ", destinationIp='" + destinationIp + '\'' +
+                "sourceIp='" + getSourceIp() + '\'' +
+                ", destinationIp='" + getDestinationIp() + '\'' +
                 ", payloadSize=" + payloadSize +
                 ", protocol='" + protocol + '\'' +
                 ", location='" + location + '\'' +
                 ", organization='" + organization + '\'' + // Include organization in the output
-                ", timestamp='" + timestamp + '\'' +
+                ", hostname='" + hostname + '\'' +
+                ", timestamp='" + getTimestamp() + '\'' +
                 '}';
     }
 
     // Getters and setters
     public String getSourceIp() {
+        if (sourceIp == null) {
+            sourceIp = ipv6 ? IPAddressFormatter.formatIPv6(sourceAddressHigh, sourceAddressLow)
+                    : IPAddressFormatter.formatIPv4((int) sourceAddressLow);
+        }
         return sourceIp;
     }
 
@@ -85,6 +147,10 @@ public class PacketInfo {
     }
 
     public String getDestinationIp() {
+        if (destinationIp == null) {
+            destinationIp = ipv6 ? IPAddressFormatter.formatIPv6(destinationAddressHigh, destinationAddressLow)
+                    : IPAddressFormatter.formatIPv4((int) destinationAddressLow);
+        }
         return destinationIp;
     }
 
@@ -116,7 +182,40 @@ public class PacketInfo {
         return organization;
     }
 
+    public String getHostname() {
+        return hostname;
+    }
+
     public String getTimestamp() {
+        if (timestamp == null) {
+            timestamp = generateTimestamp();
+        }
         return timestamp;
     }
+
+    // Primitive accessors for the capture pipeline; package-private so they are not uploaded
+
+    boolean isIPv6() {
+        return ipv6;
+    }
+
+    long sourceAddressHigh() {
+        return sourceAddressHigh;
+    }
+
+    long sourceAddressLow() {
+        return sourceAddressLow;
+    }
+
+    long destinationAddressHigh() {
+        return destinationAddressHigh;
+    }
+
+    long destinationAddressLow() {
+        return destinationAddressLow;
+    }
+
+    long timestampMillis() {
+        return timestampMillis;
+    }
 }
@@ -0,0 +1,386 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, allocation-free view over a raw IPv4 or IPv6 packet.
+ * Unlike {@link Packet}, which eagerly builds header objects and address instances for every packet,
+ * a single PacketView is re-pointed at each buffer with {@link #wrap(ByteBuffer)} and decodes
+ * header fields on demand from their fixed offsets. The view never changes the position or limit
+ * of the wrapped buffer, and it is only valid until that buffer is reused for the next packet.
+ */
+public class PacketView {
+
+    public static final int IP6_HEADER_SIZE = 40;
+
+    private static final int PROTOCOL_TCP = 6;
+    private static final int PROTOCOL_UDP = 17;
+    private static final int PROTOCOL_ICMPV6 = 58;
+
+    private ByteBuffer buffer;
+    private int base;
+    private int version;
+    private int ipHeaderLength;
+    private int totalLength;
+    private int protocol;
+    private boolean hasTransportHeader;
+
+    /**
+     * Points this view at the packet starting at the buffer's current position and ending at its limit.
+     * Only the fields needed to locate the transport header are read here; everything else is decoded lazily.
+     *
+     * @param buffer ByteBuffer containing a single raw IP packet.
+     * @return {@code true} if the buffer holds a well-formed IPv4 or IPv6 packet, {@code false} otherwise.
+     */
+    public boolean wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.base = buffer.position();
+        this.hasTransportHeader = false;
+
+        int available = buffer.limit() - base;
+        if (available < 1) {
+            return invalidate();
+        }
+
+        version = (buffer.get(base) >> 4) & 0x0F;
+        if (version == 4) {
+            if (available < Packet.IP4_HEADER_SIZE) {
+                return invalidate();
+            }
+            ipHeaderLength = (buffer.get(base) & 0x0F) * 4;
+            totalLength = getUnsignedShort(2);
+            protocol = getUnsignedByte(9);
+            if (ipHeaderLength < Packet.IP4_HEADER_SIZE || totalLength < ipHeaderLength || totalLength > available) {
+                return invalidate();
+            }
+            // Only the first fragment of a datagram carries the transport header
+            boolean firstFragment = (getUnsignedShort(6) & 0x1FFF) == 0;
+            hasTransportHeader = firstFragment && transportHeaderFits();
+        } else if (version == 6) {
+            if (available < IP6_HEADER_SIZE) {
+                return invalidate();
+            }
+            ipHeaderLength = IP6_HEADER_SIZE;
+            totalLength = IP6_HEADER_SIZE + getUnsignedShort(4);
+            protocol = getUnsignedByte(6);
+            if (totalLength > available) {
+                return invalidate();
+            }
+            hasTransportHeader = transportHeaderFits();
+        } else {
+            return invalidate();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the length of the IP packet starting at an index, without wrapping it. Used to split a buffer
+     * that holds several packets back to back.
+     *
+     * @param buffer The buffer holding the packet.
+     * @param offset The index of the packet's first byte.
+     * @return The packet's total length in bytes, or -1 if it is not an IPv4 or IPv6 packet.
+     */
+    public static int packetLength(ByteBuffer buffer, int offset) {
+        int version = (buffer.get(offset) >> 4) & 0x0F;
+        if (version == 4) {
+            return buffer.getShort(offset + 2) & 0xFFFF;
+        } else if (version == 6) {
+            return IP6_HEADER_SIZE + (buffer.getShort(offset + 4) & 0xFFFF);
+        }
+        return -1;
+    }
+
+    private boolean transportHeaderFits() {
+        int transportLength = totalLength - ipHeaderLength;
+        switch (protocol) {
+            case PROTOCOL_TCP:
+                if (transportLength < Packet.TCP_HEADER_SIZE) {
+                    return false;
+                }
+                int tcpHeaderLength = getTcpHeaderLength();
+                return tcpHeaderLength >= Packet.TCP_HEADER_SIZE && tcpHeaderLength <= transportLength;
+            case PROTOCOL_UDP:
+                return transportLength >= Packet.UDP_HEADER_SIZE;
+            case PROTOCOL_ICMPV6:
+                return transportLength >= 4;
+            default:
+                return false;
+        }
+    }
+
+    private boolean invalidate() {
+        version = 0;
+        ipHeaderLength = 0;
+        totalLength = 0;
+        protocol = -1;
+        hasTransportHeader = false;
+        return false;
+    }
+
+    // Raw field access relative to the start of the packet
+
+    private int getUnsignedByte(int offset) {
+        return buffer.get(base + offset) & 0xFF;
+    }
+
+    private int getUnsignedShort(int offset) {
+        return buffer.getShort(base + offset) & 0xFFFF;
+    }
+
+    // IP layer
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return The absolute index of the first byte of the IP header in the wrapped buffer.
+     */
+    public int getBaseOffset() {
+        return base;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isIPv4() {
+        return version == 4;
+    }
+
+    public boolean isIPv6() {
+        return version == 6;
+    }
+
+    public int getIpHeaderLength() {
+        return ipHeaderLength;
+    }
+
+    /**
+     * @return The length of the whole packet in bytes, including the IP header.
+     */
+    public int getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * @return The IPv4 protocol number or IPv6 next header value.
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return The IPv4 TTL or the IPv6 hop limit.
+     */
+    public int getHopLimit() {
+        return isIPv4() ? getUnsignedByte(8) : getUnsignedByte(7);
+    }
+
+    /**
+     * @return The IPv4 source address as a big-endian int.
+     */
+    public int getSourceAddress() {
+        return buffer.getInt(base + 12);
+    }
+
+    /**
+     * @return The IPv4 destination address as a big-endian int.
+     */
+    public int getDestinationAddress() {
+        return buffer.getInt(base + 16);
+    }
+
+    /**
+     * @return The upper 64 bits of the IPv6 source address.
+     */
+    public long getSourceAddressHigh() {
+        return buffer.getLong(base + 8);
+    }
+
+    /**
+     * @return The lower 64 bits of the IPv6 source address.
+     */
+    public long getSourceAddressLow() {
+        return buffer.getLong(base + 16);
+    }
+
+    /**
+     * @return The upper 64 bits of the IPv6 destination address.
+     */
+    public long getDestinationAddressHigh() {
+        return buffer.getLong(base + 24);
+    }
+
+    /**
+     * @return The lower 64 bits of the IPv6 destination address.
+     */
+    public long getDestinationAddressLow() {
+        return buffer.getLong(base + 32);
+    }
+
+    // Transport layer
+
+    public boolean isTCP() {
+        return hasTransportHeader && protocol == PROTOCOL_TCP;
+    }
+
+    public boolean isUDP() {
+        return hasTransportHeader && protocol == PROTOCOL_UDP;
+    }
+
+    public boolean isICMPv6() {
+        return hasTransportHeader && protocol == PROTOCOL_ICMPV6;
+    }
+
+    /**
+     * @return The absolute index of the first byte of the transport header in the wrapped buffer.
+     */
+    public int getTransportOffset() {
+        return base + ipHeaderLength;
+    }
+
+    /**
+     * Gets the source port. Valid for TCP and UDP packets only.
+     * @return The source port.
+     */
+    public int getSourcePort() {
+        return getUnsignedShort(ipHeaderLength);
+    }
+
+    /**
+     * Gets the destination port. Valid for TCP and UDP packets only.
+     * @return The destination port.
+     */
+    public int getDestinationPort() {
+        return getUnsignedShort(ipHeaderLength + 2);
+    }
+
+    public long getSequenceNumber() {
+        return BitUtils.getUnsignedInt(buffer.getInt(getTransportOffset() + 4));
+    }
+
+    public long getAcknowledgementNumber() {
+        return BitUtils.getUnsignedInt(buffer.getInt(getTransportOffset() + 8));
+    }
+
+    /**
+     * @return The TCP header length in bytes, including options.
+     */
+    public int getTcpHeaderLength() {
+        return ((getUnsignedByte(ipHeaderLength + 12) >> 4) & 0x0F) * 4;
+    }
+
+    public byte getTcpFlags() {
+        return buffer.get(getTransportOffset() + 13);
+    }
+
+    public boolean hasTcpFlag(int flag) {
+        return (getTcpFlags() & flag) == flag;
+    }
+
+    public int getWindow() {
+        return getUnsignedShort(ipHeaderLength + 14);
+    }
+
+    public int getUdpLength() {
+        return getUnsignedShort(ipHeaderLength + 4);
+    }
+
+    public int getIcmpType() {
+        return getUnsignedByte(ipHeaderLength);
+    }
+
+    public int getIcmpCode() {
+        return getUnsignedByte(ipHeaderLength + 1);
+    }
+
+    /**
+     * Verifies the TCP, UDP or ICMPv6 checksum of the wrapped packet, including its pseudo-header.
+     * The whole segment is summed, so this is meant for diagnostics rather than for every packet.
+     *
+     * @return {@code true} if the checksum is correct, or if it is an IPv4 UDP datagram sent without one.
+     */
+    public boolean hasValidTransportChecksum() {
+        if (!hasTransportHeader) {
+            return false;
+        }
+        int transportLength = totalLength - ipHeaderLength;
+        if (protocol == PROTOCOL_UDP && isIPv4() && buffer.getShort(getTransportOffset() + 6) == 0) {
+            return true;
+        }
+        long sum;
+        if (isIPv4()) {
+            sum = InternetChecksum.pseudoHeaderSum(getSourceAddress(), getDestinationAddress(), protocol, transportLength);
+        } else {
+            sum = InternetChecksum.pseudoHeaderSum(getSourceAddressHigh(), getSourceAddressLow(),
+                    getDestinationAddressHigh(), getDestinationAddressLow(), protocol, transportLength);
+        }
+        sum += InternetChecksum.sum(buffer, getTransportOffset(), transportLength);
+        return InternetChecksum.fold(sum) == 0xFFFF;
+    }
+
+    // Payload
+
+    /**
+     * @return The length in bytes of the transport header, or 0 if there is no parsed transport header.
+     */
+    public int getTransportHeaderLength() {
+        if (isTCP()) {
+            return getTcpHeaderLength();
+        } else if (isUDP()) {
+            return Packet.UDP_HEADER_SIZE;
+        }
+        return 0;
+    }
+
+    /**
+     * @return The absolute index of the first payload byte in the wrapped buffer.
+     */
+    public int getPayloadOffset() {
+        return getTransportOffset() + getTransportHeaderLength();
+    }
+
+    /**
+     * @return The payload size in bytes, excluding the IP and TCP/UDP headers.
+     */
+    public int getPayloadLength() {
+        int payloadLength = totalLength - ipHeaderLength - getTransportHeaderLength();
+        return payloadLength > 0 ? payloadLength : 0;
+    }
+
+    /**
+     * Returns the payload as a read-only view into the wrapped buffer, without copying.
+     * Like the view itself, the slice is only valid until the wrapped buffer is reused for the next packet,
+     * so consumers must read it synchronously and copy out anything they need to keep.
+     *
+     * @return A view of the payload with position 0 and limit equal to the payload length, or null if there is none.
+     */
+    public ByteBuffer getPayloadSlice() {
+        int payloadLength = getPayloadLength();
+        if (payloadLength == 0 || getTransportHeaderLength() == 0) {
+            return null;
+        }
+        ByteBuffer view = buffer.duplicate();
+        int payloadOffset = getPayloadOffset();
+        view.limit(payloadOffset + payloadLength);
+        view.position(payloadOffset);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PacketView{");
+        sb.append("version=").append(version);
+        sb.append(", protocol=").append(protocol);
+        sb.append(", totalLength=").append(totalLength);
+        if (isTCP() || isUDP()) {
+            sb.append(", sourcePort=").append(getSourcePort());
+            sb.append(", destinationPort=").append(getDestinationPort());
+        }
+        sb.append(", payloadLength=").append(getPayloadLength());
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link ConcurrentLinkedQueue} whose single consumer can block until items arrive, the counterpart of
+ * {@link WakeupQueue} for a thread that waits on the queue alone rather than on a selector.
+ * Producers keep using the plain, lock-free {@link #offer(Object)}, and only unpark the consumer when it is
+ * actually parked, so a busy consumer is never signalled once per item and never has to poll with sleeps.
+ */
+public class ParkingQueue<E> extends ConcurrentLinkedQueue<E> {
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicReference<Thread> parkedConsumer = new AtomicReference<>();
+
+    /**
+     * Adds an item, unparking the consumer if it is waiting in {@link #awaitItems()}. May be called from any thread.
+     *
+     * @param item The item to add.
+     * @return {@code true}, as the queue is unbounded.
+     */
+    @Override
+    public boolean offer(E item) {
+        super.offer(item);
+        Thread consumer = parkedConsumer.get();
+        if (consumer != null && parkedConsumer.compareAndSet(consumer, null)) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Blocks the consumer until the queue is not empty. Only one thread may wait at a time.
+     *
+     * @throws InterruptedException if the consumer is interrupted while waiting.
+     */
+    public void awaitItems() throws InterruptedException {
+        Thread current = Thread.currentThread();
+        try {
+            while (true) {
+                // Announce the wait before the final emptiness check, so a concurrent offer either is seen
+                // here or sees the consumer and unparks it
+                parkedConsumer.set(current);
+                if (!isEmpty()) {
+                    return;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            parkedConsumer.compareAndSet(current, null);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The segments sent to the device on one connection that it has not acknowledged yet, kept so they can be
+ * sent again if the TUN write or the device drops them. Segments are kept by reference to the pooled buffer
+ * they were built in, which goes back to the pool once every segment in it is acknowledged; the device is
+ * handed read-only views of those buffers, which the pool never takes back.
+ * <p>
+ * The oldest segment is retransmitted after three duplicate ACKs or when the retransmission timeout expires.
+ * The timeout follows RFC 6298: it is computed from RTTs measured on segments that were sent only once
+ * (Karn's algorithm) and doubles on every expiry.
+ * Not thread-safe; a queue belongs to one connection and is only touched by its {@link TCPReactor}.
+ */
+public class RetransmitQueue {
+    private static final String TAG = RetransmitQueue.class.getSimpleName();
+
+    private static final long INITIAL_RTO_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // RFC 6298 allows a lower bound below one second; the device is one hop away, so follow Linux's 200 ms
+    private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int DUPLICATE_ACK_THRESHOLD = 3;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
+
+    private final Queue<ByteBuffer> outputQueue;
+    private final TimerWheel timerWheel;
+    private final TimerWheel.Timer timer = new TimerWheel.Timer(new Runnable() {
+        @Override
+        public void run() {
+            onTimeout(System.nanoTime());
+        }
+    });
+
+    // A ring of segments in sequence order; several consecutive segments may share one buffer
+    private ByteBuffer[] buffers = new ByteBuffer[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private long[] endSequenceNums = new long[INITIAL_CAPACITY];
+    private long[] sentNanos = new long[INITIAL_CAPACITY];
+    private boolean[] retransmitted = new boolean[INITIAL_CAPACITY];
+    private int head;
+    private int count;
+
+    private long smoothedRttNanos = -1;
+    private long rttVariationNanos;
+    private long rtoNanos = INITIAL_RTO_NANOS;
+    private int duplicateAcks;
+
+    /**
+     * @param outputQueue The queue of packets to be written to the device, which retransmissions go to.
+     * @param timerWheel The wheel of the reactor owning the connection, or null to only retransmit on
+     *                   duplicate ACKs.
+     */
+    public RetransmitQueue(Queue<ByteBuffer> outputQueue, TimerWheel timerWheel) {
+        this.outputQueue = outputQueue;
+        this.timerWheel = timerWheel;
+    }
+
+    /**
+     * Records a segment that was just sent to the device.
+     *
+     * @param buffer The pooled buffer holding the segment, now owned by this queue.
+     * @param offset The index of the segment's IP header in the buffer.
+     * @param length The length of the whole packet.
+     * @param endSequenceNum The sequence number following the segment's payload.
+     * @param nowNanos The current time from System.nanoTime().
+     */
+    public void add(ByteBuffer buffer, int offset, int length, long endSequenceNum, long nowNanos) {
+        if (count == buffers.length)
+            grow();
+        int index = (head + count) % buffers.length;
+        buffers[index] = buffer;
+        offsets[index] = offset;
+        lengths[index] = length;
+        endSequenceNums[index] = endSequenceNum & SEQUENCE_MASK;
+        sentNanos[index] = nowNanos;
+        retransmitted[index] = false;
+        if (count++ == 0)
+            scheduleTimer(nowNanos);
+    }
+
+    /**
+     * Drops the segments covered by an acknowledgement from the device, measuring the RTT on the way.
+     *
+     * @param ackNum The acknowledgement number of the device's packet.
+     * @param nowNanos The current time from System.nanoTime().
+     */
+    public void acknowledge(long ackNum, long nowNanos) {
+        long rttSampleNanos = -1;
+        boolean advanced = false;
+        while (count > 0 && isCovered(endSequenceNums[head], ackNum)) {
+            rttSampleNanos = retransmitted[head] ? -1 : nowNanos - sentNanos[head];
+            removeHead(true);
+            advanced = true;
+        }
+        if (!advanced)
+            return;
+
+        duplicateAcks = 0;
+        if (rttSampleNanos >= 0)
+            updateRto(rttSampleNanos);
+        if (count > 0)
+            scheduleTimer(nowNanos);
+        else if (timerWheel != null)
+            timerWheel.cancel(timer);
+    }
+
+    /**
+     * Counts a duplicate ACK from the device, retransmitting the oldest segment on the third one in a row.
+     */
+    public void onDuplicateAck() {
+        if (count > 0 && ++duplicateAcks == DUPLICATE_ACK_THRESHOLD) {
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, "Fast retransmit of " + lengths[head] + " bytes");
+            retransmitHead();
+        }
+    }
+
+    // Called by the timer on the reactor's thread
+    void onTimeout(long nowNanos) {
+        if (count == 0)
+            return;
+        if (Log.isLoggable(TAG, Log.DEBUG))
+            Log.d(TAG, "Retransmission timeout after " + TimeUnit.NANOSECONDS.toMillis(rtoNanos) + " ms");
+        retransmitHead();
+        rtoNanos = Math.min(MAX_RTO_NANOS, rtoNanos * 2);
+        scheduleTimer(nowNanos);
+    }
+
+    /**
+     * @return The number of unacknowledged segments.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The capacity of the pooled buffers kept for the unacknowledged segments. A buffer shared by
+     *         several segments is counted once.
+     */
+    public long getBufferedBytes() {
+        long bytes = 0;
+        ByteBuffer previous = null;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = buffers[(head + i) % buffers.length];
+            if (buffer != previous)
+                bytes += buffer.capacity();
+            previous = buffer;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The current retransmission timeout in nanoseconds.
+     */
+    public long getRtoNanos() {
+        return rtoNanos;
+    }
+
+    /**
+     * @return The smoothed RTT in nanoseconds, or -1 before the first measurement.
+     */
+    public long getSmoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    /**
+     * Forgets every segment and stops the timer, for when the connection closes. The buffers are left to the
+     * garbage collector rather than pooled, as views of them may still be waiting in the output queue.
+     */
+    public void clear() {
+        while (count > 0)
+            removeHead(false);
+        if (timerWheel != null)
+            timerWheel.cancel(timer);
+    }
+
+    // Sends a copy of the oldest segment, so its buffer can still go back to the pool as soon as it is
+    // acknowledged, even if the copy has not been written to the device yet
+    private void retransmitHead() {
+        ByteBuffer segment = buffers[head].duplicate();
+        segment.limit(offsets[head] + lengths[head]).position(offsets[head]);
+        ByteBuffer copy = ByteBufferPool.acquire();
+        copy.put(segment);
+        outputQueue.offer(copy);
+        retransmitted[head] = true;
+    }
+
+    // RFC 6298 section 2, with alpha = 1/8 and beta = 1/4
+    private void updateRto(long rttNanos) {
+        if (smoothedRttNanos < 0) {
+            smoothedRttNanos = rttNanos;
+            rttVariationNanos = rttNanos / 2;
+        } else {
+            rttVariationNanos += (Math.abs(smoothedRttNanos - rttNanos) - rttVariationNanos) / 4;
+            smoothedRttNanos += (rttNanos - smoothedRttNanos) / 8;
+        }
+        long rto = smoothedRttNanos + Math.max(timerWheel != null ? timerWheel.getTickNanos() : 0,
+                4 * rttVariationNanos);
+        rtoNanos = Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, rto));
+    }
+
+    private void scheduleTimer(long nowNanos) {
+        if (timerWheel != null)
+            timerWheel.schedule(timer, nowNanos + rtoNanos);
+    }
+
+    // Whether an acknowledgement number covers the end of a segment, in 32-bit sequence space
+    private static boolean isCovered(long endSequenceNum, long ackNum) {
+        return ((ackNum - endSequenceNum) & SEQUENCE_MASK) < 0x80000000L;
+    }
+
+    private void removeHead(boolean pool) {
+        ByteBuffer buffer = buffers[head];
+        buffers[head] = null;
+        head = (head + 1) % buffers.length;
+        count--;
+        // Release the buffer with its last segment
+        if (pool && (count == 0 || buffers[head] != buffer))
+            ByteBufferPool.release(buffer);
+    }
+
+    private void grow() {
+        int capacity = buffers.length * 2;
+        ByteBuffer[] newBuffers = new ByteBuffer[capacity];
+        int[] newOffsets = new int[capacity];
+        int[] newLengths = new int[capacity];
+        long[] newEndSequenceNums = new long[capacity];
+        long[] newSentNanos = new long[capacity];
+        boolean[] newRetransmitted = new boolean[capacity];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % buffers.length;
+            newBuffers[i] = buffers[index];
+            newOffsets[i] = offsets[index];
+            newLengths[i] = lengths[index];
+            newEndSequenceNums[i] = endSequenceNums[index];
+            newSentNanos[i] = sentNanos[index];
+            newRetransmitted[i] = retransmitted[index];
+        }
+        buffers = newBuffers;
+        offsets = newOffsets;
+        lengths = newLengths;
+        endSequenceNums = newEndSequenceNums;
+        sentNanos = newSentNanos;
+        retransmitted = newRetransmitted;
+        head = 0;
+    }
+}
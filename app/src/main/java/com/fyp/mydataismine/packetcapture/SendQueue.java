@@ -0,0 +1,136 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A bounded queue of data waiting to be written to a non-blocking channel, used for the device's data
+ * that is being gathered into one write or that the remote host's socket could not take yet. Payloads are
+ * copied back to back into pooled buffers, so a queue of small segments costs a few buffers rather than
+ * one buffer per segment, and is written with a single gathering write.
+ * Not thread-safe; a queue belongs to one connection and is only touched by its {@link TCPReactor}.
+ */
+public class SendQueue {
+
+    // Buffers in read mode: data runs from position to limit, and the tail is appended to past its limit
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    private final int maxBytes;
+    private int size;
+    // Reused array for handing the buffers to a gathering write
+    private ByteBuffer[] gather = new ByteBuffer[4];
+
+    /**
+     * @param maxBytes The most data the queue will hold.
+     */
+    public SendQueue(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Copies the remaining bytes of a payload to the end of the queue, or none of them if they do not fit.
+     *
+     * @param payload The data to queue. Its position is advanced past the queued bytes.
+     * @return {@code false} if the queue does not have room for the whole payload.
+     */
+    public boolean offer(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length > remainingCapacity())
+            return false;
+
+        ByteBuffer tail = buffers.peekLast();
+        while (payload.hasRemaining()) {
+            if (tail == null || tail.limit() == tail.capacity()) {
+                tail = ByteBufferPool.acquire();
+                tail.limit(0);
+                buffers.addLast(tail);
+            }
+            int start = tail.position();
+            int end = tail.limit();
+            int count = Math.min(payload.remaining(), tail.capacity() - end);
+            ByteBuffer chunk = payload.duplicate();
+            chunk.limit(chunk.position() + count);
+            tail.limit(end + count).position(end);
+            tail.put(chunk);
+            tail.position(start);
+            payload.position(payload.position() + count);
+        }
+        size += length;
+        return true;
+    }
+
+    /**
+     * Writes as much of the queue as the channel accepts with a single gathering write, returning emptied
+     * buffers to the pool.
+     *
+     * @param channel The non-blocking channel to write to.
+     * @return The number of bytes written.
+     * @throws IOException if the write fails.
+     */
+    public int writeTo(GatheringByteChannel channel) throws IOException {
+        int count = buffers.size();
+        if (count == 0)
+            return 0;
+        if (gather.length < count)
+            gather = new ByteBuffer[Math.max(count, gather.length * 2)];
+        buffers.toArray(gather);
+        int written = (int) channel.write(gather, 0, count);
+        Arrays.fill(gather, 0, count, null);
+
+        ByteBuffer head;
+        while ((head = buffers.peekFirst()) != null && !head.hasRemaining())
+            ByteBufferPool.release(buffers.pollFirst());
+        size -= written;
+        return written;
+    }
+
+    /**
+     * @return The number of bytes waiting to be written.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The capacity of the pooled buffers the queue holds, which can be well above {@link #size()}.
+     */
+    public long getBufferedBytes() {
+        long bytes = 0;
+        for (ByteBuffer buffer : buffers)
+            bytes += buffer.capacity();
+        return bytes;
+    }
+
+    /**
+     * @return Whether nothing is waiting to be written.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return How many more bytes the queue will accept. When this reaches zero the sender must wait.
+     */
+    public int remainingCapacity() {
+        return maxBytes - size;
+    }
+
+    /**
+     * @return The most data the queue will hold.
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Discards the queued data and returns its buffers to the pool.
+     */
+    public void clear() {
+        ByteBuffer buffer;
+        while ((buffer = buffers.pollFirst()) != null)
+            ByteBufferPool.release(buffer);
+        size = 0;
+    }
+}
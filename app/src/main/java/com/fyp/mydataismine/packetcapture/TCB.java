@@ -1,10 +1,13 @@
 package com.fyp.mydataismine.packetcapture;
 
+import android.util.Log;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a Transmission Control Block (TCB) which encapsulates the state information of a TCP connection.
@@ -12,46 +15,111 @@ import java.util.Map;
  */
 public class TCB
 {
-    public String ipAndPort;
+    public long flowKey;
+    public int destinationAddress;
+    public int destinationPort;
+    public int sourcePort;
     public long mySequenceNum, theirSequenceNum;
     public long myAcknowledgementNum, theirAcknowledgementNum;
     public TCBStatus status;
+    // Last time a packet was seen in either direction, from System.nanoTime()
+    public volatile long lastActivityNanos;
 
-    // TCB status enumeration
+    // TCB status enumeration, with how long a connection may stay idle in each state
     public enum TCBStatus
     {
-        SYN_SENT,
-        SYN_RECEIVED,
-        ESTABLISHED,
-        CLOSE_WAIT,
-        LAST_ACK,
+        SYN_SENT(30),
+        SYN_RECEIVED(30),
+        // RFC 5382 asks NATs not to drop idle established connections sooner than 2 hours 4 minutes
+        ESTABLISHED(2 * 60 * 60 + 4 * 60),
+        CLOSE_WAIT(60),
+        LAST_ACK(30);
+
+        private final long idleTimeoutNanos;
+
+        TCBStatus(long idleTimeoutSeconds)
+        {
+            this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        }
+
+        public long getIdleTimeoutNanos()
+        {
+            return idleTimeoutNanos;
+        }
     }
 
-    public Packet referencePacket;
+    public HeaderTemplate headerTemplate;
+    // Largest segment the device accepts, from the MSS option of its SYN
+    public int deviceMss = DEFAULT_MSS;
+    // Window scaling (RFC 7323) is only in effect if the device offered it in its SYN, so both shifts stay 0
+    // otherwise. deviceWindowShift scales the windows the device advertises, localWindowShift the ones we do.
+    public boolean windowScaling;
+    public int deviceWindowShift;
+    public int localWindowShift;
+    // Whether the device offered SACK (RFC 2018); recorded only, as no SACK blocks are generated yet
+    public boolean deviceSackPermitted;
+    // The device's receive window in bytes, already scaled; until its SYN is seen, the largest unscaled window
+    public long deviceWindow = 0xFFFF;
+    // Whether reading from the network is paused because the device's window is full of unacknowledged data
+    public boolean readPaused;
+    // Device data the socket has not accepted yet, written out when the selector reports OP_WRITE
+    public final SendQueue sendQueue = new SendQueue(SEND_QUEUE_BYTES);
+    // Whether data was added to the send queue that TCPOutput has yet to flush
+    public boolean flushPending;
+    // Whether the connection is closed once the send queue has been written; the device was already sent
+    // an ACK for that data, so it must reach the remote host
+    public boolean closeWhenFlushed;
+    // Data segments sent to the device and not yet acknowledged, created with the first one
+    public RetransmitQueue retransmitQueue;
+    // Delayed ACKs: data segments from the device we have not acknowledged yet, the largest segment it has
+    // sent, and the timer that acknowledges them if no data or further segment does first
+    public int unacknowledgedSegments;
+    public int largestDeviceSegment;
+    public TimerWheel.Timer delayedAckTimer;
 
     public SocketChannel channel;
     public boolean waitingForNetworkData;
     public SelectionKey selectionKey;
 
-    // Static TCB cache management
-    private static final int MAX_CACHE_SIZE = 50;
-    private static LRUCache<String, TCB> tcbCache =
-            new LRUCache<>(MAX_CACHE_SIZE, new LRUCache.CleanupCallback<String, TCB>()
-            {
-                @Override
-                public void cleanup(Map.Entry<String, TCB> eldest)
-                {
-                    eldest.getValue().closeChannel();
-                }
-            });
+    // Fires when the connection may have outstayed its state's idle timeout; rescheduled, never reallocated
+    private final TimerWheel.Timer idleTimer = new TimerWheel.Timer(new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onIdleTimer(System.nanoTime());
+        }
+    });
+
+    private static final String TAG = TCB.class.getSimpleName();
+    // RFC 9293: without an MSS option, an IPv4 peer may only be sent 536 byte segments
+    public static final int DEFAULT_MSS = 536;
+    // Smallest MSS honoured, so a bogus option cannot turn every read into dozens of tiny packets
+    private static final int MIN_MSS = 64;
+    // Largest segment we accept from the device: packets are read from the TUN interface into 1500 byte buffers
+    public static final int LOCAL_MSS = 1500 - Packet.IP4_HEADER_SIZE - Packet.TCP_HEADER_SIZE;
+    public static final int LOCAL_WINDOW_SHIFT = 6;
+    // Most of the device's data held for a remote host that is not keeping up; also our receive window
+    public static final int SEND_QUEUE_BYTES = 256 * 1024;
+    private static final int MAX_UNSCALED_WINDOW = 0xFFFF;
+    // RFC 7323: shift counts above 14 are treated as 14
+    private static final int MAX_WINDOW_SHIFT = 14;
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
+
+    // The table of the shard that owns this connection, set when the connection is added to it
+    TCBTable table;
 
     /**
      * Initializes a new instance of TCB with the specified parameters.
      */
-    public TCB(String ipAndPort, long mySequenceNum, long theirSequenceNum, long myAcknowledgementNum, long theirAcknowledgementNum,
-               SocketChannel channel, Packet referencePacket)
+    public TCB(int destinationAddress, int destinationPort, int sourcePort,
+               long mySequenceNum, long theirSequenceNum, long myAcknowledgementNum, long theirAcknowledgementNum,
+               SocketChannel channel, HeaderTemplate headerTemplate)
     {
-        this.ipAndPort = ipAndPort;
+        this.flowKey = flowKey(destinationAddress, destinationPort, sourcePort);
+        this.destinationAddress = destinationAddress;
+        this.destinationPort = destinationPort;
+        this.sourcePort = sourcePort;
 
         this.mySequenceNum = mySequenceNum;
         this.theirSequenceNum = theirSequenceNum;
@@ -59,51 +127,240 @@ public class TCB
         this.theirAcknowledgementNum = theirAcknowledgementNum;
 
         this.channel = channel;
-        this.referencePacket = referencePacket;
+        this.headerTemplate = headerTemplate;
+        this.lastActivityNanos = System.nanoTime();
     }
 
-    // Other methods for TCB management and operations
-    public static TCB getTCB(String ipAndPort)
+    /**
+     * Records activity on the connection, restarting its idle timeout.
+     */
+    public void touch()
     {
-        synchronized (tcbCache)
-        {
-            return tcbCache.get(ipAndPort);
-        }
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * @param nowNanos The current time from System.nanoTime().
+     * @return Whether the connection has been idle for longer than its state allows.
+     */
+    public boolean isIdleExpired(long nowNanos)
+    {
+        TCBStatus current = status != null ? status : TCBStatus.SYN_SENT;
+        return nowNanos - lastActivityNanos > current.getIdleTimeoutNanos();
+    }
+
+    /**
+     * (Re)schedules the connection's idle timer for when its current state's timeout would run out.
+     * Activity only ever pushes the deadline later, so {@link #touch()} does not reschedule; the timer checks
+     * {@link #lastActivityNanos} when it fires instead. A state change to a shorter timeout must call this.
+     */
+    public void scheduleIdleTimer()
+    {
+        if (table == null)
+            return;
+        TCBStatus current = status != null ? status : TCBStatus.SYN_SENT;
+        table.getTimerWheel().schedule(idleTimer, lastActivityNanos + current.getIdleTimeoutNanos());
     }
 
-    public static void putTCB(String ipAndPort, TCB tcb)
+    /**
+     * Closes the connection if it is still idle, which covers connect timeouts in SYN_SENT, stalled
+     * handshakes, idle established connections and LAST_ACK cleanup; otherwise waits for the new deadline.
+     *
+     * @param nowNanos The current time from System.nanoTime().
+     */
+    void onIdleTimer(long nowNanos)
     {
-        synchronized (tcbCache)
+        if (table == null || table.get(flowKey) != this)
+            return;
+        if (!isIdleExpired(nowNanos))
         {
-            tcbCache.put(ipAndPort, tcb);
+            scheduleIdleTimer();
+            return;
         }
+        Log.d(TAG, "Idle timeout in " + status + ": " + this);
+        table.close(this);
     }
 
+    /**
+     * Records the maximum segment size the device advertised in its SYN.
+     *
+     * @param advertisedMss The MSS option value, or -1 if the SYN carried none.
+     */
+    public void setDeviceMss(int advertisedMss)
+    {
+        deviceMss = advertisedMss < 0 ? DEFAULT_MSS : Math.max(MIN_MSS, advertisedMss);
+    }
 
+    /**
+     * Records the options the device sent in its SYN: maximum segment size, window scale and SACK-permitted.
+     *
+     * @param syn The TCP header of the device's SYN.
+     */
+    public void negotiateOptions(TCPHeader syn)
+    {
+        setDeviceMss(syn.getMaximumSegmentSize());
+        int windowScale = syn.getWindowScale();
+        windowScaling = windowScale >= 0;
+        deviceWindowShift = windowScaling ? Math.min(windowScale, MAX_WINDOW_SHIFT) : 0;
+        localWindowShift = windowScaling ? LOCAL_WINDOW_SHIFT : 0;
+        deviceSackPermitted = syn.isSackPermitted();
+        // RFC 7323: the window in a SYN is never scaled
+        deviceWindow = syn.window;
+    }
 
-    public static void closeTCB(TCB tcb)
+    /**
+     * Writes the SYN-ACK for this connection, advertising {@link #LOCAL_MSS} and, if the device offered
+     * window scaling, our own shift count. The window of the responses that follow is set to match.
+     *
+     * @param buffer The buffer to write the SYN-ACK into.
+     */
+    public void writeSynAck(ByteBuffer buffer)
     {
-        tcb.closeChannel();
-        synchronized (tcbCache)
-        {
-            tcbCache.remove(tcb.ipAndPort);
-        }
+        headerTemplate.writeSynAck(buffer, mySequenceNum, myAcknowledgementNum,
+                Math.min(MAX_UNSCALED_WINDOW, sendQueue.remainingCapacity()), LOCAL_MSS,
+                windowScaling ? localWindowShift : -1);
+        updateReceiveWindow();
     }
 
-    public static void closeAll()
+    /**
+     * Advertises the room left in the send queue as our receive window, so the device never sends more
+     * than can be held while the remote host catches up. Data is only acknowledged once queued or written,
+     * so the right edge of the window does not move backwards.
+     */
+    public void updateReceiveWindow()
     {
-        synchronized (tcbCache)
-        {
-            Iterator<Map.Entry<String, TCB>> it = tcbCache.entrySet().iterator();
-            while (it.hasNext())
-            {
-                it.next().getValue().closeChannel();
-                it.remove();
-            }
-        }
+        headerTemplate.setWindow(Math.min(MAX_UNSCALED_WINDOW, sendQueue.remainingCapacity() >> localWindowShift));
+    }
+
+    /**
+     * Records that everything received from the device has been acknowledged, by a pure ACK or on data,
+     * so no delayed ACK is needed.
+     */
+    public void onAckSent()
+    {
+        if (unacknowledgedSegments == 0)
+            return;
+        unacknowledgedSegments = 0;
+        if (delayedAckTimer != null && table != null)
+            table.getTimerWheel().cancel(delayedAckTimer);
+    }
+
+    /**
+     * @return The number of bytes sent to the device that it has not acknowledged yet.
+     */
+    public long getBytesInFlight()
+    {
+        return (mySequenceNum - theirAcknowledgementNum) & SEQUENCE_MASK;
+    }
+
+    /**
+     * @return How many more bytes may be sent to the device before its receive window is full.
+     */
+    public long getUsableWindow()
+    {
+        return Math.max(0, deviceWindow - getBytesInFlight());
+    }
+
+    /**
+     * Records the acknowledgement number and window of a packet from the device. Acknowledgements of data
+     * that was never sent are ignored, so a stray packet cannot open the window.
+     *
+     * @param ackNum The acknowledgement number of the device's packet.
+     * @param window The window field of the device's packet, before scaling.
+     * @return {@code false} if the acknowledgement was ignored.
+     */
+    public boolean onDeviceAck(long ackNum, int window)
+    {
+        if (((ackNum - theirAcknowledgementNum) & SEQUENCE_MASK) > getBytesInFlight())
+            return false;
+        theirAcknowledgementNum = ackNum;
+        deviceWindow = (long) window << deviceWindowShift;
+        if (retransmitQueue != null)
+            retransmitQueue.acknowledge(ackNum, System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Checks whether a packet from the device is a duplicate ACK (RFC 5681): no data, no new
+     * acknowledgement, the same window, and data still outstanding. Must be called before
+     * {@link #onDeviceAck(long, int)} records the packet.
+     *
+     * @param ackNum The acknowledgement number of the device's packet.
+     * @param window The window field of the device's packet, before scaling.
+     * @return Whether the packet repeats the previous acknowledgement.
+     */
+    public boolean isDuplicateAck(long ackNum, int window)
+    {
+        return ackNum == theirAcknowledgementNum && ((long) window << deviceWindowShift) == deviceWindow
+                && getBytesInFlight() > 0;
+    }
+
+    /**
+     * @return The capacity of the pooled buffers held by the send and retransmission queues.
+     */
+    public long getBufferedBytes()
+    {
+        return sendQueue.getBufferedBytes() + (retransmitQueue != null ? retransmitQueue.getBufferedBytes() : 0);
     }
 
-    private void closeChannel() {
+    /**
+     * @param outputQueue The queue of packets to be written to the device.
+     * @return The connection's retransmission queue, created on first use.
+     */
+    public RetransmitQueue getRetransmitQueue(Queue<ByteBuffer> outputQueue)
+    {
+        if (retransmitQueue == null)
+            retransmitQueue = new RetransmitQueue(outputQueue, table != null ? table.getTimerWheel() : null);
+        return retransmitQueue;
+    }
+
+    /**
+     * Packs the remote address, remote port and local port of a connection into a single key.
+     * The local address is always the VPN interface address, so it does not need to be part of the key.
+     *
+     * @param destinationAddress The remote IPv4 address as a big-endian int.
+     * @param destinationPort The remote port.
+     * @param sourcePort The local (device) port.
+     * @return The packed connection key.
+     */
+    public static long flowKey(int destinationAddress, int destinationPort, int sourcePort)
+    {
+        return ((long) destinationAddress << 32) | ((long) (destinationPort & 0xFFFF) << 16) | (sourcePort & 0xFFFF);
+    }
+
+    /**
+     * Closes a connection and removes it from the table of the shard that owns it.
+     *
+     * @param tcb The connection to close.
+     */
+    public static void closeTCB(TCB tcb)
+    {
+        if (tcb.table != null)
+            tcb.table.close(tcb);
+        else
+            tcb.release();
+    }
+
+    // Cancels the connection's timers and closes its channel
+    void release() {
+        if (table != null) {
+            table.getTimerWheel().cancel(idleTimer);
+            if (delayedAckTimer != null) {
+                table.getTimerWheel().cancel(delayedAckTimer);
+            }
+        }
+        if (!sendQueue.isEmpty() && channel != null && channel.isConnected()) {
+            // The device was already sent an ACK for this data, so give the socket a last chance to take it
+            try {
+                sendQueue.writeTo(channel);
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping " + sendQueue.size() + " queued bytes on close: " + this, e);
+            }
+        }
+        sendQueue.clear();
+        if (retransmitQueue != null) {
+            retransmitQueue.clear();
+        }
         if (channel != null) {
             try {
                 if (channel.isOpen()) {
@@ -114,4 +371,10 @@ public class TCB
             }
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public String toString()
+    {
+        return IPAddressFormatter.formatIPv4(destinationAddress) + ":" + destinationPort + ":" + sourcePort;
+    }
+}
@@ -0,0 +1,166 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+/**
+ * The connections owned by one {@link TCPReactor} shard: a {@link FlowTable} of {@link TCB}s and the
+ * {@link TimerWheel} driving their timers. Every shard has its own table, so shards never share connection
+ * state, and a table is only touched by the thread of the shard that owns it.
+ */
+public class TCBTable
+{
+    private static final String TAG = TCBTable.class.getSimpleName();
+    public static final int DEFAULT_INITIAL_CAPACITY = 256;
+    public static final int DEFAULT_MAX_CONNECTIONS = 4096;
+    // Rough heap cost of one idle connection: the TCB, its header template and the channel objects. The
+    // buffers its queues hold are counted separately, see TCB#getBufferedBytes()
+    private static final int ESTIMATED_CONNECTION_BYTES = 512;
+
+    private static final FlowTable.RemovalCallback<TCB> RELEASE = new FlowTable.RemovalCallback<TCB>()
+    {
+        @Override
+        public void onRemoved(TCB tcb)
+        {
+            tcb.release();
+        }
+    };
+
+    private final FlowTable<TCB> flows;
+    private final TimerWheel timerWheel = new TimerWheel(System.nanoTime());
+    private final int maxConnections;
+
+    /**
+     * Creates a table sized for the default number of connections.
+     */
+    public TCBTable()
+    {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param initialCapacity The number of connections to size the table for initially.
+     * @param maxConnections The maximum number of connections the table will hold.
+     */
+    public TCBTable(int initialCapacity, int maxConnections)
+    {
+        this.flows = new FlowTable<>(initialCapacity, maxConnections);
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @param flowKey The packed connection key, see {@link TCB#flowKey(int, int, int)}.
+     * @return The connection's TCB, or null if there is none.
+     */
+    public TCB get(long flowKey)
+    {
+        return flows.get(flowKey);
+    }
+
+    /**
+     * Adds a connection to the table and starts its idle timer. If the table is full, idle connections
+     * are expired first.
+     *
+     * @param tcb The connection's TCB.
+     * @return {@code false} if the table is full of live connections and the connection was not added.
+     */
+    public boolean put(TCB tcb)
+    {
+        if (!flows.put(tcb.flowKey, tcb)
+                && (expireIdle(System.nanoTime()) == 0 || !flows.put(tcb.flowKey, tcb)))
+            return false;
+        tcb.table = this;
+        tcb.scheduleIdleTimer();
+        return true;
+    }
+
+    /**
+     * Closes a connection's channel, cancels its timers and removes it from the table.
+     *
+     * @param tcb The connection to close.
+     */
+    public void close(TCB tcb)
+    {
+        tcb.release();
+        flows.remove(tcb.flowKey);
+    }
+
+    /**
+     * Closes and removes every connection.
+     */
+    public void closeAll()
+    {
+        flows.clear(RELEASE);
+    }
+
+    /**
+     * Closes and removes every connection that has been idle for longer than its state's timeout, without
+     * waiting for their idle timers. Used to make room when the table is full.
+     *
+     * @param nowNanos The current time from System.nanoTime().
+     * @return The number of connections removed.
+     */
+    public int expireIdle(final long nowNanos)
+    {
+        int expired = flows.removeIf(new FlowTable.Filter<TCB>()
+        {
+            @Override
+            public boolean matches(TCB tcb)
+            {
+                return tcb.isIdleExpired(nowNanos);
+            }
+        }, RELEASE);
+        if (expired > 0)
+            Log.d(TAG, "Expired " + expired + " idle connections; " + getStats());
+        return expired;
+    }
+
+    /**
+     * @return The timer wheel driving the timers of this table's connections.
+     */
+    public TimerWheel getTimerWheel()
+    {
+        return timerWheel;
+    }
+
+    /**
+     * @return The number of connections in the table.
+     */
+    public int size()
+    {
+        return flows.size();
+    }
+
+    /**
+     * @return The approximate memory used by the table and its connections, in bytes, including the pooled
+     *         buffers pinned by their send and retransmission queues.
+     */
+    public long getEstimatedMemoryBytes()
+    {
+        return flows.getTableBytes() + (long) flows.size() * ESTIMATED_CONNECTION_BYTES + getBufferedBytes();
+    }
+
+    /**
+     * @return The capacity of the pooled buffers held by the connections' send and retransmission queues.
+     */
+    public long getBufferedBytes()
+    {
+        final long[] bytes = {0};
+        flows.forEach(new FlowTable.Visitor<TCB>()
+        {
+            @Override
+            public void visit(TCB tcb)
+            {
+                bytes[0] += tcb.getBufferedBytes();
+            }
+        });
+        return bytes[0];
+    }
+
+    /**
+     * @return A one-line summary of the table's occupancy and memory use, for logging.
+     */
+    public String getStats()
+    {
+        return size() + "/" + maxConnections + " connections, ~" + (getEstimatedMemoryBytes() / 1024) + " KB";
+    }
+}
@@ -18,6 +18,13 @@ public class TCPHeader {
     public static final int ACK = 0x10;
     public static final int URG = 0x20;
 
+    // TCP option kinds
+    public static final int OPTION_END = 0;
+    public static final int OPTION_NOP = 1;
+    public static final int OPTION_MSS = 2;
+    public static final int OPTION_WINDOW_SCALE = 3;
+    public static final int OPTION_SACK_PERMITTED = 4;
+
     // TCP header fields
     public int sourcePort;
     public int destinationPort;
@@ -80,6 +87,68 @@ public class TCPHeader {
         return ((this.dataOffsetAndReserved >> 4) & 0x0F) * 4;
     }
 
+    /**
+     * Finds the maximum segment size option, which the device sends in its SYN.
+     *
+     * @return The maximum segment size the sender can receive, or -1 if the option is absent or malformed.
+     */
+    public int getMaximumSegmentSize() {
+        int index = findOption(OPTION_MSS, 4);
+        return index < 0 ? -1 : (optionsAndPadding[index + 2] & 0xFF) << 8 | (optionsAndPadding[index + 3] & 0xFF);
+    }
+
+    /**
+     * Finds the window scale option (RFC 7323), which may only appear in a SYN.
+     *
+     * @return The sender's window shift count, or -1 if the option is absent or malformed.
+     */
+    public int getWindowScale() {
+        int index = findOption(OPTION_WINDOW_SCALE, 3);
+        return index < 0 ? -1 : optionsAndPadding[index + 2] & 0xFF;
+    }
+
+    /**
+     * @return Whether the SYN carries the SACK-permitted option (RFC 2018).
+     */
+    public boolean isSackPermitted() {
+        return findOption(OPTION_SACK_PERMITTED, 2) >= 0;
+    }
+
+    /**
+     * Walks the options for one of the given kind and length.
+     *
+     * @return The index of the option's kind byte in {@link #optionsAndPadding}, or -1 if it is not present.
+     */
+    private int findOption(int wantedKind, int wantedLength) {
+        byte[] options = optionsAndPadding;
+        if (options == null) {
+            return -1;
+        }
+        int index = 0;
+        while (index < options.length) {
+            int kind = options[index] & 0xFF;
+            if (kind == OPTION_END) {
+                break;
+            }
+            if (kind == OPTION_NOP) {
+                index++;
+                continue;
+            }
+            if (index + 1 >= options.length) {
+                break;
+            }
+            int length = options[index + 1] & 0xFF;
+            if (length < 2 || index + length > options.length) {
+                break;
+            }
+            if (kind == wantedKind && length == wantedLength) {
+                return index;
+            }
+            index += length;
+        }
+        return -1;
+    }
+
     // Flag check methods
     public boolean isFIN()
     {
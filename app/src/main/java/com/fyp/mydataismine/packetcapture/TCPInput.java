@@ -2,88 +2,32 @@ package com.fyp.mydataismine.packetcapture;
 
 import android.util.Log;
 
-import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.SelectorProvider;
 import java.util.Iterator;
-import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import com.fyp.mydataismine.packetcapture.TCB.TCBStatus;
 
 /**
- * Manages the input stream for TCP packets within a VPN service, utilizing a non-blocking I/O mechanism to read and process incoming TCP data.
+ * Handles network events on TCP connections: completed connects and data arriving from remote hosts,
+ * which is wrapped in TCP headers and queued for the device. Runs on a {@link TCPReactor} shard thread.
  */
-public class TCPInput implements Runnable
+public class TCPInput
 {
     private static final String TAG = TCPInput.class.getSimpleName();
     private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE;
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
     private ConcurrentLinkedQueue<ByteBuffer> outputQueue;
-    private Selector selector;
-    private FileDescriptor vpnFileDescriptor;
 
     /**
      * Constructs a TCPInput handler for reading and processing TCP packets from a network channel.
      *
      * @param outputQueue The queue to which processed packets will be added.
-     * @param vpnFileDescriptor The file descriptor of the VPN interface.
      */
-    public TCPInput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, FileDescriptor vpnFileDescriptor) {
+    public TCPInput(ConcurrentLinkedQueue<ByteBuffer> outputQueue) {
         this.outputQueue = outputQueue;
-        this.vpnFileDescriptor = vpnFileDescriptor;
-        try {
-            // Create a Selector using the provided FileDescriptor
-            selector = SelectorProvider.provider().openSelector();
-        } catch (IOException e) {
-            Log.e(TAG, "Error creating Selector", e);
-        }
-    }
-
-    /**
-     * The main run method that continuously reads and processes incoming TCP packets.
-     */
-    @Override
-    public void run()
-    {
-        try
-        {
-            Log.d(TAG, "Started");
-            while (!Thread.interrupted())
-            {
-                int readyChannels = selector.select();
-
-                if (readyChannels == 0) {
-                    Thread.sleep(10);
-                    continue;
-                }
-
-                Set<SelectionKey> keys = selector.selectedKeys();
-                Iterator<SelectionKey> keyIterator = keys.iterator();
-
-                while (keyIterator.hasNext() && !Thread.interrupted())
-                {
-                    SelectionKey key = keyIterator.next();
-                    if (key.isValid())
-                    {
-                        if (key.isConnectable())
-                            processConnect(key, keyIterator);
-                        else if (key.isReadable())
-                            processInput(key, keyIterator);
-                    }
-                }
-            }
-        }
-        catch (InterruptedException e)
-        {
-            Log.i(TAG, "Stopping");
-        }
-        catch (IOException e)
-        {
-            Log.w(TAG, e.toString(), e);
-        }
     }
 
     /**
@@ -95,29 +39,28 @@ public class TCPInput implements Runnable
     void processConnect(SelectionKey key, Iterator<SelectionKey> keyIterator)
     {
         TCB tcb = (TCB) key.attachment();
-        Packet referencePacket = tcb.referencePacket;
+        HeaderTemplate headerTemplate = tcb.headerTemplate;
         try
         {
             if (tcb.channel.finishConnect())
             {
                 keyIterator.remove();
+                tcb.touch();
                 tcb.status = TCBStatus.SYN_RECEIVED;
 
-                // TODO: Set MSS for receiving larger packets from the device
                 ByteBuffer responseBuffer = ByteBufferPool.acquire();
-                referencePacket.updateTCPBuffer(responseBuffer, (byte) (TCPHeader.SYN | TCPHeader.ACK),
-                        tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+                tcb.writeSynAck(responseBuffer);
                 outputQueue.offer(responseBuffer);
 
-                tcb.mySequenceNum++; // SYN counts as a byte
+                tcb.mySequenceNum = (tcb.mySequenceNum + 1) & SEQUENCE_MASK; // SYN counts as a byte
                 key.interestOps(SelectionKey.OP_READ);
             }
         }
         catch (IOException e)
         {
-            Log.e(TAG, "Connection error: " + tcb.ipAndPort, e);
+            Log.e(TAG, "Connection error: " + tcb, e);
             ByteBuffer responseBuffer = ByteBufferPool.acquire();
-            referencePacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
+            headerTemplate.writeTcp(responseBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
             outputQueue.offer(responseBuffer);
             TCB.closeTCB(tcb);
         }
@@ -125,6 +68,11 @@ public class TCPInput implements Runnable
 
     /**
      * Processes the incoming TCP data for a channel.
+     * Data is read straight into device-MSS-sized slots of one pooled buffer, each preceded by room for
+     * its headers, so the segments are built in place and queued to the device as one buffer of
+     * back-to-back packets, without copying the payload. No more is read than the device's receive window
+     * has room for, and reading pauses once it is full. The segments are kept until acknowledged, see
+     * {@link RetransmitQueue}.
      *
      * @param key The selection key representing the channel with incoming data.
      * @param keyIterator The iterator for the selection keys.
@@ -133,73 +81,139 @@ public class TCPInput implements Runnable
     {
         keyIterator.remove();
         ByteBuffer receiveBuffer = ByteBufferPool.acquire();
-        // Leave space for the header
-        receiveBuffer.position(HEADER_SIZE);
 
         TCB tcb = (TCB) key.attachment();
-        synchronized (tcb)
+        HeaderTemplate headerTemplate = tcb.headerTemplate;
+        SocketChannel inputChannel = (SocketChannel) key.channel();
+        int segmentSize = Math.min(tcb.deviceMss, receiveBuffer.capacity() - HEADER_SIZE);
+        long usableWindow = tcb.getUsableWindow();
+        if (usableWindow == 0)
         {
-            Packet referencePacket = tcb.referencePacket;
-            SocketChannel inputChannel = (SocketChannel) key.channel();
-            int readBytes;
-            try
-            {
-                readBytes = inputChannel.read(receiveBuffer);
-            }
-            catch (IOException e)
+            pauseReading(tcb, key);
+            ByteBufferPool.release(receiveBuffer);
+            return;
+        }
+        int readBytes;
+        try
+        {
+            readBytes = (int) inputChannel.read(segmentSlots(receiveBuffer, segmentSize, usableWindow));
+            tcb.touch();
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "Network read error: " + tcb, e);
+            headerTemplate.writeTcp(receiveBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
+            outputQueue.offer(receiveBuffer);
+            TCB.closeTCB(tcb);
+            return;
+        }
+
+        if (readBytes == -1)
+        {
+            // End of stream
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            tcb.waitingForNetworkData = false;
+
+            if (tcb.status != TCBStatus.CLOSE_WAIT)
             {
-                Log.e(TAG, "Network read error: " + tcb.ipAndPort, e);
-                referencePacket.updateTCPBuffer(receiveBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
-                outputQueue.offer(receiveBuffer);
-                TCB.closeTCB(tcb);
+                ByteBufferPool.release(receiveBuffer);
                 return;
             }
 
-            if (readBytes == -1)
+            tcb.status = TCBStatus.LAST_ACK;
+            tcb.scheduleIdleTimer();
+            headerTemplate.writeTcp(receiveBuffer, (byte) TCPHeader.FIN, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+            tcb.mySequenceNum = (tcb.mySequenceNum + 1) & SEQUENCE_MASK; // FIN counts as a byte
+            tcb.onAckSent();
+        }
+        else if (readBytes == 0)
+        {
+            ByteBufferPool.release(receiveBuffer);
+            return;
+        }
+        else
+        {
+            // Log or store packet data
+            logOrStorePacketData(headerTemplate.getSourceAddress(),
+                    headerTemplate.getDestinationAddress(), readBytes);
+
+            RetransmitQueue retransmitQueue = tcb.getRetransmitQueue(outputQueue);
+            long now = System.nanoTime();
+            int offset = 0;
+            int remaining = readBytes;
+            while (remaining > 0)
             {
-                // End of stream
-                key.interestOps(0);
-                tcb.waitingForNetworkData = false;
-
-                if (tcb.status != TCBStatus.CLOSE_WAIT)
-                {
-                    ByteBufferPool.release(receiveBuffer);
-                    return;
-                }
-
-                tcb.status = TCBStatus.LAST_ACK;
-                referencePacket.updateTCPBuffer(receiveBuffer, (byte) TCPHeader.FIN, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
-                tcb.mySequenceNum++; // FIN counts as a byte
+                int payloadSize = Math.min(segmentSize, remaining);
+                remaining -= payloadSize;
+                // Only the last segment of the read pushes the data to the application
+                byte flags = (byte) (remaining == 0 ? TCPHeader.PSH | TCPHeader.ACK : TCPHeader.ACK);
+                // Sum the payload while it is still hot in cache, so the checksum never re-reads it
+                long payloadSum = InternetChecksum.sum(receiveBuffer, offset + HEADER_SIZE, payloadSize);
+                headerTemplate.writeTcp(receiveBuffer, offset, flags,
+                        tcb.mySequenceNum, tcb.myAcknowledgementNum, payloadSize, payloadSum);
+                tcb.mySequenceNum = (tcb.mySequenceNum + payloadSize) & SEQUENCE_MASK;
+                retransmitQueue.add(receiveBuffer, offset, HEADER_SIZE + payloadSize, tcb.mySequenceNum, now);
+                offset += HEADER_SIZE + payloadSize;
             }
-            else  {
+            // Every slot but the last is full, so the segments already sit back to back
+            receiveBuffer.position(offset);
 
-                // Calculate payload size (exclude TCP/IP header size if needed)
-                int payloadSize = readBytes - HEADER_SIZE; // Adjust if you need to exclude header size
-                String sourceIp = tcb.referencePacket.ip4Header.sourceAddress.getHostAddress();
-                String destinationIp = tcb.referencePacket.ip4Header.destinationAddress.getHostAddress();
+            // The segments carry our latest acknowledgement, so any delayed ACK rides along with them
+            tcb.onAckSent();
+            if (tcb.getUsableWindow() == 0)
+                pauseReading(tcb, key);
 
-                // Log or store packet data
-                logOrStorePacketData(sourceIp, destinationIp, payloadSize);
-
-                referencePacket.updateTCPBuffer(receiveBuffer, (byte) (TCPHeader.PSH | TCPHeader.ACK),
-                        tcb.mySequenceNum, tcb.myAcknowledgementNum, readBytes);
-                tcb.mySequenceNum += readBytes;
-                receiveBuffer.position(HEADER_SIZE + readBytes);
-            }
+            // The retransmission queue owns the buffer now; the device gets a view the pool will not take back
+            outputQueue.offer(receiveBuffer.asReadOnlyBuffer());
+            return;
         }
         outputQueue.offer(receiveBuffer);
     }
 
+    /**
+     * Stops reading from the connection until the device acknowledges enough data to open its window again,
+     * see TCPOutput's handling of ACKs. Unread data stays in the socket's receive buffer, so the remote host
+     * is slowed down by TCP's own flow control instead of data piling up in the output queue.
+     */
+    private static void pauseReading(TCB tcb, SelectionKey key)
+    {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        tcb.readPaused = true;
+    }
+
+    /**
+     * Splits a buffer into payload slots of one segment each, leaving room for the headers before every slot,
+     * so a single scattering read fills them in order. The slots hold at most maxBytes in total.
+     */
+    private static ByteBuffer[] segmentSlots(ByteBuffer buffer, int segmentSize, long maxBytes)
+    {
+        int stride = HEADER_SIZE + segmentSize;
+        int slotCount = (int) Math.min(buffer.capacity() / stride, (maxBytes + segmentSize - 1) / segmentSize);
+        ByteBuffer[] slots = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++)
+        {
+            ByteBuffer slot = buffer.duplicate();
+            int payloadStart = i * stride + HEADER_SIZE;
+            int payloadSize = (int) Math.min(segmentSize, maxBytes - (long) i * segmentSize);
+            slot.limit(payloadStart + payloadSize).position(payloadStart);
+            slots[i] = slot;
+        }
+        return slots;
+    }
+
     /**
      * Logs or stores the packet data for further analysis or debugging.
      *
-     * @param sourceIp The source IP address of the packet.
-     * @param destinationIp The destination IP address of the packet.
+     * @param sourceAddress The source IPv4 address of the packet.
+     * @param destinationAddress The destination IPv4 address of the packet.
      * @param payloadSize The size of the packet payload.
      */
-    private void logOrStorePacketData(String sourceIp, String destinationIp, int payloadSize) {
+    private void logOrStorePacketData(int sourceAddress, int destinationAddress, int payloadSize) {
         // Implementation to log or store the packet data
-        Log.d(TAG, "Packet from " + sourceIp + " to " + destinationIp + " with payload size: " + payloadSize + " bytes");
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Packet from " + IPAddressFormatter.formatIPv4(sourceAddress) + " to "
+                    + IPAddressFormatter.formatIPv4(destinationAddress) + " with payload size: " + payloadSize + " bytes");
+        }
     }
 }
 
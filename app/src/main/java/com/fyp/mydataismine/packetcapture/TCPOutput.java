@@ -3,152 +3,182 @@ package com.fyp.mydataismine.packetcapture;
 import android.util.Log;
 
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
-import com.fyp.mydataismine.packetcapture.TCPHeader;
 import com.fyp.mydataismine.packetcapture.TCB.TCBStatus;
 
 /**
- * Manages outgoing TCP traffic within the VPN service, handling TCP packet processing, connection management, and data forwarding.
+ * Handles TCP packets sent by the device, managing connections and forwarding their data to the network.
+ * Runs on the thread of one {@link TCPReactor} shard, which owns its connections, so connection state is
+ * never locked.
  */
-public class TCPOutput implements Runnable {
+public class TCPOutput {
     private static final String TAG = TCPOutput.class.getSimpleName();
+    // RFC 5681: acknowledge at least every second full-sized segment, and never later than 500 ms
+    public static final int DEFAULT_ACK_EVERY_SEGMENTS = 2;
+    public static final long DEFAULT_DELAYED_ACK_MILLIS = 40;
+    private static final long MAX_DELAYED_ACK_MILLIS = 500;
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
 
     private VPNNetworkService vpnService;
-    private ConcurrentLinkedQueue<Packet> inputQueue;
     private ConcurrentLinkedQueue<ByteBuffer> outputQueue;
     private Selector selector;
+    private TCBTable tcbTable;
 
     private Random random = new Random();
+    private int ackEverySegments = DEFAULT_ACK_EVERY_SEGMENTS;
+    private long delayedAckNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DELAYED_ACK_MILLIS);
+    // Segments are already coalesced by the device and by flushPendingWrites(), so by default the
+    // kernel sends them as they are instead of holding them back with Nagle's algorithm as well
+    private boolean tcpNoDelay = true;
+    // Connections with data gathered in their send queue since the last flushPendingWrites()
+    private final ArrayList<TCB> pendingFlushes = new ArrayList<>();
 
     /**
      * Initializes a new instance of the TCPOutput class.
      *
-     * @param inputQueue The queue containing incoming packets to be processed.
      * @param outputQueue The queue for placing processed packets to be sent out.
-     * @param selector The selector for managing non-blocking network channels.
+     * @param selector The reactor's selector, which new connections are registered with.
+     * @param tcbTable The reactor's connections.
      * @param vpnService The VPN service managing network interactions.
      */
-    public TCPOutput(ConcurrentLinkedQueue<Packet> inputQueue, ConcurrentLinkedQueue<ByteBuffer> outputQueue,
-                     Selector selector, VPNNetworkService vpnService) {
-        this.inputQueue = inputQueue;
+    public TCPOutput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, Selector selector, TCBTable tcbTable,
+                     VPNNetworkService vpnService) {
         this.outputQueue = outputQueue;
         this.selector = selector;
+        this.tcbTable = tcbTable;
         this.vpnService = vpnService;
     }
 
     /**
-     * The main processing loop that takes packets from the input queue, processes them, and places responses in the output queue.
+     * Sets TCP_NODELAY on the sockets of connections opened from now on.
+     *
+     * @param tcpNoDelay {@code true} to disable Nagle's algorithm on the upstream sockets.
      */
-    @Override
-    public void run() {
-        Log.i(TAG, "Started");
-        try {
-            Thread currentThread = Thread.currentThread();
-            while (true) {
-                Packet currentPacket;
-                // TODO: Block when not connected
-                do {
-                    currentPacket = inputQueue.poll();
-                    if (currentPacket != null)
-                        break;
-                    Thread.sleep(10);
-                } while (!currentThread.isInterrupted());
-
-                if (currentThread.isInterrupted())
-                    break;
-
-                ByteBuffer payloadBuffer = currentPacket.backingBuffer;
-                currentPacket.backingBuffer = null;
-                ByteBuffer responseBuffer = ByteBufferPool.acquire();
-
-                InetAddress destinationAddress = currentPacket.ip4Header.destinationAddress;
-
-                TCPHeader tcpHeader = currentPacket.tcpHeader;
-                int destinationPort = tcpHeader.destinationPort;
-                int sourcePort = tcpHeader.sourcePort;
-
-                String ipAndPort = destinationAddress.getHostAddress() + ":" +
-                        destinationPort + ":" + sourcePort;
-                TCB tcb = TCB.getTCB(ipAndPort);
-                if (tcb == null)
-                    initializeConnection(ipAndPort, destinationAddress, destinationPort,
-                            currentPacket, tcpHeader, responseBuffer);
-                else if (tcpHeader.isSYN())
-                    processDuplicateSYN(tcb, tcpHeader, responseBuffer);
-                else if (tcpHeader.isRST())
-                    closeCleanly(tcb, responseBuffer);
-                else if (tcpHeader.isFIN())
-                    processFIN(tcb, tcpHeader, responseBuffer);
-                else if (tcpHeader.isACK())
-                    processACK(tcb, tcpHeader, payloadBuffer, responseBuffer);
-
-
-                if (responseBuffer.position() == 0)
-                    ByteBufferPool.release(responseBuffer);
-                ByteBufferPool.release(payloadBuffer);
-            }
-        } catch (InterruptedException e) {
-            Log.i(TAG, "Stopping");
-        } catch (IOException e) {
-            Log.e(TAG, e.toString(), e);
-        } finally {
-            TCB.closeAll();
-        }
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Configures delayed ACKs for data from the device. Instead of one ACK per data packet, an ACK is sent
+     * once the given number of full-sized segments has arrived, or when the delay runs out, or earlier
+     * with data going back to the device. Short or out-of-order segments are always acknowledged at once,
+     * so the device's Nagle algorithm and fast retransmit are never held up. The delay is rounded up to
+     * the tick of the reactor's timer wheel.
+     *
+     * @param ackEverySegments The number of segments acknowledged by one ACK; 1 acknowledges every segment.
+     * @param delayMillis The longest an ACK is held back, at most 500 ms.
+     */
+    public void setDelayedAck(int ackEverySegments, long delayMillis) {
+        if (ackEverySegments < 1 || delayMillis < 0 || delayMillis > MAX_DELAYED_ACK_MILLIS)
+            throw new IllegalArgumentException("Invalid delayed ACK policy: every " + ackEverySegments
+                    + " segments or " + delayMillis + " ms");
+        this.ackEverySegments = ackEverySegments;
+        this.delayedAckNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    /**
+     * Processes one packet from the device and places any response in the output queue.
+     *
+     * @param currentPacket The TCP packet sent by the device. Its backing buffer is handed over with it and
+     *                      released to the pool once the packet has been processed.
+     * @throws IOException if a new connection's channel cannot be created.
+     */
+    public void processPacket(Packet currentPacket) throws IOException {
+        ByteBuffer payloadBuffer = currentPacket.backingBuffer;
+        currentPacket.backingBuffer = null;
+        ByteBuffer responseBuffer = ByteBufferPool.acquire();
+
+        int destinationAddress = currentPacket.ip4Header.destinationAddress;
+
+        TCPHeader tcpHeader = currentPacket.tcpHeader;
+        int destinationPort = tcpHeader.destinationPort;
+        int sourcePort = tcpHeader.sourcePort;
+
+        TCB tcb = tcbTable.get(TCB.flowKey(destinationAddress, destinationPort, sourcePort));
+        if (tcb != null)
+            tcb.touch();
+        if (tcb == null)
+            initializeConnection(destinationAddress, destinationPort, sourcePort,
+                    currentPacket, tcpHeader, responseBuffer);
+        else if (tcb.closeWhenFlushed) {
+            // Closing once its queued data is written, so nothing more from the device is relayed
+        } else if (tcpHeader.isSYN())
+            processDuplicateSYN(tcb, tcpHeader, responseBuffer);
+        else if (tcpHeader.isRST())
+            closeCleanly(tcb);
+        else if (tcpHeader.isFIN())
+            processFIN(tcb, tcpHeader, responseBuffer);
+        else if (tcpHeader.isACK())
+            processACK(tcb, tcpHeader, payloadBuffer, responseBuffer);
+
+        if (responseBuffer.position() == 0)
+            ByteBufferPool.release(responseBuffer);
+        ByteBufferPool.release(payloadBuffer);
     }
 
     /**
      * Initializes a new TCP connection for the given packet.
      *
-     * @param ipAndPort A string representing the IP address and port of the connection.
-     * @param destinationAddress The destination IP address of the connection.
+     * @param destinationAddress The destination IPv4 address of the connection as a big-endian int.
      * @param destinationPort The destination port number of the connection.
+     * @param sourcePort The source (device) port number of the connection.
      * @param currentPacket The current TCP packet being processed.
      * @param tcpHeader The TCP header of the current packet.
      * @param responseBuffer The buffer for storing the response packet.
      * @throws IOException if an I/O error occurs.
      */
-    private void initializeConnection(String ipAndPort, InetAddress destinationAddress, int destinationPort,
+    private void initializeConnection(int destinationAddress, int destinationPort, int sourcePort,
                                       Packet currentPacket, TCPHeader tcpHeader, ByteBuffer responseBuffer)
             throws IOException {
-        currentPacket.swapSourceAndDestination();
+        HeaderTemplate headerTemplate = HeaderTemplate.forTcpResponse(currentPacket.ip4Header, tcpHeader);
         if (tcpHeader.isSYN()) {
             SocketChannel outputChannel = SocketChannel.open();
             outputChannel.configureBlocking(false);
+            outputChannel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
             vpnService.protect(outputChannel.socket());
 
-            TCB tcb = new TCB(ipAndPort, random.nextInt(Short.MAX_VALUE + 1), tcpHeader.sequenceNumber, tcpHeader.sequenceNumber + 1,
-                    tcpHeader.acknowledgementNumber, outputChannel, currentPacket);
-            TCB.putTCB(ipAndPort, tcb);
-
-            try {
-                outputChannel.connect(new InetSocketAddress(destinationAddress, destinationPort));
-                if (outputChannel.finishConnect()) {
-                    tcb.status = TCBStatus.SYN_RECEIVED;
-                    // TODO: Set MSS for receiving larger packets from the device
-                    currentPacket.updateTCPBuffer(responseBuffer, (byte) (TCPHeader.SYN | TCPHeader.ACK),
-                            tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
-                    tcb.mySequenceNum++; // SYN counts as a byte
-                } else {
-                    tcb.status = TCBStatus.SYN_SENT;
-                    selector.wakeup();
-                    tcb.selectionKey = outputChannel.register(selector, SelectionKey.OP_CONNECT, tcb);
-                    return;
+            // Nothing is acknowledged yet, so the first unacknowledged byte is our SYN
+            long initialSequenceNum = random.nextInt(Short.MAX_VALUE + 1);
+            TCB tcb = new TCB(destinationAddress, destinationPort, sourcePort,
+                    initialSequenceNum, tcpHeader.sequenceNumber, (tcpHeader.sequenceNumber + 1) & SEQUENCE_MASK,
+                    initialSequenceNum, outputChannel, headerTemplate);
+            tcb.negotiateOptions(tcpHeader);
+            tcb.updateReceiveWindow();
+            if (!tcbTable.put(tcb)) {
+                Log.w(TAG, "Too many connections, refusing: " + tcb);
+                outputChannel.close();
+                headerTemplate.writeTcp(responseBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
+            } else {
+                try {
+                    outputChannel.connect(new InetSocketAddress(
+                            IPAddressFormatter.toInetAddress(destinationAddress), destinationPort));
+                    if (outputChannel.finishConnect()) {
+                        tcb.status = TCBStatus.SYN_RECEIVED;
+                        tcb.writeSynAck(responseBuffer);
+                        tcb.mySequenceNum = (tcb.mySequenceNum + 1) & SEQUENCE_MASK; // SYN counts as a byte
+                    } else {
+                        tcb.status = TCBStatus.SYN_SENT;
+                        tcb.selectionKey = outputChannel.register(selector, SelectionKey.OP_CONNECT, tcb);
+                        return;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Connection error: " + tcb, e);
+                    headerTemplate.writeTcp(responseBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
+                    TCB.closeTCB(tcb);
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "Connection error: " + ipAndPort, e);
-                currentPacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
-                TCB.closeTCB(tcb);
             }
         } else {
-            currentPacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.RST,
+            headerTemplate.writeTcp(responseBuffer, (byte) TCPHeader.RST,
                     0, tcpHeader.sequenceNumber + 1, 0);
         }
         outputQueue.offer(responseBuffer);
@@ -162,11 +192,9 @@ public class TCPOutput implements Runnable {
      * @param responseBuffer The buffer for storing the response packet.
      */
     private void processDuplicateSYN(TCB tcb, TCPHeader tcpHeader, ByteBuffer responseBuffer) {
-        synchronized (tcb) {
-            if (tcb.status == TCBStatus.SYN_SENT) {
-                tcb.myAcknowledgementNum = tcpHeader.sequenceNumber + 1;
-                return;
-            }
+        if (tcb.status == TCBStatus.SYN_SENT) {
+            tcb.myAcknowledgementNum = (tcpHeader.sequenceNumber + 1) & SEQUENCE_MASK;
+            return;
         }
         sendRST(tcb, 1, responseBuffer);
     }
@@ -179,23 +207,34 @@ public class TCPOutput implements Runnable {
      * @param responseBuffer The buffer for storing the response packet.
      */
     private void processFIN(TCB tcb, TCPHeader tcpHeader, ByteBuffer responseBuffer) {
-        synchronized (tcb) {
-            Packet referencePacket = tcb.referencePacket;
-            tcb.myAcknowledgementNum = tcpHeader.sequenceNumber + 1;
-            tcb.theirAcknowledgementNum = tcpHeader.acknowledgementNumber;
-
-            if (tcb.waitingForNetworkData) {
-                tcb.status = TCBStatus.CLOSE_WAIT;
-                referencePacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.ACK,
-                        tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
-            } else {
-                tcb.status = TCBStatus.LAST_ACK;
-                referencePacket.updateTCPBuffer(responseBuffer, (byte) (TCPHeader.FIN | TCPHeader.ACK),
-                        tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
-                tcb.mySequenceNum++; // FIN counts as a byte
+        HeaderTemplate headerTemplate = tcb.headerTemplate;
+        // Nothing more will be gathered behind the data still waiting for flushPendingWrites, so write it now
+        if (!tcb.sendQueue.isEmpty() && tcb.selectionKey != null) {
+            try {
+                flush(tcb);
+            } catch (IOException e) {
+                Log.e(TAG, "Network write error: " + tcb, e);
+                sendRST(tcb, 1, responseBuffer);
+                return;
             }
         }
+        tcb.myAcknowledgementNum = (tcpHeader.sequenceNumber + 1) & SEQUENCE_MASK;
+        tcb.onDeviceAck(tcpHeader.acknowledgementNumber, tcpHeader.window);
+
+        if (tcb.waitingForNetworkData) {
+            tcb.status = TCBStatus.CLOSE_WAIT;
+            tcb.scheduleIdleTimer();
+            headerTemplate.writeTcp(responseBuffer, (byte) TCPHeader.ACK,
+                    tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+        } else {
+            tcb.status = TCBStatus.LAST_ACK;
+            tcb.scheduleIdleTimer();
+            headerTemplate.writeTcp(responseBuffer, (byte) (TCPHeader.FIN | TCPHeader.ACK),
+                    tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+            tcb.mySequenceNum = (tcb.mySequenceNum + 1) & SEQUENCE_MASK; // FIN counts as a byte
+        }
         outputQueue.offer(responseBuffer);
+        tcb.onAckSent();
     }
 
     /**
@@ -210,43 +249,196 @@ public class TCPOutput implements Runnable {
     private void processACK(TCB tcb, TCPHeader tcpHeader, ByteBuffer payloadBuffer, ByteBuffer responseBuffer) throws IOException {
         int payloadSize = payloadBuffer.limit() - payloadBuffer.position();
 
-        synchronized (tcb) {
-            SocketChannel outputChannel = tcb.channel;
-            if (tcb.status == TCBStatus.SYN_RECEIVED) {
-                tcb.status = TCBStatus.ESTABLISHED;
+        SocketChannel outputChannel = tcb.channel;
+        if (payloadSize == 0 && tcb.isDuplicateAck(tcpHeader.acknowledgementNumber, tcpHeader.window)) {
+            // The device is missing a segment it has seen later ones of
+            if (tcb.retransmitQueue != null)
+                tcb.retransmitQueue.onDuplicateAck();
+        } else if (tcb.onDeviceAck(tcpHeader.acknowledgementNumber, tcpHeader.window)
+                && tcb.readPaused && tcb.getUsableWindow() > 0) {
+            // The device made room, so resume relaying data from the network
+            tcb.selectionKey.interestOps(tcb.selectionKey.interestOps() | SelectionKey.OP_READ);
+            tcb.readPaused = false;
+        }
 
-                selector.wakeup();
-                tcb.selectionKey = outputChannel.register(selector, SelectionKey.OP_READ, tcb);
-                tcb.waitingForNetworkData = true;
-            } else if (tcb.status == TCBStatus.LAST_ACK) {
-                closeCleanly(tcb, responseBuffer);
-                return;
+        if (tcb.status == TCBStatus.SYN_RECEIVED) {
+            tcb.status = TCBStatus.ESTABLISHED;
+
+            tcb.selectionKey = outputChannel.register(selector, SelectionKey.OP_READ, tcb);
+            tcb.waitingForNetworkData = true;
+        } else if (tcb.status == TCBStatus.LAST_ACK) {
+            closeCleanly(tcb);
+            return;
+        }
+
+        if (payloadSize == 0) return; // Empty ACK, ignore
+
+        // Only forward data the device has not sent before. A retransmission overlapping data already forwarded
+        // is trimmed to its new part; a segment that is entirely old, or that starts past a gap, is not forwarded,
+        // and the repeated ACK tells the device what we expect next.
+        long alreadyReceived = (tcb.myAcknowledgementNum - tcpHeader.sequenceNumber) & SEQUENCE_MASK;
+        if (alreadyReceived >= payloadSize) {
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, (alreadyReceived < 0x80000000L ? "Duplicate" : "Out of order") + " segment of "
+                        + payloadSize + " bytes, not forwarded: " + tcb);
+            sendAck(tcb, responseBuffer);
+            return;
+        }
+        payloadBuffer.position(payloadBuffer.position() + (int) alreadyReceived);
+        payloadSize -= (int) alreadyReceived;
+
+        if (!tcb.waitingForNetworkData) {
+            tcb.selectionKey.interestOps(tcb.selectionKey.interestOps() | SelectionKey.OP_READ);
+            tcb.waitingForNetworkData = true;
+        }
+
+        SendQueue sendQueue = tcb.sendQueue;
+        if (payloadSize > sendQueue.remainingCapacity()) {
+            // More than the window we advertised; drop it unacknowledged and repeat the current window
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, "Send queue full, dropping " + payloadSize + " bytes: " + tcb);
+            sendAck(tcb, responseBuffer);
+            return;
+        }
+
+        // Forward to remote server. Data the device pushed goes out at once; other segments are gathered in
+        // the send queue and written together once the reactor has drained its packets, so a burst of small
+        // segments costs one write. Data is never written ahead of the queue, and the channel is never spun
+        // on, so a slow host cannot stall the reactor.
+        try {
+            if (tcpHeader.isPSH()) {
+                if (sendQueue.isEmpty())
+                    outputChannel.write(payloadBuffer);
+                if (payloadBuffer.hasRemaining())
+                    sendQueue.offer(payloadBuffer);
+                flush(tcb);
+            } else {
+                sendQueue.offer(payloadBuffer);
+                if (!tcb.flushPending) {
+                    tcb.flushPending = true;
+                    pendingFlushes.add(tcb);
+                }
+                tcb.updateReceiveWindow();
             }
+        } catch (IOException e) {
+            Log.e(TAG, "Network write error: " + tcb, e);
+            sendRST(tcb, payloadSize, responseBuffer);
+            return;
+        }
+
+        tcb.myAcknowledgementNum = (tcb.myAcknowledgementNum + payloadSize) & SEQUENCE_MASK;
+        // A trimmed retransmission is acknowledged at once, so the device stops resending
+        if (alreadyReceived > 0 || !delayAck(tcb, payloadSize))
+            sendAck(tcb, responseBuffer);
+    }
 
-            if (payloadSize == 0) return; // Empty ACK, ignore
+    /**
+     * Decides whether the ACK for a data segment can wait, and if so makes sure the delayed ACK timer runs.
+     *
+     * @return {@code false} if the segment must be acknowledged now.
+     */
+    private boolean delayAck(final TCB tcb, int payloadSize) {
+        tcb.largestDeviceSegment = Math.max(tcb.largestDeviceSegment, payloadSize);
+        if (++tcb.unacknowledgedSegments >= ackEverySegments || payloadSize < tcb.largestDeviceSegment
+                || delayedAckNanos == 0 || tcb.table == null)
+            return false;
 
-            if (!tcb.waitingForNetworkData) {
-                selector.wakeup();
-                tcb.selectionKey.interestOps(SelectionKey.OP_READ);
-                tcb.waitingForNetworkData = true;
+        if (tcb.unacknowledgedSegments == 1) {
+            if (tcb.delayedAckTimer == null) {
+                tcb.delayedAckTimer = new TimerWheel.Timer(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (tcb.unacknowledgedSegments > 0)
+                            sendAck(tcb, ByteBufferPool.acquire());
+                    }
+                });
             }
+            tcb.table.getTimerWheel().schedule(tcb.delayedAckTimer, System.nanoTime() + delayedAckNanos);
+        }
+        return true;
+    }
 
-            // Forward to remote server
+    /**
+     * Acknowledges everything received from the device so far.
+     *
+     * @param tcb The Transmission Control Block associated with the connection.
+     * @param buffer The buffer for storing the ACK.
+     */
+    private void sendAck(TCB tcb, ByteBuffer buffer) {
+        tcb.headerTemplate.writeTcp(buffer, (byte) TCPHeader.ACK, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+        outputQueue.offer(buffer);
+        tcb.onAckSent();
+    }
+
+    /**
+     * Writes the data gathered from the device since the last call, one gathering write per connection.
+     * Called by the reactor after every batch of packets from the device. A FIN or a close from the device in
+     * the same batch does not wait for this: processFIN and closeCleanly write the gathered data first.
+     */
+    public void flushPendingWrites() {
+        for (int i = 0; i < pendingFlushes.size(); i++) {
+            TCB tcb = pendingFlushes.get(i);
+            tcb.flushPending = false;
+            if (!tcb.channel.isOpen())
+                continue; // Closed since its data arrived
             try {
-                while (payloadBuffer.hasRemaining())
-                    outputChannel.write(payloadBuffer);
+                flush(tcb);
             } catch (IOException e) {
-                Log.e(TAG, "Network write error: " + tcb.ipAndPort, e);
-                sendRST(tcb, payloadSize, responseBuffer);
-                return;
+                Log.e(TAG, "Network write error: " + tcb, e);
+                sendRST(tcb, 0, ByteBufferPool.acquire());
             }
+        }
+        pendingFlushes.clear();
+    }
 
-            tcb.myAcknowledgementNum = tcpHeader.sequenceNumber + payloadSize;
-            tcb.theirAcknowledgementNum = tcpHeader.acknowledgementNumber;
-            Packet referencePacket = tcb.referencePacket;
-            referencePacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.ACK, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+    /**
+     * Writes a connection's send queue with a single gathering write. Whatever the socket does not take
+     * waits for OP_WRITE.
+     *
+     * @param tcb The Transmission Control Block associated with the connection.
+     * @throws IOException if the write fails.
+     */
+    private void flush(TCB tcb) throws IOException {
+        SendQueue sendQueue = tcb.sendQueue;
+        if (!sendQueue.isEmpty()) {
+            sendQueue.writeTo(tcb.channel);
+            if (!sendQueue.isEmpty())
+                tcb.selectionKey.interestOps(tcb.selectionKey.interestOps() | SelectionKey.OP_WRITE);
+        }
+        tcb.updateReceiveWindow();
+    }
+
+    /**
+     * Writes queued device data to a remote host whose socket has room again, called when the selector
+     * reports OP_WRITE. Once the queue is empty, OP_WRITE interest is dropped.
+     *
+     * @param key The selection key of the connection's channel.
+     */
+    public void processWrite(SelectionKey key) {
+        TCB tcb = (TCB) key.attachment();
+        SendQueue sendQueue = tcb.sendQueue;
+        int halfQueue = sendQueue.getMaxBytes() / 2;
+        boolean windowWasLow = sendQueue.remainingCapacity() < halfQueue;
+        try {
+            sendQueue.writeTo(tcb.channel);
+        } catch (IOException e) {
+            Log.e(TAG, "Network write error: " + tcb, e);
+            sendRST(tcb, 0, ByteBufferPool.acquire());
+            return;
+        }
+        tcb.touch();
+        if (sendQueue.isEmpty() && tcb.closeWhenFlushed) {
+            TCB.closeTCB(tcb);
+            return;
+        }
+        if (sendQueue.isEmpty())
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        tcb.updateReceiveWindow();
+
+        if (windowWasLow && sendQueue.remainingCapacity() >= halfQueue) {
+            // The device may be waiting for room, so advertise the reopened window without waiting for data
+            sendAck(tcb, ByteBufferPool.acquire());
         }
-        outputQueue.offer(responseBuffer);
     }
 
     /**
@@ -257,19 +449,34 @@ public class TCPOutput implements Runnable {
      * @param buffer The buffer for storing the RST packet.
      */
     private void sendRST(TCB tcb, int prevPayloadSize, ByteBuffer buffer) {
-        tcb.referencePacket.updateTCPBuffer(buffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum + prevPayloadSize, 0);
+        tcb.headerTemplate.writeTcp(buffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum + prevPayloadSize, 0);
         outputQueue.offer(buffer);
         TCB.closeTCB(tcb);
     }
 
     /**
-     * Closes the connection cleanly and releases any associated resources.
+     * Closes the connection cleanly and releases any associated resources. Data from the device that is still
+     * queued was already acknowledged to it, so it is written first; if the socket cannot take all of it yet,
+     * the close waits for {@link #processWrite(SelectionKey)} to drain the queue, and only the idle timer
+     * gives up on it. The unused response buffer is left to {@link #processPacket(Packet)}, which releases it
+     * exactly once.
      *
      * @param tcb The Transmission Control Block associated with the connection.
-     * @param buffer The buffer to release back to the pool.
      */
-    private void closeCleanly(TCB tcb, ByteBuffer buffer) {
-        ByteBufferPool.release(buffer);
+    private void closeCleanly(TCB tcb) {
+        if (!tcb.sendQueue.isEmpty() && tcb.channel.isOpen() && tcb.selectionKey != null) {
+            try {
+                flush(tcb);
+            } catch (IOException e) {
+                Log.e(TAG, "Network write error while closing: " + tcb, e);
+            }
+            if (!tcb.sendQueue.isEmpty() && tcb.channel.isOpen()) {
+                // Stop relaying data to a device that is done with the connection, and wait for OP_WRITE
+                tcb.closeWhenFlushed = true;
+                tcb.selectionKey.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+        }
         TCB.closeTCB(tcb);
     }
 }
@@ -0,0 +1,133 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One thread forwarding TCP traffic. It owns a selector and a {@link TCBTable} of connections: device packets
+ * arrive through a {@link WakeupQueue} and are handled by {@link TCPOutput}, network events are handled by
+ * {@link TCPInput}, and connection timers are driven from the same loop. Because nothing else touches its
+ * connections, no locks are taken per packet and no thread sleeps waiting for work.
+ * Several reactors can run side by side as shards of a {@link TCPReactorGroup}.
+ */
+public class TCPReactor implements Runnable {
+    private static final String TAG = TCPReactor.class.getSimpleName();
+
+    private final Selector selector;
+    private final TCBTable tcbTable;
+    private final WakeupQueue<Packet> deviceToNetworkQueue;
+    private final TCPOutput tcpOutput;
+    private final TCPInput tcpInput;
+
+    /**
+     * Creates a reactor and opens its selector.
+     *
+     * @param networkToDeviceQueue The queue of packets to be written back to the device.
+     * @param vpnService The VPN service used to protect outgoing sockets.
+     * @param maxConnections The maximum number of connections this reactor will hold.
+     * @throws IOException if the selector cannot be opened.
+     */
+    public TCPReactor(ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue, VPNNetworkService vpnService,
+                      int maxConnections) throws IOException {
+        selector = Selector.open();
+        tcbTable = new TCBTable(Math.min(TCBTable.DEFAULT_INITIAL_CAPACITY, maxConnections), maxConnections);
+        deviceToNetworkQueue = new WakeupQueue<>(selector);
+        tcpOutput = new TCPOutput(networkToDeviceQueue, selector, tcbTable, vpnService);
+        tcpInput = new TCPInput(networkToDeviceQueue);
+    }
+
+    /**
+     * @return The queue that TCP packets from the device are handed to. Safe to offer to from any thread.
+     */
+    public WakeupQueue<Packet> getDeviceToNetworkQueue() {
+        return deviceToNetworkQueue;
+    }
+
+    /**
+     * @return The connections owned by this reactor. Only safe to modify from the reactor's thread.
+     */
+    public TCBTable getTCBTable() {
+        return tcbTable;
+    }
+
+    /**
+     * @return The handler for packets from the device. Only safe to use from the reactor's thread once started.
+     */
+    public TCPOutput getTCPOutput() {
+        return tcpOutput;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        ByteBufferPool.enableThreadCache();
+        TimerWheel timerWheel = tcbTable.getTimerWheel();
+        try {
+            while (!Thread.interrupted()) {
+                Packet packet;
+                while ((packet = deviceToNetworkQueue.poll()) != null) {
+                    try {
+                        tcpOutput.processPacket(packet);
+                    } catch (RuntimeException e) {
+                        // A malformed segment from one app must not stop forwarding for every other
+                        Log.w(TAG, "Dropping segment that could not be processed", e);
+                    }
+                }
+                tcpOutput.flushPendingWrites();
+
+                // Sleep until the earliest connection timer is due, or until woken if there is none
+                int readyChannels = deviceToNetworkQueue.select(timerWheel.millisUntilNextExpiry(System.nanoTime()));
+                timerWheel.advance(System.nanoTime());
+                if (readyChannels > 0) {
+                    processSelectedKeys();
+                }
+            }
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.e(TAG, e.toString(), e);
+        } finally {
+            tcbTable.closeAll();
+            // Hand the buffers of segments that were never processed back to the pool
+            Packet pending;
+            while ((pending = deviceToNetworkQueue.poll()) != null) {
+                if (pending.backingBuffer != null) {
+                    ByteBufferPool.release(pending.backingBuffer);
+                }
+            }
+            ByteBufferPool.disableThreadCache();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing selector", e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            if (!key.isValid()) {
+                keyIterator.remove();
+            } else if (key.isConnectable()) {
+                tcpInput.processConnect(key, keyIterator);
+            } else {
+                // A key can be both writable and readable; writing first frees send queue room sooner
+                if (key.isWritable()) {
+                    tcpOutput.processWrite(key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    tcpInput.processInput(key, keyIterator);
+                } else {
+                    keyIterator.remove();
+                }
+            }
+        }
+    }
+}
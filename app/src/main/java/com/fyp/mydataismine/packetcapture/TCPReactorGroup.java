@@ -0,0 +1,120 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A fixed set of {@link TCPReactor} shards that share the TCP forwarding work across cores.
+ * Each shard has its own selector, connection table, timer wheel and buffer cache. Every connection is
+ * assigned to one shard by hashing its flow key, so all of its packets, network events and timers are
+ * handled by the same thread and shards never need to coordinate.
+ */
+public class TCPReactorGroup {
+
+    public static final int MAX_SHARDS = 4;
+
+    private final TCPReactor[] reactors;
+
+    /**
+     * Creates the shards and opens their selectors. The connection limit is split evenly between them.
+     *
+     * @param shardCount The number of reactor threads.
+     * @param networkToDeviceQueue The queue of packets to be written back to the device.
+     * @param vpnService The VPN service used to protect outgoing sockets.
+     * @throws IOException if a selector cannot be opened.
+     */
+    public TCPReactorGroup(int shardCount, ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue,
+                           VPNNetworkService vpnService) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1: " + shardCount);
+        }
+        int maxConnectionsPerShard = (TCBTable.DEFAULT_MAX_CONNECTIONS + shardCount - 1) / shardCount;
+        reactors = new TCPReactor[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            reactors[shard] = new TCPReactor(networkToDeviceQueue, vpnService, maxConnectionsPerShard);
+        }
+    }
+
+    /**
+     * @return One shard per core left over after the TUN reader and UDP threads, between 1 and {@link #MAX_SHARDS}.
+     */
+    public static int defaultShardCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(MAX_SHARDS, cores - 2));
+    }
+
+    /**
+     * Configures delayed ACKs on every shard, see {@link TCPOutput#setDelayedAck(int, long)}.
+     * Must be called before {@link #start(ExecutorService)}.
+     *
+     * @param ackEverySegments The number of segments acknowledged by one ACK; 1 acknowledges every segment.
+     * @param delayMillis The longest an ACK is held back.
+     */
+    public void setDelayedAck(int ackEverySegments, long delayMillis) {
+        for (TCPReactor reactor : reactors) {
+            reactor.getTCPOutput().setDelayedAck(ackEverySegments, delayMillis);
+        }
+    }
+
+    /**
+     * Sets TCP_NODELAY for the upstream sockets of every shard, see {@link TCPOutput#setTcpNoDelay(boolean)}.
+     * Must be called before {@link #start(ExecutorService)}.
+     *
+     * @param tcpNoDelay {@code true} to disable Nagle's algorithm on the upstream sockets.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        for (TCPReactor reactor : reactors) {
+            reactor.getTCPOutput().setTcpNoDelay(tcpNoDelay);
+        }
+    }
+
+    /**
+     * Submits every shard's reactor loop to the executor.
+     *
+     * @param executor The executor to run the reactors on; it needs a thread per shard.
+     */
+    public void start(ExecutorService executor) {
+        for (TCPReactor reactor : reactors) {
+            executor.submit(reactor);
+        }
+    }
+
+    /**
+     * Hands a packet from the device to the shard that owns its connection. May be called from any thread.
+     *
+     * @param packet The TCP packet sent by the device.
+     */
+    public void dispatch(Packet packet) {
+        long flowKey = TCB.flowKey(packet.ip4Header.destinationAddress,
+                packet.tcpHeader.destinationPort, packet.tcpHeader.sourcePort);
+        reactors[shardFor(flowKey, reactors.length)].getDeviceToNetworkQueue().offer(packet);
+    }
+
+    /**
+     * @param flowKey The packed connection key.
+     * @param shardCount The number of shards.
+     * @return The index of the shard that owns the connection.
+     */
+    static int shardFor(long flowKey, int shardCount) {
+        // Finaliser from MurmurHash3, so connections to one server still spread by their local port
+        long h = flowKey;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) ((h & 0x7FFFFFFFL) % shardCount);
+    }
+
+    public int getShardCount() {
+        return reactors.length;
+    }
+
+    /**
+     * @param shard The index of the shard.
+     * @return The shard's reactor.
+     */
+    public TCPReactor getReactor(int shard) {
+        return reactors[shard];
+    }
+}
@@ -0,0 +1,247 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel for per-flow timers such as connect timeouts, idle expiry, delayed ACKs and
+ * LAST_ACK cleanup. Time is divided into ticks, and each timer is linked into the bucket for the tick it
+ * expires on; timers further away than one turn of the wheel simply stay in their bucket until their tick
+ * comes round. Scheduling and cancelling are O(1), and each {@link Timer} is an intrusive list node that a
+ * flow allocates once and reschedules for its whole lifetime, so no task object is created per timeout.
+ * <p>
+ * The wheel does not own a thread. It is driven from a selector loop, which uses
+ * {@link #millisUntilNextExpiry(long)} as its select timeout and then calls {@link #advance(long)}, so an
+ * idle loop sleeps until the next bucket holding a timer comes round, or until it is woken if no timer is
+ * scheduled.
+ * Timers may be scheduled and cancelled from any thread, but a selector already blocked only sees a new,
+ * earlier deadline once it is woken. Expired timers run on the thread calling {@link #advance(long)},
+ * outside the wheel's lock, so they may reschedule themselves.
+ */
+public class TimerWheel {
+
+    public static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * A timer that can be scheduled on a {@link TimerWheel}. It belongs to at most one bucket at a time.
+     */
+    public static class Timer {
+        private final Runnable task;
+
+        private long expiryTick;
+        private int bucket = -1;
+        private Timer previous;
+        private Timer next;
+        // Links timers that expired in the same advance, so they can run after the lock is released
+        private Timer nextExpired;
+
+        /**
+         * @param task The action to run when the timer expires.
+         */
+        public Timer(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timer[] buckets;
+    private final int mask;
+    // One bit per bucket, set while the bucket holds a timer, so the next due bucket is found a word at a time
+    private final long[] occupied;
+
+    private long currentTick;
+    private int scheduledCount;
+
+    /**
+     * Creates a timer wheel with the default tick of 100 ms and 512 buckets.
+     *
+     * @param nowNanos The current time from System.nanoTime().
+     */
+    public TimerWheel(long nowNanos) {
+        this(DEFAULT_TICK_NANOS, DEFAULT_WHEEL_SIZE, nowNanos);
+    }
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param tickNanos The resolution of the wheel; timers fire up to one tick late.
+     * @param wheelSize The number of buckets, rounded up to a power of two.
+     * @param nowNanos The current time from System.nanoTime().
+     */
+    public TimerWheel(long tickNanos, int wheelSize, long nowNanos) {
+        if (tickNanos <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = nowNanos;
+        this.buckets = new Timer[size];
+        this.mask = size - 1;
+        this.occupied = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Schedules a timer to expire at the given time, moving it if it is already scheduled.
+     * A deadline in the past expires on the next tick.
+     *
+     * @param timer The timer to schedule.
+     * @param deadlineNanos The expiry time, from System.nanoTime().
+     */
+    public synchronized void schedule(Timer timer, long deadlineNanos) {
+        if (timer.bucket >= 0) {
+            unlink(timer);
+        }
+        // Round up, so a timer never fires before its deadline
+        long tick = (deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        if (tick <= currentTick) {
+            tick = currentTick + 1;
+        }
+        timer.expiryTick = tick;
+        int bucket = (int) (tick & mask);
+        timer.bucket = bucket;
+        timer.previous = null;
+        timer.next = buckets[bucket];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        buckets[bucket] = timer;
+        occupied[bucket >>> 6] |= 1L << bucket;
+        scheduledCount++;
+    }
+
+    /**
+     * @param timer The timer to cancel.
+     * @return Whether the timer was scheduled.
+     */
+    public synchronized boolean cancel(Timer timer) {
+        if (timer.bucket < 0) {
+            return false;
+        }
+        unlink(timer);
+        return true;
+    }
+
+    /**
+     * @param timer The timer to check.
+     * @return Whether the timer is waiting to expire.
+     */
+    public synchronized boolean isScheduled(Timer timer) {
+        return timer.bucket >= 0;
+    }
+
+    /**
+     * @return The resolution of the wheel in nanoseconds.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * @return The number of timers waiting to expire.
+     */
+    public synchronized int size() {
+        return scheduledCount;
+    }
+
+    /**
+     * Moves the wheel forward to the given time and runs every timer that has expired.
+     *
+     * @param nowNanos The current time from System.nanoTime().
+     * @return The number of timers that ran.
+     */
+    public int advance(long nowNanos) {
+        Timer expired = collectExpired(nowNanos);
+        int count = 0;
+        while (expired != null) {
+            Timer timer = expired;
+            expired = timer.nextExpired;
+            timer.nextExpired = null;
+            timer.task.run();
+            count++;
+        }
+        return count;
+    }
+
+    private synchronized Timer collectExpired(long nowNanos) {
+        long targetTick = (nowNanos - startNanos) / tickNanos;
+        if (targetTick <= currentTick) {
+            return null;
+        }
+        // After a long stall every bucket is visited once, rather than once per missed tick
+        long ticks = Math.min(targetTick - currentTick, buckets.length);
+        Timer expired = null;
+        for (long i = 1; i <= ticks; i++) {
+            int bucket = (int) ((currentTick + i) & mask);
+            Timer timer = buckets[bucket];
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.expiryTick <= targetTick) {
+                    unlink(timer);
+                    timer.nextExpired = expired;
+                    expired = timer;
+                }
+                timer = next;
+            }
+        }
+        currentTick = targetTick;
+        return expired;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            buckets[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        if (buckets[timer.bucket] == null) {
+            occupied[timer.bucket >>> 6] &= ~(1L << timer.bucket);
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.bucket = -1;
+        scheduledCount--;
+    }
+
+    // The number of ticks from the current tick to the next bucket holding a timer, from 1 to the wheel size.
+    // Only called with at least one timer scheduled.
+    private int ticksToNextOccupiedBucket() {
+        int wordBits = Math.min(64, buckets.length);
+        int first = (int) ((currentTick + 1) & mask);
+        int distance = 0;
+        while (distance < buckets.length) {
+            int bucket = (first + distance) & mask;
+            long bits = occupied[bucket >>> 6] >>> bucket;
+            if (bits != 0) {
+                return distance + Long.numberOfTrailingZeros(bits) + 1;
+            }
+            distance += wordBits - (bucket & (wordBits - 1));
+        }
+        return buckets.length;
+    }
+
+    /**
+     * Finds the next occupied bucket with the occupancy bitmap, so the cost is a few word reads however many
+     * timers are scheduled. A bucket may only hold timers for later turns of the wheel, in which case the
+     * selector wakes early once per turn and finds nothing to run.
+     *
+     * @param nowNanos The current time from System.nanoTime().
+     * @return How long a selector may block before the next timer may be due, at least 1 ms; or 0, which
+     *         {@link java.nio.channels.Selector#select(long)} takes as no timeout, if no timer is scheduled.
+     */
+    public synchronized long millisUntilNextExpiry(long nowNanos) {
+        if (scheduledCount == 0) {
+            return 0;
+        }
+        long untilExpiry = startNanos + (currentTick + ticksToNextOccupiedBucket()) * tickNanos - nowNanos;
+        // Round up, so the selector does not wake just before the timer is due and go back to sleep
+        long millis = (untilExpiry + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+        return Math.max(1, millis);
+    }
+}
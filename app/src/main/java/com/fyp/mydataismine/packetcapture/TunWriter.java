@@ -0,0 +1,77 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The thread writing packets from the network to the device. It blocks on the network-to-device queue and,
+ * once woken, drains every buffer waiting in it to the VPN interface before blocking again, so packets for
+ * the device never wait behind reads from it. Runs alongside the {@link VPNRunnable} that reads the interface.
+ */
+public class TunWriter implements Runnable {
+    private static final String TAG = TunWriter.class.getSimpleName();
+
+    private final FileChannel vpnOutput;
+    private final ParkingQueue<ByteBuffer> networkToDeviceQueue;
+
+    /**
+     * @param vpnOutput The channel to write packets to the VPN interface.
+     * @param networkToDeviceQueue The queue of packets for the device; each buffer is written from the start
+     *                             up to its position, then released to the {@link ByteBufferPool}.
+     */
+    public TunWriter(FileChannel vpnOutput, ParkingQueue<ByteBuffer> networkToDeviceQueue) {
+        this.vpnOutput = vpnOutput;
+        this.networkToDeviceQueue = networkToDeviceQueue;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        try {
+            while (true) {
+                networkToDeviceQueue.awaitItems();
+                ByteBuffer bufferFromNetwork;
+                while ((bufferFromNetwork = networkToDeviceQueue.poll()) != null) {
+                    bufferFromNetwork.flip();
+                    try {
+                        writePackets(vpnOutput, bufferFromNetwork);
+                    } finally {
+                        ByteBufferPool.release(bufferFromNetwork);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.w(TAG, e.toString(), e);
+        }
+    }
+
+    /**
+     * Writes every packet in a buffer to the VPN interface. A buffer may hold several packets back to back,
+     * such as the segments of one network read, and each write to the interface must be exactly one packet.
+     *
+     * @param vpnOutput The channel to write packets to the VPN interface.
+     * @param buffer The flipped buffer holding the packets.
+     * @throws IOException If an I/O error occurs.
+     */
+    static void writePackets(FileChannel vpnOutput, ByteBuffer buffer) throws IOException {
+        int end = buffer.limit();
+        while (buffer.position() < end) {
+            int start = buffer.position();
+            int length = end - start >= Packet.IP4_HEADER_SIZE ? PacketView.packetLength(buffer, start) : -1;
+            if (length <= 0 || length > end - start) {
+                // Not a packet we can delimit, so hand the rest over as it is
+                length = end - start;
+            }
+            buffer.limit(start + length);
+            while (buffer.hasRemaining()) {
+                vpnOutput.write(buffer);
+            }
+            buffer.limit(end);
+        }
+    }
+}
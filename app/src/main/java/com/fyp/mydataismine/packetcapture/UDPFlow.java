@@ -0,0 +1,121 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of one UDP flow from the device: the protected, connected {@link DatagramChannel} its datagrams
+ * are forwarded on, and the header template for the replies sent back. A flow is keyed like a TCP connection,
+ * see {@link TCB#flowKey(int, int, int)}, and lives in the {@link UDPFlowTable} of a {@link UDPReactor} until
+ * it has been idle for too long.
+ */
+public class UDPFlow {
+    private static final String TAG = UDPFlow.class.getSimpleName();
+
+    // RFC 4787 asks NATs to keep UDP mappings for at least 2 minutes
+    static final long IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+    // DNS lookups are one exchange, and RFC 4787 allows shorter timeouts on well-known ports
+    static final long DNS_IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int DNS_PORT = 53;
+
+    public final long flowKey;
+    public final int destinationAddress;
+    public final int destinationPort;
+    public final int sourcePort;
+    public final DatagramChannel channel;
+    public final HeaderTemplate headerTemplate;
+    public SelectionKey selectionKey;
+    // Last time a datagram was seen in either direction, from System.nanoTime()
+    public long lastActivityNanos;
+
+    // The table of the reactor that owns this flow, set when the flow is added to it
+    UDPFlowTable table;
+
+    private final long idleTimeoutNanos;
+    private final TimerWheel.Timer idleTimer = new TimerWheel.Timer(new Runnable() {
+        @Override
+        public void run() {
+            onIdleTimer(System.nanoTime());
+        }
+    });
+
+    /**
+     * @param destinationAddress The remote IPv4 address as a big-endian int.
+     * @param destinationPort The remote port.
+     * @param sourcePort The local (device) port.
+     * @param channel The channel connected to the remote address and port.
+     * @param headerTemplate The template for replies to the device.
+     */
+    public UDPFlow(int destinationAddress, int destinationPort, int sourcePort,
+                   DatagramChannel channel, HeaderTemplate headerTemplate) {
+        this.flowKey = TCB.flowKey(destinationAddress, destinationPort, sourcePort);
+        this.destinationAddress = destinationAddress;
+        this.destinationPort = destinationPort;
+        this.sourcePort = sourcePort;
+        this.channel = channel;
+        this.headerTemplate = headerTemplate;
+        this.idleTimeoutNanos = destinationPort == DNS_PORT ? DNS_IDLE_TIMEOUT_NANOS : IDLE_TIMEOUT_NANOS;
+        this.lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * Records activity on the flow, restarting its idle timeout.
+     */
+    public void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * @param nowNanos The current time from System.nanoTime().
+     * @return Whether the flow has been idle for longer than its timeout.
+     */
+    public boolean isIdleExpired(long nowNanos) {
+        return nowNanos - lastActivityNanos > idleTimeoutNanos;
+    }
+
+    /**
+     * (Re)schedules the flow's idle timer. As with {@link TCB#scheduleIdleTimer()}, activity does not
+     * reschedule the timer; it checks {@link #lastActivityNanos} when it fires instead.
+     */
+    public void scheduleIdleTimer() {
+        if (table != null) {
+            table.getTimerWheel().schedule(idleTimer, lastActivityNanos + idleTimeoutNanos);
+        }
+    }
+
+    // Closes the flow if it is still idle, otherwise waits for the new deadline
+    void onIdleTimer(long nowNanos) {
+        if (table == null || table.get(flowKey) != this) {
+            return;
+        }
+        if (!isIdleExpired(nowNanos)) {
+            scheduleIdleTimer();
+            return;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Idle timeout: " + this);
+        }
+        table.close(this);
+    }
+
+    // Cancels the flow's timer and closes its channel, which also cancels its selection key
+    void release() {
+        if (table != null) {
+            table.getTimerWheel().cancel(idleTimer);
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing channel: " + this, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return IPAddressFormatter.formatIPv4(destinationAddress) + ":" + destinationPort + ":" + sourcePort;
+    }
+}
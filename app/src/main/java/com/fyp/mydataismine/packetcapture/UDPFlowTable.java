@@ -0,0 +1,122 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+/**
+ * The UDP flows owned by the {@link UDPReactor}: a {@link FlowTable} of {@link UDPFlow}s and the
+ * {@link TimerWheel} expiring them. Only touched by the reactor's thread.
+ */
+public class UDPFlowTable {
+    private static final String TAG = UDPFlowTable.class.getSimpleName();
+    public static final int DEFAULT_INITIAL_CAPACITY = 64;
+    public static final int DEFAULT_MAX_FLOWS = 1024;
+
+    private static final FlowTable.RemovalCallback<UDPFlow> RELEASE = new FlowTable.RemovalCallback<UDPFlow>() {
+        @Override
+        public void onRemoved(UDPFlow flow) {
+            flow.release();
+        }
+    };
+
+    private final FlowTable<UDPFlow> flows;
+    private final TimerWheel timerWheel = new TimerWheel(System.nanoTime());
+    private final int maxFlows;
+
+    /**
+     * Creates a table sized for the default number of flows.
+     */
+    public UDPFlowTable() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_FLOWS);
+    }
+
+    /**
+     * @param initialCapacity The number of flows to size the table for initially.
+     * @param maxFlows The maximum number of flows the table will hold.
+     */
+    public UDPFlowTable(int initialCapacity, int maxFlows) {
+        this.flows = new FlowTable<>(initialCapacity, maxFlows);
+        this.maxFlows = maxFlows;
+    }
+
+    /**
+     * @param flowKey The packed flow key, see {@link TCB#flowKey(int, int, int)}.
+     * @return The flow, or null if there is none.
+     */
+    public UDPFlow get(long flowKey) {
+        return flows.get(flowKey);
+    }
+
+    /**
+     * Adds a flow to the table and starts its idle timer. If the table is full, idle flows are expired first.
+     *
+     * @param flow The flow to add.
+     * @return {@code false} if the table is full of live flows and the flow was not added.
+     */
+    public boolean put(UDPFlow flow) {
+        if (!flows.put(flow.flowKey, flow)
+                && (expireIdle(System.nanoTime()) == 0 || !flows.put(flow.flowKey, flow))) {
+            return false;
+        }
+        flow.table = this;
+        flow.scheduleIdleTimer();
+        return true;
+    }
+
+    /**
+     * Closes a flow's channel, cancels its timer and removes it from the table.
+     *
+     * @param flow The flow to close.
+     */
+    public void close(UDPFlow flow) {
+        flow.release();
+        flows.remove(flow.flowKey);
+    }
+
+    /**
+     * Closes and removes every flow.
+     */
+    public void closeAll() {
+        flows.clear(RELEASE);
+    }
+
+    /**
+     * Closes and removes every flow that has been idle for longer than its timeout, without waiting for
+     * their idle timers. Used to make room when the table is full.
+     *
+     * @param nowNanos The current time from System.nanoTime().
+     * @return The number of flows removed.
+     */
+    public int expireIdle(final long nowNanos) {
+        int expired = flows.removeIf(new FlowTable.Filter<UDPFlow>() {
+            @Override
+            public boolean matches(UDPFlow flow) {
+                return flow.isIdleExpired(nowNanos);
+            }
+        }, RELEASE);
+        if (expired > 0) {
+            Log.d(TAG, "Expired " + expired + " idle flows; " + getStats());
+        }
+        return expired;
+    }
+
+    /**
+     * @return The timer wheel driving the idle timers of this table's flows.
+     */
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * @return The number of flows in the table.
+     */
+    public int size() {
+        return flows.size();
+    }
+
+    /**
+     * @return A one-line summary of the table's occupancy, for logging.
+     */
+    public String getStats() {
+        return size() + "/" + maxFlows + " flows";
+    }
+}
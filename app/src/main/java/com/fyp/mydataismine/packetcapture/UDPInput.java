@@ -4,82 +4,99 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.util.Iterator;
-import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.net.InetSocketAddress;
 
 /**
- * Handles the input of UDP packets, reading them from a network channel and queuing them for further processing.
+ * Handles datagrams arriving on the channels of UDP flows, wrapping them in IPv4 and UDP headers and queuing
+ * them for the device. DNS responses are also offered to the {@link DnsCache} and the {@link HostnameMap}. Runs on
+ * the {@link UDPReactor}'s thread.
  */
-public class UDPInput implements Runnable {
-    // Class fields and constructor
+public class UDPInput {
     private static final String TAG = UDPInput.class.getSimpleName();
-    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE;
-    private Selector selector;
+    private static final int HEADER_SIZE = HeaderTemplate.UDP_HEADER_SIZE;
     private ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private final DnsCache dnsCache;
+    private final HostnameMap hostnameMap;
 
-    public UDPInput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, Selector selector) {
+    /**
+     * @param outputQueue The queue to which packets for the device will be added.
+     * @param dnsCache The cache DNS responses are stored in, or null to cache nothing.
+     * @param hostnameMap The map the addresses in DNS responses are learnt into, or null to learn nothing.
+     */
+    public UDPInput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, DnsCache dnsCache, HostnameMap hostnameMap) {
         this.outputQueue = outputQueue;
-        this.selector = selector;
+        this.dnsCache = dnsCache;
+        this.hostnameMap = hostnameMap;
     }
 
     /**
-     * Runs the main loop to continuously read from the UDP channel and process incoming packets.
+     * Reads every datagram waiting on a flow's channel, so one wakeup handles a whole burst. Datagrams are read
+     * straight into pooled buffers after room for their headers, and the reply packets are built in place and
+     * queued back to back, a new buffer only being started when the current one has no room left for a
+     * full-sized packet. A read error, such as an ICMP port unreachable reported on the connected channel,
+     * closes the flow.
+     *
+     * @param key The selection key of the flow's channel.
      */
-    @Override
-    public void run() {
+    void processInput(SelectionKey key) {
+        UDPFlow flow = (UDPFlow) key.attachment();
+        ByteBuffer receiveBuffer = ByteBufferPool.acquire();
+        int offset = 0;
+        int datagrams = 0;
+        boolean dnsResponses = flow.destinationPort == DnsMessage.PORT;
         try {
-            Log.i(TAG, "Started");
-            while (!Thread.interrupted()) {
-                int readyChannels = selector.select();
-
-                if (readyChannels == 0) {
-                    Thread.sleep(10);
-                    continue;
+            while (true) {
+                if (receiveBuffer.capacity() - offset < Packet.MAX_PACKET_SIZE) {
+                    queue(receiveBuffer, offset);
+                    receiveBuffer = ByteBufferPool.acquire();
+                    offset = 0;
                 }
-
-                Set<SelectionKey> keys = selector.selectedKeys();
-                Iterator<SelectionKey> keyIterator = keys.iterator();
-
-                while (keyIterator.hasNext() && !Thread.interrupted()) {
-                    SelectionKey key = keyIterator.next();
-                    if (key.isValid() && key.isReadable()) {
-                        keyIterator.remove();
-
-                        DatagramChannel inputChannel = (DatagramChannel) key.channel();
-                        ByteBuffer receiveBuffer = ByteBuffer.allocate(Packet.MAX_PACKET_SIZE);
-
-                        try {
-                            // Read from the inputChannel into the receiveBuffer
-                            receiveBuffer.clear();
-                            InetSocketAddress senderAddress = (InetSocketAddress) inputChannel.receive(receiveBuffer);
-                            receiveBuffer.flip();
-
-                            if (senderAddress != null) {
-                                // Process the received packet
-                                Packet referencePacket = (Packet) key.attachment();
-                                referencePacket.updateUDPBuffer(receiveBuffer, receiveBuffer.remaining());
-                                receiveBuffer.position(HEADER_SIZE);
-
-                                // Offer the receiveBuffer to the outputQueue
-                                outputQueue.offer(receiveBuffer);
-                            }
-                        } catch (IOException e) {
-                            Log.e(TAG, "Error reading UDP packet", e);
-                        }
-                    }
+                receiveBuffer.limit(receiveBuffer.capacity()).position(offset + HEADER_SIZE);
+                // The channel is connected, so read() takes only the flow's datagrams without allocating an address
+                int readBytes = flow.channel.read(receiveBuffer);
+                if (readBytes <= 0) {
+                    break;
+                }
+                if (dnsResponses) {
+                    observeDns(receiveBuffer, offset + HEADER_SIZE, readBytes);
                 }
+                long payloadSum = InternetChecksum.sum(receiveBuffer, offset + HEADER_SIZE, readBytes);
+                flow.headerTemplate.writeUdp(receiveBuffer, offset, readBytes, payloadSum);
+                offset += HEADER_SIZE + readBytes;
+                datagrams++;
             }
-        } catch (InterruptedException e) {
-            Log.i(TAG, "Stopping");
         } catch (IOException e) {
-            Log.w(TAG, e.toString(), e);
+            Log.w(TAG, "Network read error, closing flow: " + flow, e);
+            if (flow.table != null) {
+                flow.table.close(flow);
+            } else {
+                flow.release();
+            }
+        }
+        if (datagrams > 0) {
+            flow.touch();
         }
+        queue(receiveBuffer, offset);
     }
-}
 
+    private void observeDns(ByteBuffer response, int offset, int length) {
+        long now = System.nanoTime();
+        if (dnsCache != null) {
+            dnsCache.put(response, offset, length, now);
+        }
+        if (hostnameMap != null) {
+            hostnameMap.observe(response, offset, length, now);
+        }
+    }
 
+    // Hands the packets built so far to the device, or the buffer back to the pool if there are none
+    private void queue(ByteBuffer buffer, int length) {
+        if (length == 0) {
+            ByteBufferPool.release(buffer);
+            return;
+        }
+        buffer.limit(buffer.capacity()).position(length);
+        outputQueue.offer(buffer);
+    }
+}
@@ -1,86 +1,178 @@
 package com.fyp.mydataismine.packetcapture;
 import android.util.Log;
 
-import java.io.FileDescriptor;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Manages the output of UDP packets, sending them through a non-blocking DatagramChannel.
+ * Forwards UDP datagrams from the device to their real destinations. Each flow gets its own protected
+ * {@link DatagramChannel}, connected to the remote host and registered with the {@link UDPReactor}'s selector,
+ * so replies come back on the channel of the flow they belong to. DNS queries that the {@link DnsCache} can
+ * answer are answered straight away instead, and the rest go through the shared {@link DnsUpstream}.
+ * Runs on the reactor's thread.
  */
-public class UDPOutput implements Runnable {
+public class UDPOutput {
     private static final String TAG = UDPOutput.class.getSimpleName();
-    private ConcurrentLinkedQueue<Packet> inputQueue;
-    private DatagramChannel outputChannel;
+
+    private static final int HEADER_SIZE = HeaderTemplate.UDP_HEADER_SIZE;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private final Selector selector;
+    private final UDPFlowTable flowTable;
+    private final DnsCache dnsCache;
+    private final DnsUpstream dnsUpstream;
+    private final VPNNetworkService vpnService;
+    private final ByteBuffer emptyPayload = ByteBuffer.allocate(0);
 
     /**
-     * Initializes the UDPOutput instance with a queue for input packets and a DatagramChannel for output.
-     * @param inputQueue The queue containing packets to be sent.
-     * @param outputChannel The DatagramChannel through which packets will be sent.
+     * @param outputQueue The queue of packets to be written to the device, which cached DNS answers go to.
+     * @param selector The reactor's selector, which new flows' channels are registered with.
+     * @param flowTable The reactor's table of flows.
+     * @param dnsCache The cache DNS queries are answered from, or null to forward every query.
+     * @param dnsUpstream The upstream DNS queries are multiplexed over, or null to give each its own flow.
+     * @param vpnService The VPN service used to protect outgoing sockets.
      */
-    public UDPOutput(ConcurrentLinkedQueue<Packet> inputQueue, DatagramChannel outputChannel) {
-        this.inputQueue = inputQueue;
-        this.outputChannel = outputChannel;
+    public UDPOutput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, Selector selector, UDPFlowTable flowTable,
+                     DnsCache dnsCache, DnsUpstream dnsUpstream, VPNNetworkService vpnService) {
+        this.outputQueue = outputQueue;
+        this.selector = selector;
+        this.flowTable = flowTable;
+        this.dnsCache = dnsCache;
+        this.dnsUpstream = dnsUpstream;
+        this.vpnService = vpnService;
     }
 
     /**
-     * Initializes a UDPOutput instance with a specified queue of packets to send and a VPN file descriptor.
-     * This constructor sets up a non-blocking DatagramChannel that sends packets to a predefined address and port.
-     * The DatagramChannel is created using the provided FileDescriptor to ensure it operates within the VPN's network interface.
+     * Sends the payload of a datagram from the device on its flow's channel, opening the flow first if needed.
+     * A datagram that cannot be sent is dropped, as the network would.
      *
-     * @param inputQueue The queue containing packets to be sent, typically coming from the VPN service.
-     * @param vpnFileDescriptor The file descriptor of the VPN's network interface, used to bind the DatagramChannel.
+     * @param currentPacket The datagram from the device. Its backing buffer is handed over with the packet and
+     *                      released to the pool once sent; the payload is only read through a
+     *                      {@link Packet#getPayloadSlice() slice} of it, which must not outlive this call.
      */
-    public UDPOutput(ConcurrentLinkedQueue<Packet> inputQueue, FileDescriptor vpnFileDescriptor) {
-        this.inputQueue = inputQueue;
+    public void processPacket(Packet currentPacket) {
+        ByteBuffer backingBuffer = currentPacket.backingBuffer;
+        ByteBuffer payload = currentPacket.getPayloadSlice();
+        currentPacket.backingBuffer = null;
         try {
-            // Create a DatagramChannel using the provided FileDescriptor
-            outputChannel = DatagramChannel.open();
-            outputChannel.connect(new InetSocketAddress("localhost", 8080));
-            outputChannel.configureBlocking(false);
-        } catch (IOException e) {
-            Log.e(TAG, "Error creating DatagramChannel", e);
+            if (currentPacket.ip4Header == null) {
+                return;
+            }
+            if (payload == null) {
+                // A datagram cut short by the read is dropped; an empty one is still sent
+                if (currentPacket.getPayloadSize() > 0) {
+                    return;
+                }
+                payload = emptyPayload;
+            }
+            int destinationAddress = currentPacket.ip4Header.destinationAddress;
+            UDPHeader udpHeader = currentPacket.udpHeader;
+            int destinationPort = udpHeader.destinationPort;
+            int sourcePort = udpHeader.sourcePort;
+
+            // Trust the UDP length over the IP length, in case the packet was padded. A UDP length beyond the
+            // payload present means a fragment or a corrupt header, never a shorter datagram, so it is dropped.
+            int payloadSize = udpHeader.length - Packet.UDP_HEADER_SIZE;
+            if (payloadSize < 0 || payloadSize > payload.remaining()) {
+                return;
+            }
+            payload.limit(payloadSize);
+
+            UDPFlow flow = flowTable.get(TCB.flowKey(destinationAddress, destinationPort, sourcePort));
+            if (destinationPort == DnsMessage.PORT) {
+                if (dnsCache != null && answerFromCache(currentPacket, flow, payload)) {
+                    return;
+                }
+                // Queries the upstream does not take, such as unusual opcodes, still get a flow of their own
+                if (dnsUpstream != null && dnsUpstream.forward(currentPacket, payload)) {
+                    return;
+                }
+            }
+            if (flow == null) {
+                flow = openFlow(destinationAddress, destinationPort, sourcePort, currentPacket);
+                if (flow == null) {
+                    return;
+                }
+            }
+            flow.touch();
+
+            try {
+                flow.channel.write(payload);
+            } catch (IOException e) {
+                Log.w(TAG, "Error sending datagram, closing flow: " + flow, e);
+                flowTable.close(flow);
+            }
+        } finally {
+            ByteBufferPool.release(backingBuffer);
         }
     }
 
     /**
-     * Main run method that continuously processes and sends packets from the input queue.
+     * Answers a DNS query from the cache, building the reply packet in a pooled buffer behind room for its
+     * headers.
+     *
+     * @return Whether the query was answered.
      */
-    @Override
-    public void run() {
-        try {
-            Log.i(TAG, "Started");
-            while (true) {
-                // Dequeue a packet from the inputQueue
-                Packet currentPacket = inputQueue.poll();
-
-                if (currentPacket != null) {
-                    // Extract the data from the packet
-                    ByteBuffer dataBuffer = currentPacket.backingBuffer;
+    private boolean answerFromCache(Packet currentPacket, UDPFlow flow, ByteBuffer query) {
+        ByteBuffer responseBuffer = ByteBufferPool.acquire();
+        int responseSize = dnsCache.answer(query, query.position(), query.remaining(),
+                responseBuffer, HEADER_SIZE, System.nanoTime());
+        if (responseSize < 0) {
+            ByteBufferPool.release(responseBuffer);
+            return false;
+        }
+        // Queries usually come from a fresh port each time, so there is rarely a flow to take the header from
+        HeaderTemplate headerTemplate = flow != null ? flow.headerTemplate
+                : HeaderTemplate.forUdpResponse(currentPacket.ip4Header, currentPacket.udpHeader);
+        headerTemplate.writeUdp(responseBuffer, 0, responseSize,
+                InternetChecksum.sum(responseBuffer, HEADER_SIZE, responseSize));
+        responseBuffer.position(HEADER_SIZE + responseSize);
+        outputQueue.offer(responseBuffer);
+        return true;
+    }
 
-                    try {
-                        // Send the data via the outputChannel
-                        while (dataBuffer.hasRemaining()) {
-                            outputChannel.write(dataBuffer);
-                        }
-                        Log.i(TAG, "Data sent successfully");
+    /**
+     * Opens, protects and connects the channel of a new flow and adds the flow to the table.
+     *
+     * @return The new flow, or null if its channel could not be opened or the table is full.
+     */
+    private UDPFlow openFlow(int destinationAddress, int destinationPort, int sourcePort, Packet currentPacket) {
+        DatagramChannel channel = null;
+        try {
+            channel = DatagramChannel.open();
+            vpnService.protect(channel.socket());
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(
+                    IPAddressFormatter.toInetAddress(destinationAddress), destinationPort));
 
-                        // Perform any necessary actions here after data is sent
-                    } catch (IOException e) {
-                        // Handle the case where data could not be sent
-                        Log.e(TAG, "Failed to send data", e);
-                    } finally {
-                        // Release the ByteBuffer to the pool
-                        ByteBufferPool.release(dataBuffer);
-                    }
+            UDPFlow flow = new UDPFlow(destinationAddress, destinationPort, sourcePort, channel,
+                    HeaderTemplate.forUdpResponse(currentPacket.ip4Header, currentPacket.udpHeader));
+            if (!flowTable.put(flow)) {
+                Log.w(TAG, "Too many UDP flows, dropping: " + flow);
+                channel.close();
+                return null;
+            }
+            flow.selectionKey = channel.register(selector, SelectionKey.OP_READ, flow);
+            return flow;
+        } catch (IOException e) {
+            Log.w(TAG, "Error opening UDP flow to " + IPAddressFormatter.formatIPv4(destinationAddress)
+                    + ":" + destinationPort, e);
+            UDPFlow flow = flowTable.get(TCB.flowKey(destinationAddress, destinationPort, sourcePort));
+            if (flow != null) {
+                flowTable.close(flow);
+            } else if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Already failing
                 }
             }
-        } catch (Exception e) {
-            Log.i(TAG, "Stopping");
+            return null;
         }
     }
 }
-
@@ -0,0 +1,148 @@
+package com.fyp.mydataismine.packetcapture;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The thread forwarding UDP traffic, built like a {@link TCPReactor}: it owns a selector and a
+ * {@link UDPFlowTable}, datagrams from the device arrive through a {@link WakeupQueue} and are sent by
+ * {@link UDPOutput}, replies are read by {@link UDPInput}, and idle flows are expired from the same loop.
+ * DNS lookups are answered from the reactor's {@link DnsCache} where possible and otherwise sent through its
+ * {@link DnsUpstream}, and the addresses in every answer are learnt into the shared {@link HostnameMap}.
+ */
+public class UDPReactor implements Runnable {
+    private static final String TAG = UDPReactor.class.getSimpleName();
+
+    private final Selector selector;
+    private final UDPFlowTable flowTable;
+    private final DnsCache dnsCache;
+    private final HostnameMap hostnameMap;
+    private final DnsUpstream dnsUpstream;
+    private final WakeupQueue<Packet> deviceToNetworkQueue;
+    private final UDPOutput udpOutput;
+    private final UDPInput udpInput;
+
+    /**
+     * Creates the reactor and opens its selector.
+     *
+     * @param networkToDeviceQueue The queue of packets to be written back to the device.
+     * @param vpnService The VPN service used to protect outgoing sockets.
+     * @throws IOException if the selector or the DNS upstream socket cannot be opened.
+     */
+    public UDPReactor(ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue, VPNNetworkService vpnService)
+            throws IOException {
+        selector = Selector.open();
+        flowTable = new UDPFlowTable();
+        dnsCache = new DnsCache();
+        hostnameMap = HostnameMap.getShared();
+        dnsUpstream = new DnsUpstream(networkToDeviceQueue, dnsCache, hostnameMap, flowTable.getTimerWheel());
+        dnsUpstream.open(selector, vpnService);
+        deviceToNetworkQueue = new WakeupQueue<>(selector);
+        udpOutput = new UDPOutput(networkToDeviceQueue, selector, flowTable, dnsCache, dnsUpstream, vpnService);
+        udpInput = new UDPInput(networkToDeviceQueue, dnsCache, hostnameMap);
+    }
+
+    /**
+     * @return The queue that UDP packets from the device are handed to. Safe to offer to from any thread.
+     */
+    public WakeupQueue<Packet> getDeviceToNetworkQueue() {
+        return deviceToNetworkQueue;
+    }
+
+    /**
+     * @return The flows owned by this reactor. Only safe to modify from the reactor's thread.
+     */
+    public UDPFlowTable getFlowTable() {
+        return flowTable;
+    }
+
+    /**
+     * @return The reactor's DNS cache. Its metrics may be read from any thread.
+     */
+    public DnsCache getDnsCache() {
+        return dnsCache;
+    }
+
+    /**
+     * @return The map the reactor learns addresses' hostnames into. Safe to look up from any thread.
+     */
+    public HostnameMap getHostnameMap() {
+        return hostnameMap;
+    }
+
+    /**
+     * @return The reactor's DNS upstream. Only safe to use from the reactor's thread once started.
+     */
+    public DnsUpstream getDnsUpstream() {
+        return dnsUpstream;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        ByteBufferPool.enableThreadCache();
+        TimerWheel timerWheel = flowTable.getTimerWheel();
+        try {
+            while (!Thread.interrupted()) {
+                Packet packet;
+                while ((packet = deviceToNetworkQueue.poll()) != null) {
+                    try {
+                        udpOutput.processPacket(packet);
+                    } catch (RuntimeException e) {
+                        // A malformed datagram from one app must not stop forwarding for every other
+                        Log.w(TAG, "Dropping datagram that could not be processed", e);
+                    }
+                }
+
+                // Sleep until the earliest flow or DNS timer is due, or until woken if there is none
+                int readyChannels = deviceToNetworkQueue.select(timerWheel.millisUntilNextExpiry(System.nanoTime()));
+                timerWheel.advance(System.nanoTime());
+                if (readyChannels > 0) {
+                    processSelectedKeys();
+                }
+            }
+            Log.i(TAG, "Stopping; DNS cache: " + dnsCache.getStats() + "; upstream: " + dnsUpstream.getStats()
+                    + "; hostnames: " + hostnameMap.getStats());
+        } catch (IOException e) {
+            Log.e(TAG, e.toString(), e);
+        } finally {
+            flowTable.closeAll();
+            dnsUpstream.close();
+            // Hand the buffers of datagrams that were never processed back to the pool
+            Packet pending;
+            while ((pending = deviceToNetworkQueue.poll()) != null) {
+                if (pending.backingBuffer != null) {
+                    ByteBufferPool.release(pending.backingBuffer);
+                }
+            }
+            ByteBufferPool.disableThreadCache();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing selector", e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            keyIterator.remove();
+            if (!key.isValid() || !key.isReadable()) {
+                continue;
+            }
+            if (key.attachment() == dnsUpstream) {
+                dnsUpstream.processInput();
+            } else {
+                udpInput.processInput(key);
+            }
+        }
+    }
+}
@@ -26,9 +26,7 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.channels.Selector;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -48,18 +46,16 @@ public class VPNNetworkService extends VpnService {
     private static final String VPN_ADDRESS = "10.0.0.2";
     private static final String VPN_ROUTE = "0.0.0.0";
     private static final int NOTIFICATION_ID = 1;
+    // Number of TCP reactor shards; each gets its own thread, selector and connection table
+    private static final int TCP_SHARD_COUNT = TCPReactorGroup.defaultShardCount();
     public static final String BROADCAST_VPN_STATE = "com.fyp.packetinterceptor.VPN_STATE";
     public static final String ACTION_START_VPN = "com.fyp.packetinterceptor.START_VPN";
     public static final String ACTION_STOP_VPN = "com.fyp.packetinterceptor.STOP_VPN";
     private static boolean isRunning = false;
     private ParcelFileDescriptor vpnInterface = null;
-    private ConcurrentLinkedQueue<Packet> deviceToNetworkUDPQueue;
-    private ConcurrentLinkedQueue<Packet> deviceToNetworkTCPQueue;
-    private ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue;
+    private ParkingQueue<ByteBuffer> networkToDeviceQueue;
     private ExecutorService executorService;
     private FileDescriptor vpnFileDescriptor;
-    private Selector udpSelector;
-    private Selector tcpSelector;
     private Thread vpnRunnableThread;
 
     /**
@@ -91,6 +87,8 @@ public class VPNNetworkService extends VpnService {
             builder.addAddress(VPN_ADDRESS, 32);
             builder.addRoute(VPN_ROUTE, 0);
             builder.addRoute("::", 0); // Capture all IPv6 traffic
+            // Reads block until the device sends a packet, so the reader thread never has to poll
+            builder.setBlocking(true);
 
             //builder.addDnsServer("8.8.8.8");
             //builder.addDnsServer("8.8.4.4");
@@ -109,20 +107,27 @@ public class VPNNetworkService extends VpnService {
 
     /**
      * Starts the VPN service, initializing the packet queues and executor service.
-     * It also starts separate threads for handling the input and output of TCP and UDP packets.
+     * It also starts the TCP reactor shards and the UDP reactor.
      */
     private void startVPN() {
         new Thread(new Runnable() {
             @Override
             public void run() {
-                deviceToNetworkUDPQueue = new ConcurrentLinkedQueue<>();
-                deviceToNetworkTCPQueue = new ConcurrentLinkedQueue<>();
-                networkToDeviceQueue = new ConcurrentLinkedQueue<>();
+                networkToDeviceQueue = new ParkingQueue<>();
+                TCPReactorGroup tcpReactors;
+                UDPReactor udpReactor;
+                try {
+                    tcpReactors = new TCPReactorGroup(TCP_SHARD_COUNT, networkToDeviceQueue, VPNNetworkService.this);
+                    udpReactor = new UDPReactor(networkToDeviceQueue, VPNNetworkService.this);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error creating reactors", e);
+                    return;
+                }
 
                 vpnRunnable = new VPNRunnable(
                         vpnFileDescriptor,
-                        deviceToNetworkUDPQueue,
-                        deviceToNetworkTCPQueue,
+                        udpReactor,
+                        tcpReactors,
                         networkToDeviceQueue,
                         VPNNetworkService.this,
                         VPNNetworkService.this
@@ -130,11 +135,9 @@ public class VPNNetworkService extends VpnService {
 
                 vpnRunnableThread = new Thread(vpnRunnable);
 
-                executorService = Executors.newFixedThreadPool(2);
-                executorService.submit(new UDPInput(networkToDeviceQueue, udpSelector));
-                //executorService.submit(new UDPOutput(deviceToNetworkUDPQueue, vpnFileDescriptor));
-                executorService.submit(new TCPInput(networkToDeviceQueue, vpnFileDescriptor));
-                //executorService.submit(new TCPOutput(deviceToNetworkTCPQueue, networkToDeviceQueue, tcpSelector, VPNNetworkService.this));
+                executorService = Executors.newFixedThreadPool(1 + tcpReactors.getShardCount());
+                executorService.submit(udpReactor);
+                tcpReactors.start(executorService);
 
                 // Start the VPN Runnable thread
                 vpnRunnableThread.start();
@@ -174,7 +177,8 @@ public class VPNNetworkService extends VpnService {
 
     /**
      * Stops the VPN service and processes the packets that were captured during the VPN session.
-     * This method may also perform cleanup and post-processing of the packets.
+     * This method may also perform cleanup and post-processing of the packets. Packets whose destination
+     * was labelled with a hostname during capture are uploaded as they are; only the rest are geolocated.
      */
     public void stopAndProcessPackets() {
 
@@ -182,6 +186,11 @@ public class VPNNetworkService extends VpnService {
             List<PacketInfo> packetStore = vpnRunnable.getPacketStore();
             for (PacketInfo packet : packetStore) {
                 Log.d(TAG, "Packet: " + packet.toString());
+                if (packet.getHostname() != null) {
+                    // Already labelled from the device's own DNS traffic; no remote lookup needed
+                    uploadPacketToFirebase(packet);
+                    continue;
+                }
                 // TODO remove this and place somewhere more appropriate
                 getGeolocationInfo(packet.getDestinationIp(), packet);
             }
@@ -322,14 +331,6 @@ public class VPNNetworkService extends VpnService {
     }
 
     private synchronized void cleanup() {
-        if (deviceToNetworkTCPQueue != null) {
-            deviceToNetworkTCPQueue.clear();
-            deviceToNetworkTCPQueue = null;
-        }
-        if (deviceToNetworkUDPQueue != null) {
-            deviceToNetworkUDPQueue.clear();
-            deviceToNetworkUDPQueue = null;
-        }
         if (networkToDeviceQueue != null) {
             networkToDeviceQueue.clear();
             networkToDeviceQueue = null;
@@ -337,6 +338,11 @@ public class VPNNetworkService extends VpnService {
         if (executorService != null) {
             executorService.shutdownNow();
         }
+        // Interrupting the reader also cuts its blocking read short and stops its writer thread
+        if (vpnRunnableThread != null) {
+            vpnRunnableThread.interrupt();
+            vpnRunnableThread = null;
+        }
 
         // Clear any custom buffer pools or caches
         ByteBufferPool.clear();
@@ -7,24 +7,16 @@ import android.util.Log;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Manages the VPN service's network traffic, capturing, processing, and routing packets.
@@ -33,12 +25,12 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  */
 public class VPNRunnable extends VpnService implements Runnable  {
     private static final String TAG = "VPNRunnable";
-    private static final int MAX_PACKET_SIZE = 1500;
     public static final String ACTION_NEW_PACKET = "com.fyp.mydataismine.NEW_PACKET";
     private FileDescriptor vpnFileDescriptor;
-    private ConcurrentLinkedQueue<Packet> deviceToNetworkUDPQueue;
-    private ConcurrentLinkedQueue<Packet> deviceToNetworkTCPQueue;
-    private ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue;
+    private UDPReactor udpReactor;
+    private HostnameMap hostnameMap;
+    private TCPReactorGroup tcpReactors;
+    private ParkingQueue<ByteBuffer> networkToDeviceQueue;
     private PacketDbHelper dbHelper;
     private Context context;
     private VPNNetworkService vpnService;
@@ -48,22 +40,23 @@ public class VPNRunnable extends VpnService implements Runnable  {
     /**
      * Constructs a VPNRunnable with the necessary network queues and file descriptor for the VPN interface.
      * @param vpnFileDescriptor The file descriptor of the VPN interface.
-     * @param deviceToNetworkUDPQueue Queue for UDP packets from the device to the network.
-     * @param deviceToNetworkTCPQueue Queue for TCP packets from the device to the network.
+     * @param udpReactor The reactor that UDP packets from the device are handed to.
+     * @param tcpReactors The reactor shards that TCP packets from the device are dispatched to.
      * @param networkToDeviceQueue Queue for packets from the network to the device.
      * @param vpnService The VPN service instance that created this runnable.
      * @param context The application context.
      */
     public VPNRunnable(FileDescriptor vpnFileDescriptor,
-                       ConcurrentLinkedQueue<Packet> deviceToNetworkUDPQueue,
-                       ConcurrentLinkedQueue<Packet> deviceToNetworkTCPQueue,
-                       ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue,
+                       UDPReactor udpReactor,
+                       TCPReactorGroup tcpReactors,
+                       ParkingQueue<ByteBuffer> networkToDeviceQueue,
                        VPNNetworkService vpnService,
                        Context context
     ) {
         this.vpnFileDescriptor = vpnFileDescriptor;
-        this.deviceToNetworkUDPQueue = deviceToNetworkUDPQueue;
-        this.deviceToNetworkTCPQueue = deviceToNetworkTCPQueue;
+        this.udpReactor = udpReactor;
+        this.hostnameMap = udpReactor.getHostnameMap();
+        this.tcpReactors = tcpReactors;
         this.networkToDeviceQueue = networkToDeviceQueue;
         this.dbHelper = new PacketDbHelper(context); // Initialize dbHelper with the context
         this.vpnService = vpnService;
@@ -76,6 +69,13 @@ public class VPNRunnable extends VpnService implements Runnable  {
 
     /**
      * The main run method that performs packet capture and processing.
+     * Packets for the device are written by a {@link TunWriter} on a thread of its own, so this thread
+     * only reads: it blocks on the VPN interface and handles each packet as soon as it arrives.
+     * Every packet is inspected through a single reusable {@link PacketView}; a full {@link Packet}
+     * is only built for the TCP and UDP packets that are handed over to the output queues.
+     * Each packet is read into a buffer from the {@link ByteBufferPool}. A queued packet takes its buffer
+     * with it, to be released by the reactor that consumes it, so the next read never overwrites a packet
+     * another thread is still working on; the buffers of packets that are not queued are reused.
      */
     @Override
     public void run() {
@@ -83,49 +83,53 @@ public class VPNRunnable extends VpnService implements Runnable  {
 
         FileChannel vpnInput = new FileInputStream(vpnFileDescriptor).getChannel();
         FileChannel vpnOutput = new FileOutputStream(vpnFileDescriptor).getChannel();
+        Thread writerThread = new Thread(new TunWriter(vpnOutput, networkToDeviceQueue), "TunWriter");
+        writerThread.start();
 
+        ByteBuffer bufferToNetwork = ByteBufferPool.acquire();
         try {
-            ByteBuffer bufferToNetwork = ByteBuffer.allocate(MAX_PACKET_SIZE);
-            boolean dataSent;
-            boolean dataReceived;
+            PacketView packetView = new PacketView();
 
             while (!Thread.interrupted()) {
                 bufferToNetwork.clear();
+                // The interface is in blocking mode, so this waits for the next packet from the device
                 int readBytes = vpnInput.read(bufferToNetwork);
 
                 if (readBytes > 0) {
-                    dataSent = true;
                     bufferToNetwork.flip();
 
-                    // Log raw packet data
-                    byte[] raw = new byte[bufferToNetwork.remaining()];
-                    bufferToNetwork.mark();  // Mark the current position
-                    bufferToNetwork.get(raw);  // Read the data into the raw array
-                    bufferToNetwork.reset(); // Reset to the marked position
-                    Log.d(TAG, "Raw packet data: " + Arrays.toString(raw));
-
-                    Packet packet = new Packet(bufferToNetwork);
+                    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                        // Log raw packet data
+                        byte[] raw = new byte[bufferToNetwork.remaining()];
+                        bufferToNetwork.duplicate().get(raw);
+                        Log.v(TAG, "Raw packet data: " + Arrays.toString(raw));
+                    }
 
-                    if (packet.getIp4Header() != null) {
+                    if (!packetView.wrap(bufferToNetwork)) {
+                        Log.w(TAG, "Unsupported IP version or unknown packet type.");
+                    } else if (packetView.isIPv4()) {
                         // IPv4 processing logic
-                        handleIPv4Packet(packet);
-                        queuePacket(packet);
-                    } else if (packet.isIPv6()) {
-                        // IPv6 processing logic
-                        handleIPv6Packet(packet);
+                        handleIPv4Packet(packetView);
+                        if (queuePacket(packetView, bufferToNetwork)) {
+                            // The buffer now belongs to the packet's consumer; read the next one into a fresh one
+                            bufferToNetwork = ByteBufferPool.acquire();
+                        }
                     } else {
-                        Log.w(TAG, "Unsupported IP version or unknown packet type.");
-                        dataSent = false;
+                        // IPv6 processing logic
+                        handleIPv6Packet(packetView);
                     }
-                } else {
-                    dataSent = false;
                 }
-
-                bufferFromNetworkOperations(vpnOutput);
             }
         } catch (IOException e) {
             Log.w(TAG, e.toString(), e);
         } finally {
+            writerThread.interrupt();
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ByteBufferPool.release(bufferToNetwork);
             closeResources(vpnInput, vpnOutput);
         }
     }
@@ -133,178 +137,157 @@ public class VPNRunnable extends VpnService implements Runnable  {
     /**
      * Processes IPv4 packets, extracting and logging information, and handling different protocols.
      *
-     * @param packet The packet to be processed.
+     * @param packet The view of the packet to be processed.
      */
-    private void handleIPv4Packet(Packet packet) {
-
-        IP4Header ip4Header = packet.getIp4Header();
-        String sourceIp = ip4Header.sourceAddress.getHostAddress();
-        String destinationIp = ip4Header.destinationAddress.getHostAddress();
-        int payloadSize = packet.calculatePayloadSize();
+    private void handleIPv4Packet(PacketView packet) {
+        int payloadSize = packet.getPayloadLength();
 
         // Log basic packet information
-        Log.d(TAG, "Received IPv4 Packet: " + packet);
-        Log.d(TAG, "Source IP: " + sourceIp + ", Destination IP: " + destinationIp + ", Payload Size: " + payloadSize);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Received IPv4 Packet: " + packet);
+            Log.d(TAG, "Source IP: " + IPAddressFormatter.formatIPv4(packet.getSourceAddress())
+                    + ", Destination IP: " + IPAddressFormatter.formatIPv4(packet.getDestinationAddress())
+                    + ", Payload Size: " + payloadSize);
+        }
 
         // Determine the protocol (TCP, UDP, etc.) and process accordingly
-        switch (ip4Header.protocol) {
-            case TCP:
-                handleTCPPacket(packet, sourceIp, destinationIp, payloadSize);
-                break;
-            case UDP:
-                handleUDPPacket(packet, sourceIp, destinationIp, payloadSize);
-                break;
-            default:
-                Log.w(TAG, "Unsupported IPv4 protocol: " + ip4Header.protocol);
-                break;
+        if (packet.isTCP()) {
+            handleTCPPacket(packet, payloadSize);
+        } else if (packet.isUDP()) {
+            handleUDPPacket(packet, payloadSize);
+        } else {
+            Log.w(TAG, "Unsupported IPv4 protocol: " + TransportProtocol.numberToEnum(packet.getProtocol()));
         }
     }
 
     /**
      * Handles TCP packets, logging details and potentially modifying or analyzing the packet.
      *
-     * @param packet The packet to handle.
-     * @param sourceIp The source IP address of the packet.
-     * @param destinationIp The destination IP address of the packet.
+     * @param packet The view of the packet to handle.
      * @param payloadSize The size of the packet's payload.
      */
-    private void handleTCPPacket(Packet packet, String sourceIp, String destinationIp, int payloadSize) {
-        TCPHeader tcpHeader = packet.getTcpHeader();
-        if (tcpHeader != null) {
-            int sourcePort = tcpHeader.sourcePort;
-            int destinationPort = tcpHeader.destinationPort;
-            Log.d(TAG, "TCP Packet: Source Port: " + sourcePort + ", Destination Port: " + destinationPort + ", Payload Size: " + payloadSize);
-
-            // TODO Additional TCP packet processing logic
-            broadcastPacketData(sourceIp, destinationIp, payloadSize, "TCP" );
-            if (payloadSize > 0) {
-                PacketInfo packetInfo = new PacketInfo(sourceIp, destinationIp, payloadSize, "TCP" );
-                packetStore.add(packetInfo);
-            }
+    private void handleTCPPacket(PacketView packet, int payloadSize) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "TCP Packet: Source Port: " + packet.getSourcePort() + ", Destination Port: "
+                    + packet.getDestinationPort() + ", Payload Size: " + payloadSize);
+        }
+
+        // TODO Additional TCP packet processing logic
+        PacketInfo packetInfo = createPacketInfo(packet, payloadSize, "TCP");
+        broadcastPacketData(packetInfo);
+        if (payloadSize > 0) {
+            packetStore.add(packetInfo);
         }
     }
 
     /**
      * Handles UDP packets, logging details and performing additional processing as needed.
      *
-     * @param packet The packet to handle.
-     * @param sourceIp The source IP address of the packet.
-     * @param destinationIp The destination IP address of the packet.
+     * @param packet The view of the packet to handle.
      * @param payloadSize The size of the packet's payload.
      */
-    private void handleUDPPacket(Packet packet, String sourceIp, String destinationIp, int payloadSize) {
-        UDPHeader udpHeader = packet.getUdpHeader();
-        if (udpHeader != null) {
-            int sourcePort = udpHeader.sourcePort;
-            int destinationPort = udpHeader.destinationPort;
-            Log.d(TAG, "UDP Packet: Source Port: " + sourcePort + ", Destination Port: " + destinationPort + ", Payload Size: " + payloadSize);
-
-            // TODO Additional UDP packet processing logic here
-            broadcastPacketData(sourceIp, destinationIp, payloadSize, "UDP" );
-            if (payloadSize > 0) {
-                PacketInfo packetInfo = new PacketInfo(sourceIp, destinationIp, payloadSize, "UDP");
-                packetStore.add(packetInfo);
-            }
+    private void handleUDPPacket(PacketView packet, int payloadSize) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "UDP Packet: Source Port: " + packet.getSourcePort() + ", Destination Port: "
+                    + packet.getDestinationPort() + ", Payload Size: " + payloadSize);
+        }
+
+        // TODO Additional UDP packet processing logic here
+        PacketInfo packetInfo = createPacketInfo(packet, payloadSize, "UDP");
+        broadcastPacketData(packetInfo);
+        if (payloadSize > 0) {
+            packetStore.add(packetInfo);
         }
     }
 
     /**
      * Processes IPv6 packets, handling different protocols and extracting relevant information.
      *
-     * @param packet The packet to be processed.
+     * @param packet The view of the packet to be processed.
      */
-    private void handleIPv6Packet(Packet packet) {
-        IP6Header ip6Header = packet.getIp6Header();
-        if (ip6Header != null) {
-            String sourceIp = ip6Header.getSourceAddress().getHostAddress();
-            String destinationIp = ip6Header.getDestinationAddress().getHostAddress();
-            int payloadLength = ip6Header.getPayloadLength();
-            int nextHeader = ip6Header.getNextHeader();
-            int hopLimit = ip6Header.getHopLimit();
-
-            Log.d(TAG, "IPv6 Packet: Source IP: " + sourceIp + ", Destination IP: " + destinationIp +
-                    ", Payload Length: " + payloadLength + ", Next Header: " + nextHeader +
-                    ", Hop Limit: " + hopLimit);
-
-            switch (nextHeader) {
-                case 6: // TCP
-                    handleTCPPacket(packet, sourceIp, destinationIp, payloadLength);
-                    break;
-                case 17: // UDP
-                    handleUDPPacket(packet, sourceIp, destinationIp, payloadLength);
-                    break;
-                case 58: // ICMPv6
-                    handleICMPv6Packet(packet, sourceIp, destinationIp, payloadLength);
-                    break;
-                default:
-                    Log.d(TAG, "Unsupported IPv6 Next Header: " + nextHeader);
-                    break;
-            }
+    private void handleIPv6Packet(PacketView packet) {
+        int payloadLength = packet.getTotalLength() - PacketView.IP6_HEADER_SIZE;
+        int nextHeader = packet.getProtocol();
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "IPv6 Packet: Source IP: "
+                    + IPAddressFormatter.formatIPv6(packet.getSourceAddressHigh(), packet.getSourceAddressLow())
+                    + ", Destination IP: "
+                    + IPAddressFormatter.formatIPv6(packet.getDestinationAddressHigh(), packet.getDestinationAddressLow())
+                    + ", Payload Length: " + payloadLength + ", Next Header: " + nextHeader
+                    + ", Hop Limit: " + packet.getHopLimit());
+        }
 
-            // TODO: IPv6 specific processing
+        if (packet.isTCP()) {
+            handleTCPPacket(packet, payloadLength);
+        } else if (packet.isUDP()) {
+            handleUDPPacket(packet, payloadLength);
+        } else if (packet.isICMPv6()) {
+            handleICMPv6Packet(packet, payloadLength);
+        } else {
+            Log.d(TAG, "Unsupported IPv6 Next Header: " + nextHeader);
         }
+
+        // TODO: IPv6 specific processing
     }
 
     /**
      * Processes ICMPv6 packets, extracting type, code, and other details for logging or analysis.
      *
-     * @param packet The packet to be processed.
-     * @param sourceIp The source IP address of the packet.
-     * @param destinationIp The destination IP address of the packet.
+     * @param packet The view of the packet to be processed.
      * @param payloadSize The size of the packet's payload.
      */
-    private void handleICMPv6Packet(Packet packet, String sourceIp, String destinationIp, int payloadSize) {
-        ICMPv6Header icmpv6Header = packet.getIcmpv6Header();
-        if (icmpv6Header != null) {
-            int type = icmpv6Header.getType();
-            int code = icmpv6Header.getCode();
-            Log.d(TAG, "ICMPv6 Packet: Type: " + type + ", Code: " + code + ", Payload Size: " + payloadSize);
-
-            // TODO: Additional ICMPv6 packet processing logic here
-            broadcastPacketData(sourceIp, destinationIp, payloadSize, "ICMP");
+    private void handleICMPv6Packet(PacketView packet, int payloadSize) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "ICMPv6 Packet: Type: " + packet.getIcmpType() + ", Code: " + packet.getIcmpCode()
+                    + ", Payload Size: " + payloadSize + ", Checksum valid: " + packet.hasValidTransportChecksum());
         }
+
+        // TODO: Additional ICMPv6 packet processing logic here
+        broadcastPacketData(createPacketInfo(packet, payloadSize, "ICMP"));
     }
 
     /**
-     * Adds a packet to the appropriate queue for network transmission based on its protocol.
+     * Creates the packet information for a captured packet, keeping its addresses in primitive form and
+     * labelling it with its destination's hostname if the device resolved it through the VPN.
      *
-     * @param packet The packet to queue.
+     * @param packet The view of the captured packet.
+     * @param payloadSize The size of the packet's payload.
+     * @param protocol The protocol of the packet.
+     * @return The packet information.
      */
-    private void queuePacket(Packet packet) {
-        if (packet.isUDP()) {
-            deviceToNetworkUDPQueue.offer(packet);
-        } else if (packet.isTCP()) {
-            deviceToNetworkTCPQueue.offer(packet);
+    private PacketInfo createPacketInfo(PacketView packet, int payloadSize, String protocol) {
+        PacketInfo packetInfo;
+        if (packet.isIPv4()) {
+            packetInfo = new PacketInfo(packet.getSourceAddress(), packet.getDestinationAddress(), payloadSize, protocol);
+            packetInfo.setHostname(hostnameMap.lookup(packet.getDestinationAddress()));
+        } else {
+            packetInfo = new PacketInfo(packet.getSourceAddressHigh(), packet.getSourceAddressLow(),
+                    packet.getDestinationAddressHigh(), packet.getDestinationAddressLow(), payloadSize, protocol);
+            packetInfo.setHostname(hostnameMap.lookup(packet.getDestinationAddressHigh(),
+                    packet.getDestinationAddressLow()));
         }
+        return packetInfo;
     }
 
     /**
-     * Manages the transfer of packets from the network to the device, writing to the VPN interface.
+     * Adds a packet to the appropriate queue for network transmission based on its protocol.
+     * This is the slow path that still needs a fully parsed {@link Packet}, so one is only built
+     * for packets that are actually queued.
      *
-     * @param vpnOutput The channel to write packets to the VPN interface.
-     * @throws IOException If an I/O error occurs.
+     * @param packetView The view of the packet to queue.
+     * @param buffer The buffer holding the packet, positioned at its first byte.
+     * @return Whether the packet was queued, in which case its consumer now owns the buffer.
      */
-    private void bufferFromNetworkOperations(FileChannel vpnOutput) throws IOException {
-        boolean dataReceived;
-        ByteBuffer bufferFromNetwork = networkToDeviceQueue.poll();
-        if (bufferFromNetwork != null) {
-            bufferFromNetwork.flip();
-            while (bufferFromNetwork.hasRemaining()) {
-                vpnOutput.write(bufferFromNetwork);
-            }
-            dataReceived = true;
-            ByteBufferPool.release(bufferFromNetwork);
-        } else {
-            dataReceived = false;
-        }
-
-        if (!dataReceived) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    private boolean queuePacket(PacketView packetView, ByteBuffer buffer) {
+        if (packetView.isUDP()) {
+            udpReactor.getDeviceToNetworkQueue().offer(new Packet(buffer));
+            return true;
+        } else if (packetView.isTCP()) {
+            tcpReactors.dispatch(new Packet(buffer));
+            return true;
         }
+        return false;
     }
 
     /**
@@ -324,71 +307,6 @@ public class VPNRunnable extends VpnService implements Runnable  {
         }
     }
 
-    /**
-     * Handles DNS packets, forwarding them to a specified DNS server and relaying responses.
-     *
-     * @param packet The DNS packet to handle.
-     * @param vpnOutput The channel to write responses to the VPN interface.
-     * @throws IOException If an I/O error occurs.
-     */
-    private void handleDnsPacket(Packet packet, FileChannel vpnOutput) throws IOException {
-        DatagramChannel dnsChannel = DatagramChannel.open();
-        try {
-            // Assuming DNS server address and port are already defined
-            InetAddress dnsServerAddress = InetAddress.getByName("8.8.8.8");
-            int dnsServerPort = 53;
-
-            // Extract the DNS query from the packet
-            ByteBuffer dnsQuery = packet.getPayload();
-
-            // Send the DNS query to the DNS server
-            dnsChannel.connect(new InetSocketAddress(dnsServerAddress, dnsServerPort));
-            dnsChannel.write(dnsQuery);
-
-            // Prepare to receive the DNS response
-            ByteBuffer dnsResponse = ByteBuffer.allocate(1024); // Allocate more if needed
-            dnsChannel.read(dnsResponse);
-
-            // Forward the DNS response back to the client through the VPN
-            dnsResponse.flip(); // Switch from reading to writing mode
-
-            // Writing the DNS response back to the VPN output, not directly to the client
-            // Need to ensure it is routed correctly, e.g., wrapped in the correct IP/UDP headers
-            vpnOutput.write(dnsResponse);
-        } finally {
-            dnsChannel.close();
-        }
-    }
-
-    /**
-     * Forwards a packet directly to the VPN interface.
-     *
-     * @param packet The packet to forward.
-     * @param vpnOutput The channel to write the packet to the VPN interface.
-     * @throws IOException If an I/O error occurs.
-     */
-    private void forwardPacket(Packet packet, FileChannel vpnOutput) throws IOException {
-        // Forward the packet to the appropriate destination
-        ByteBuffer packetBuffer = packet.getBackingBuffer();
-        vpnOutput.write(packetBuffer);
-    }
-
-    /**
-     * Logs or stores packet data for analysis or debugging purposes.
-     *
-     * @param sourceIp The source IP address of the packet.
-     * @param destinationIp The destination IP address of the packet.
-     * @param payloadSize The size of the packet's payload.
-     * @param protocol The protocol of the packet.
-     */
-    private void logOrStorePacketData(String sourceIp, String destinationIp, int payloadSize, String protocol) {
-        // Example logging implementation
-        Log.d(TAG, "Packet [Protocol: " + protocol + ", Source: " + sourceIp + ", Destination: " + destinationIp + ", Size: " + payloadSize + " bytes]");
-        // Extend this method to store the data as needed for your analysis
-
-        dbHelper.insertPacketData(sourceIp, destinationIp, payloadSize, protocol);
-    }
-
     /**
      * Sets the context for this runnable, allowing access to application-specific resources.
      *
@@ -400,55 +318,12 @@ public class VPNRunnable extends VpnService implements Runnable  {
 
     /**
      * Broadcasts packet data using a simple event bus, notifying listeners of new packets.
+     * The packet information still holds its addresses as primitives; listeners format them only if they display them.
      *
-     * @param sourceIp The source IP address of the packet.
-     * @param destinationIp The destination IP address of the packet.
-     * @param payloadSize The size of the packet's payload.
-     * @param protocol The protocol of the packet.
+     * @param packetInfo The information of the captured packet.
      */
-    private void broadcastPacketData(String sourceIp, String destinationIp, int payloadSize, String protocol) {
-        PacketInfo packetInfo = new PacketInfo(sourceIp, destinationIp, payloadSize, protocol);
-        //Log.d(TAG, "DESTINATION: " + destinationIp);
+    private void broadcastPacketData(PacketInfo packetInfo) {
         SimpleEventBus.postPacket(packetInfo);
-
-        // Call the method to get geolocation information
-        //getGeolocationInfo(destinationIp);
-    }
-
-    /**
-     * Fetches geolocation information for a given IP address using an external API.
-     *
-     * @param ip The IP address to fetch geolocation information for.
-     */
-    private void getGeolocationInfo(String ip) {
-        // Define the API endpoint URL with the IP address
-        String apiUrl = "https://api.ipgeolocation.io/ipgeo?apiKey=cb8e51e6c0f1403891496151485de117&ip=" + ip;
-
-        // Create a new thread or use an AsyncTask to make the network request
-        new Thread(() -> {
-            try {
-                URL url = new URL(apiUrl);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-
-                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                reader.close();
-
-                // Log the response or process it as needed
-                Log.d(TAG, "Geolocation info: " + response.toString());
-
-                // Here you can parse the response and extract the geolocation data
-                // and then use it as needed in your application
-
-            } catch (Exception e) {
-                Log.e(TAG, "Error fetching geolocation info", e);
-            }
-        }).start();
     }
 }
 
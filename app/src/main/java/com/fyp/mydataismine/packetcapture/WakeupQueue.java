@@ -0,0 +1,75 @@
+package com.fyp.mydataismine.packetcapture;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A queue that hands work to a thread blocked in {@link Selector#select(long)}.
+ * Producers only call {@link Selector#wakeup()} when the consumer is actually about to block, so a busy
+ * consumer is never woken once per item, and the consumer never has to poll the queue with sleeps.
+ */
+public class WakeupQueue<E> {
+
+    private final ConcurrentLinkedQueue<E> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private final Selector selector;
+
+    /**
+     * @param selector The selector the consuming thread blocks in.
+     */
+    public WakeupQueue(Selector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Adds an item, waking the consumer if it is blocked in {@link #select(long)}. May be called from any thread.
+     *
+     * @param item The item to add.
+     */
+    public void offer(E item) {
+        queue.offer(item);
+        if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return The next item, or null if the queue is empty. Only called by the consumer.
+     */
+    public E poll() {
+        return queue.poll();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+
+    /**
+     * Selects on behalf of the consumer, blocking only while the queue is empty.
+     * An item offered at any point after this is called cuts the wait short.
+     *
+     * @param timeoutMillis The longest time to block, in milliseconds, or 0 to block until woken.
+     * @return The number of keys whose ready sets were updated.
+     * @throws IOException if the selector fails.
+     */
+    public int select(long timeoutMillis) throws IOException {
+        // Announce the sleep before the final emptiness check, so a concurrent offer either is seen
+        // here or sees the flag and wakes the selector
+        sleeping.set(true);
+        if (!queue.isEmpty()) {
+            sleeping.set(false);
+            return selector.selectNow();
+        }
+        try {
+            return selector.select(timeoutMillis);
+        } finally {
+            sleeping.set(false);
+        }
+    }
+}
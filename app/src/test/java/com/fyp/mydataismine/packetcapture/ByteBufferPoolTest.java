@@ -44,4 +44,28 @@ public class ByteBufferPoolTest {
         ByteBuffer buffer2 = ByteBufferPool.acquire();
         Assert.assertTrue("Should create a new buffer after clear", buffer2 != null && buffer2 != buffer);
     }
+
+    @Test
+    public void release_ignoresBuffersThePoolDidNotCreate() {
+        ByteBuffer pooled = ByteBufferPool.acquire();
+        ByteBufferPool.release(pooled.asReadOnlyBuffer());
+        ByteBufferPool.release(ByteBuffer.allocate(1500));
+
+        ByteBuffer next = ByteBufferPool.acquire();
+        Assert.assertFalse("A read-only view must never be handed out", next.isReadOnly());
+        Assert.assertTrue(next.isDirect());
+    }
+
+    @Test
+    public void threadCache_reusesTheThreadsOwnBuffers() {
+        ByteBufferPool.enableThreadCache();
+        try {
+            ByteBuffer buffer = ByteBufferPool.acquire();
+            ByteBufferPool.release(buffer);
+            Assert.assertSame(buffer, ByteBufferPool.acquire());
+            ByteBufferPool.release(buffer);
+        } finally {
+            ByteBufferPool.disableThreadCache();
+        }
+    }
 }
@@ -0,0 +1,201 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DnsCacheTest {
+    private static final int TYPE_A = 1;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private DnsCache cache;
+    private ByteBuffer out;
+    private long now;
+
+    @Before
+    public void setUp() {
+        cache = new DnsCache(2);
+        out = ByteBuffer.allocate(4096);
+        now = System.nanoTime();
+    }
+
+    private static void putName(ByteBuffer buffer, String name) {
+        for (String label : name.split("\\.")) {
+            buffer.put((byte) label.length());
+            for (int i = 0; i < label.length(); i++) {
+                buffer.put((byte) label.charAt(i));
+            }
+        }
+        buffer.put((byte) 0);
+    }
+
+    static ByteBuffer query(int id, String name, boolean edns) {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.putShort((short) id);
+        buffer.putShort((short) 0x0100); // RD
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) (edns ? 1 : 0));
+        putName(buffer, name);
+        buffer.putShort((short) TYPE_A);
+        buffer.putShort((short) 1);
+        if (edns) {
+            buffer.put((byte) 0).putShort((short) 41).putShort((short) 1232).putInt(0).putShort((short) 0);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Builds a response with one A record per TTL, and an SOA record in the authority section if soaTtl is not
+     * negative.
+     */
+    static ByteBuffer response(int id, String name, int rcode, int soaTtl, int soaMinimum, int... answerTtls) {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        buffer.putShort((short) id);
+        buffer.putShort((short) (0x8180 | rcode)); // QR, RD, RA
+        buffer.putShort((short) 1);
+        buffer.putShort((short) answerTtls.length);
+        buffer.putShort((short) (soaTtl >= 0 ? 1 : 0));
+        buffer.putShort((short) 1);
+        putName(buffer, name);
+        buffer.putShort((short) TYPE_A);
+        buffer.putShort((short) 1);
+        for (int i = 0; i < answerTtls.length; i++) {
+            buffer.putShort((short) 0xC00C); // Pointer to the question's name
+            buffer.putShort((short) TYPE_A).putShort((short) 1).putInt(answerTtls[i]).putShort((short) 4);
+            buffer.putInt(0x5DB8D800 + i);
+        }
+        if (soaTtl >= 0) {
+            buffer.putShort((short) 0xC00C);
+            buffer.putShort((short) 6).putShort((short) 1).putInt(soaTtl).putShort((short) 22);
+            buffer.put((byte) 0).put((byte) 0); // Root primary name server and mailbox
+            buffer.putInt(1).putInt(7200).putInt(3600).putInt(1209600).putInt(soaMinimum);
+        }
+        // EDNS OPT pseudo-record, whose TTL field holds flags and must not be aged
+        buffer.put((byte) 0).putShort((short) 41).putShort((short) 1232).putInt(0x00008000).putShort((short) 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    private int answer(ByteBuffer query, long nowNanos) {
+        out.clear();
+        return cache.answer(query, 0, query.limit(), out, 0, nowNanos);
+    }
+
+    @Test
+    public void testAnswersRepeatedQueryWithItsIdAndAgedTtls() {
+        ByteBuffer response = response(0x1111, "example.com", 0, -1, 0, 300, 60);
+        assertEquals(-1, answer(query(0x1111, "example.com", true), now));
+        assertTrue(cache.put(response, 0, response.limit(), now));
+
+        int length = answer(query(0x2222, "Example.COM", true), now + 10 * SECOND);
+        assertEquals(response.limit(), length);
+        assertEquals(0x2222, DnsMessage.getId(out, 0));
+        assertEquals("The question is echoed as asked", 'E', out.get(DnsMessage.HEADER_SIZE + 1));
+
+        int firstTtlIndex = DnsMessage.HEADER_SIZE + 13 + 4 + 2 + 4;
+        assertEquals(290, out.getInt(firstTtlIndex));
+        assertEquals(50, out.getInt(firstTtlIndex + 16));
+        assertEquals("The OPT record is left alone", 0x00008000, out.getInt(length - 6));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testPositiveAnswersExpireWithTheirShortestTtl() {
+        ByteBuffer response = response(1, "example.com", 0, -1, 0, 300, 60);
+        cache.put(response, 0, response.limit(), now);
+
+        assertTrue(answer(query(2, "example.com", true), now + 59 * SECOND) > 0);
+        assertEquals(-1, answer(query(3, "example.com", true), now + 60 * SECOND));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNegativeAnswersAreCachedForTheSoaMinimum() {
+        ByteBuffer nxdomain = response(1, "nowhere.example", DnsMessage.RCODE_NXDOMAIN, 3600, 30);
+        assertTrue(cache.put(nxdomain, 0, nxdomain.limit(), now));
+
+        assertTrue(answer(query(2, "nowhere.example", true), now + 29 * SECOND) > 0);
+        assertEquals(DnsMessage.RCODE_NXDOMAIN, DnsMessage.getRcode(DnsMessage.getFlags(out, 0)));
+        assertEquals(1, cache.getNegativeHits());
+        assertEquals(-1, answer(query(3, "nowhere.example", true), now + 30 * SECOND));
+
+        ByteBuffer noSoa = response(1, "nosoa.example", DnsMessage.RCODE_NXDOMAIN, -1, 0);
+        assertFalse("Without an SOA there is no negative TTL", cache.put(noSoa, 0, noSoa.limit(), now));
+    }
+
+    @Test
+    public void testUncacheableResponsesAreIgnored() {
+        ByteBuffer servfail = response(1, "example.com", 2, -1, 0, 300);
+        assertFalse(cache.put(servfail, 0, servfail.limit(), now));
+
+        ByteBuffer truncated = response(1, "example.com", 0, -1, 0, 300);
+        truncated.putShort(2, (short) (truncated.getShort(2) | 0x0200));
+        assertFalse(cache.put(truncated, 0, truncated.limit(), now));
+
+        ByteBuffer zeroTtl = response(1, "example.com", 0, -1, 0, 0);
+        assertFalse(cache.put(zeroTtl, 0, zeroTtl.limit(), now));
+
+        ByteBuffer cut = response(1, "example.com", 0, -1, 0, 300);
+        assertFalse("Malformed responses are ignored", cache.put(cut, 0, cut.limit() - 12, now));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLargeAnswersAreNotSentToClientsWithoutEdns() {
+        int[] ttls = new int[40];
+        java.util.Arrays.fill(ttls, 300);
+        ByteBuffer response = response(1, "big.example", 0, -1, 0, ttls);
+        assertTrue(response.limit() > DnsMessage.MAX_UDP_SIZE_WITHOUT_EDNS);
+        cache.put(response, 0, response.limit(), now);
+
+        assertEquals(-1, answer(query(2, "big.example", false), now));
+        assertEquals(response.limit(), answer(query(3, "big.example", true), now));
+    }
+
+    @Test
+    public void testOptRecordsAreOnlyReplayedToClientsOfferingEdns() {
+        ByteBuffer withOpt = response(1, "example.com", 0, -1, 0, 300);
+        cache.put(withOpt, 0, withOpt.limit(), now);
+        assertEquals("RFC 6891: no OPT record for a client that sent none",
+                -1, answer(query(2, "example.com", false), now));
+        assertEquals(withOpt.limit(), answer(query(3, "example.com", true), now));
+
+        // The same answer from a server without EDNS: drop the OPT pseudo-record at the end
+        ByteBuffer withoutOpt = response(4, "example.com", 0, -1, 0, 300);
+        withoutOpt.limit(withoutOpt.limit() - 11);
+        withoutOpt.putShort(10, (short) 0);
+        cache.put(withoutOpt, 0, withoutOpt.limit(), now);
+        assertEquals(withoutOpt.limit(), answer(query(5, "example.com", false), now));
+        assertEquals(withOpt.limit(), answer(query(6, "example.com", true), now));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAnswersAreEvicted() {
+        for (String name : new String[] {"a.example", "b.example", "c.example"}) {
+            ByteBuffer response = response(1, name, 0, -1, 0, 300);
+            cache.put(response, 0, response.limit(), now);
+        }
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(-1, answer(query(2, "a.example", true), now));
+        assertTrue(answer(query(2, "c.example", true), now) > 0);
+        assertTrue(cache.getStats().startsWith("2 entries, 1/2 hits (50%)"));
+    }
+
+    @Test
+    public void testRuntQueriesAreNotAnswered() {
+        for (int length = 0; length < DnsMessage.HEADER_SIZE; length++) {
+            // Sized exactly, so reading a header field past the payload would throw
+            ByteBuffer runt = ByteBuffer.allocate(length);
+            assertEquals(-1, cache.answer(runt, 0, length, out, 0, now));
+        }
+    }
+}
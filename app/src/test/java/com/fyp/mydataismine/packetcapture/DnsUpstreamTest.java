@@ -0,0 +1,179 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class DnsUpstreamTest {
+    private static final int DEVICE_ADDRESS = 0x0A000002;
+    private static final int LOOPBACK = 0x7F000001;
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE;
+
+    private DatagramChannel primary;
+    private DatagramChannel secondary;
+    private Selector selector;
+    private TimerWheel timerWheel;
+    private DnsCache dnsCache;
+    private HostnameMap hostnameMap;
+    private ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private DnsUpstream upstream;
+
+    @Before
+    public void setUp() throws Exception {
+        primary = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        secondary = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        selector = Selector.open();
+        timerWheel = new TimerWheel(System.nanoTime());
+        dnsCache = new DnsCache();
+        hostnameMap = new HostnameMap(16);
+        outputQueue = new ConcurrentLinkedQueue<>();
+        upstream = new DnsUpstream(outputQueue, dnsCache, hostnameMap, timerWheel);
+        upstream.open(selector, mock(VPNNetworkService.class));
+        upstream.setSecondaryServer((InetSocketAddress) secondary.getLocalAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        upstream.close();
+        selector.close();
+        primary.close();
+        secondary.close();
+    }
+
+    private Packet devicePacket(int sourcePort, ByteBuffer query) throws Exception {
+        int serverPort = ((InetSocketAddress) primary.getLocalAddress()).getPort();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + query.remaining());
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) buffer.capacity()).putInt(0);
+        buffer.put((byte) 64).put((byte) 17).putShort((short) 0);
+        buffer.putInt(DEVICE_ADDRESS).putInt(LOOPBACK);
+        buffer.putShort((short) sourcePort).putShort((short) serverPort);
+        buffer.putShort((short) (Packet.UDP_HEADER_SIZE + query.remaining())).putShort((short) 0);
+        buffer.put(query.duplicate());
+        buffer.flip();
+        return new Packet(buffer);
+    }
+
+    private boolean forward(int sourcePort, ByteBuffer query) throws Exception {
+        Packet packet = devicePacket(sourcePort, query);
+        return upstream.forward(packet, packet.backingBuffer);
+    }
+
+    private ByteBuffer receive(DatagramChannel server, SocketAddress[] sender) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        server.configureBlocking(true);
+        sender[0] = server.receive(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void answer(DatagramChannel server, SocketAddress client, int id, String name) throws Exception {
+        ByteBuffer response = DnsCacheTest.response(id, name, 0, -1, 0, 300);
+        server.send(response, client);
+        assertEquals(1, selector.select(1000));
+        selector.selectedKeys().clear();
+        upstream.processInput();
+    }
+
+    private void assertAnswer(int deviceId, int devicePort) {
+        ByteBuffer packet = outputQueue.poll();
+        assertNotNull(packet);
+        packet.flip();
+        PacketView view = new PacketView();
+        assertTrue(view.wrap(packet));
+        assertTrue(view.hasValidTransportChecksum());
+        assertEquals(LOOPBACK, view.getSourceAddress());
+        assertEquals(devicePort, view.getDestinationPort());
+        assertEquals(deviceId, DnsMessage.getId(packet, HEADER_SIZE));
+    }
+
+    @Test
+    public void testForwardsUnderARewrittenIdAndRestoresIt() throws Exception {
+        assertTrue(forward(40000, DnsCacheTest.query(0x1234, "example.com", true)));
+        assertEquals(1, upstream.getPendingCount());
+
+        SocketAddress[] client = new SocketAddress[1];
+        ByteBuffer sent = receive(primary, client);
+        int upstreamId = DnsMessage.getId(sent, 0);
+        answer(primary, client[0], upstreamId, "EXAMPLE.com");
+
+        assertAnswer(0x1234, 40000);
+        assertNull(outputQueue.poll());
+        assertEquals(0, upstream.getPendingCount());
+        assertEquals(1, dnsCache.size());
+        assertEquals("example.com", hostnameMap.lookup(0x5DB8D800));
+    }
+
+    @Test
+    public void testCoalescesIdenticalQueries() throws Exception {
+        assertTrue(forward(40000, DnsCacheTest.query(1, "example.com", true)));
+        assertTrue(forward(40001, DnsCacheTest.query(2, "example.com", true)));
+        assertTrue(forward(40002, DnsCacheTest.query(3, "other.example", true)));
+        assertEquals(2, upstream.getPendingCount());
+        assertEquals(2, upstream.getForwardedCount());
+        assertEquals(1, upstream.getCoalescedCount());
+
+        SocketAddress[] client = new SocketAddress[1];
+        ByteBuffer sent = receive(primary, client);
+        assertEquals("The first query went upstream", 'e', sent.get(DnsMessage.HEADER_SIZE + 1));
+        answer(primary, client[0], DnsMessage.getId(sent, 0), "example.com");
+
+        assertAnswer(2, 40001);
+        assertAnswer(1, 40000);
+        assertEquals(1, upstream.getPendingCount());
+    }
+
+    @Test
+    public void testRetriesOnTheSecondaryServerThenGivesUp() throws Exception {
+        long start = System.nanoTime();
+        assertTrue(forward(40000, DnsCacheTest.query(7, "slow.example", true)));
+        SocketAddress[] client = new SocketAddress[1];
+        receive(primary, client);
+
+        timerWheel.advance(start + TimeUnit.SECONDS.toNanos(3));
+        ByteBuffer retried = receive(secondary, client);
+        assertEquals(1, upstream.getRetryCount());
+
+        // A late answer from the primary is no longer accepted
+        primary.send(DnsCacheTest.response(DnsMessage.getId(retried, 0), "slow.example", 0, -1, 0, 300),
+                client[0]);
+        assertEquals(1, selector.select(1000));
+        selector.selectedKeys().clear();
+        upstream.processInput();
+        assertNull(outputQueue.poll());
+
+        timerWheel.advance(start + TimeUnit.SECONDS.toNanos(6));
+        assertEquals(1, upstream.getTimeoutCount());
+        assertEquals(0, upstream.getPendingCount());
+    }
+
+    @Test
+    public void testDropsAnswersToUnknownIds() throws Exception {
+        assertTrue(forward(40000, DnsCacheTest.query(7, "example.com", true)));
+        SocketAddress[] client = new SocketAddress[1];
+        ByteBuffer sent = receive(primary, client);
+
+        answer(primary, client[0], DnsMessage.getId(sent, 0) ^ 1, "example.com");
+        assertNull(outputQueue.poll());
+        assertEquals(1, upstream.getPendingCount());
+    }
+
+    @Test
+    public void testRefusesRuntQueries() throws Exception {
+        for (int length = 0; length < DnsMessage.HEADER_SIZE; length++) {
+            assertFalse(forward(40000, ByteBuffer.allocate(length)));
+        }
+        assertEquals(0, upstream.getPendingCount());
+        assertEquals(0, upstream.getForwardedCount());
+    }
+}
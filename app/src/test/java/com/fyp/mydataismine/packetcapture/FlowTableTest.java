@@ -0,0 +1,177 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FlowTableTest {
+
+    @Test
+    public void putAndGet_ipv4Flows() {
+        FlowTable<String> table = new FlowTable<>(4, 100);
+        long first = TCB.flowKey(0xC0A80101, 443, 40000);
+        long second = TCB.flowKey(0xC0A80101, 443, 40001);
+
+        assertTrue(table.put(first, "first"));
+        assertTrue(table.put(second, "second"));
+
+        assertEquals("first", table.get(first));
+        assertEquals("second", table.get(second));
+        assertNull(table.get(TCB.flowKey(0xC0A80101, 80, 40000)));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void put_replacesExistingFlow() {
+        FlowTable<String> table = new FlowTable<>(4, 1);
+        long key = TCB.flowKey(0x08080808, 53, 5000);
+
+        assertTrue(table.put(key, "old"));
+        assertTrue("Replacing does not need a free slot", table.put(key, "new"));
+
+        assertEquals("new", table.get(key));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void ipv6Flows_doNotCollideWithIpv4Flows() {
+        FlowTable<String> table = new FlowTable<>(4, 100);
+        int ports = FlowTable.ports(443, 40000);
+
+        table.put(0L, "ipv4");
+        table.put(0L, 0L, 0, "ipv6-zero");
+        table.put(0x20010DB800000000L, 1L, ports, "ipv6");
+
+        assertEquals("ipv4", table.get(0L));
+        assertEquals("ipv6-zero", table.get(0L, 0L, 0));
+        assertEquals("ipv6", table.get(0x20010DB800000000L, 1L, ports));
+        assertNull(table.get(0x20010DB800000000L, 1L, FlowTable.ports(443, 40001)));
+    }
+
+    @Test
+    public void put_refusesNewFlowsWhenFull() {
+        FlowTable<String> table = new FlowTable<>(2, 2);
+
+        assertTrue(table.put(1L, "a"));
+        assertTrue(table.put(2L, "b"));
+        assertFalse(table.put(3L, "c"));
+
+        assertNull(table.get(3L));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void remove_keepsRemainingFlowsReachable() {
+        FlowTable<Integer> table = new FlowTable<>(8, 10000);
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(table.put(TCB.flowKey(0x0A000000 + i % 7, 443, i), i));
+        }
+        for (int i = 0; i < 2000; i += 2) {
+            assertEquals(Integer.valueOf(i), table.remove(TCB.flowKey(0x0A000000 + i % 7, 443, i)));
+        }
+
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 2000; i++) {
+            Integer value = table.get(TCB.flowKey(0x0A000000 + i % 7, 443, i));
+            if (i % 2 == 0) {
+                assertNull(value);
+            } else {
+                assertEquals(Integer.valueOf(i), value);
+            }
+        }
+        assertNull(table.remove(12345L));
+    }
+
+    @Test
+    public void clear_passesEveryFlowToCallback() {
+        FlowTable<String> table = new FlowTable<>(4, 100);
+        table.put(1L, "a");
+        table.put(2L, "b");
+        final List<String> removed = new ArrayList<>();
+
+        table.clear(new FlowTable.RemovalCallback<String>() {
+            @Override
+            public void onRemoved(String value) {
+                removed.add(value);
+            }
+        });
+
+        assertEquals(2, removed.size());
+        assertTrue(removed.contains("a") && removed.contains("b"));
+        assertEquals(0, table.size());
+        assertNull(table.get(1L));
+    }
+
+    @Test
+    public void removeIf_removesMatchingFlowsOnly() {
+        FlowTable<Integer> table = new FlowTable<>(8, 10000);
+        for (int i = 0; i < 500; i++) {
+            table.put(TCB.flowKey(0x0A000001, 80, i), i);
+        }
+        final List<Integer> removed = new ArrayList<>();
+
+        int count = table.removeIf(new FlowTable.Filter<Integer>() {
+            @Override
+            public boolean matches(Integer value) {
+                return value % 3 == 0;
+            }
+        }, new FlowTable.RemovalCallback<Integer>() {
+            @Override
+            public void onRemoved(Integer value) {
+                removed.add(value);
+            }
+        });
+
+        assertEquals(167, count);
+        assertEquals(167, removed.size());
+        assertEquals(333, table.size());
+        for (int i = 0; i < 500; i++) {
+            Integer value = table.get(TCB.flowKey(0x0A000001, 80, i));
+            assertEquals(i % 3 == 0 ? null : Integer.valueOf(i), value);
+        }
+    }
+
+    @Test
+    public void get_seesStableFlowsWhileAnotherThreadWrites() throws Exception {
+        final FlowTable<Long> table = new FlowTable<>(8, 100000);
+        for (long key = 0; key < 100; key++) {
+            table.put(key, key);
+        }
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Adding and removing other flows forces resizes and backward shifts under the reader
+                    for (long key = 1000; running.get() && key < 50000; key++) {
+                        table.put(key, key);
+                        if (key % 3 == 0) {
+                            table.remove(key - 500);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 2000; round++) {
+                for (long key = 0; key < 100; key++) {
+                    assertEquals(Long.valueOf(key), table.get(key));
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,216 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class HeaderTemplateTest {
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE;
+
+    private Packet synPacket;
+    private HeaderTemplate template;
+
+    @Before
+    public void setUp() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.put((byte) 0x45); // Version and IHL
+        buffer.put((byte) 0x00); // Type of Service
+        buffer.putShort((short) HEADER_SIZE); // Total length
+        buffer.putInt(0x4321C000); // Identification, Flags, Fragment Offset
+        buffer.put((byte) 64); // TTL
+        buffer.put((byte) 6); // Protocol (TCP)
+        buffer.putShort((short) 0); // Header checksum
+        buffer.putInt(0x0A000002); // Source IP (device)
+        buffer.putInt(0x5DB8D822); // Destination IP (remote)
+        buffer.putShort((short) 48000); // Source port
+        buffer.putShort((short) 80); // Destination port
+        buffer.putInt(0x01020304); // Sequence number
+        buffer.putInt(0); // Acknowledgment number
+        buffer.put((byte) (5 << 4)); // Data offset
+        buffer.put((byte) TCPHeader.SYN); // Flags
+        buffer.putShort((short) 29200); // Window
+        buffer.putShort((short) 0); // Checksum
+        buffer.putShort((short) 0); // Urgent pointer
+        buffer.flip();
+
+        synPacket = new Packet(buffer);
+        template = HeaderTemplate.forTcpResponse(synPacket.ip4Header, synPacket.tcpHeader);
+        synPacket.swapSourceAndDestination();
+    }
+
+    private static ByteBuffer bufferWithPayload(int payloadSize) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            buffer.put(HEADER_SIZE + i, (byte) (i * 17 + 3));
+        }
+        return buffer;
+    }
+
+    @Test
+    public void writeTcp_checksumsMatchFullRecomputation() {
+        int[] payloadSizes = {0, 1, 2, 3, 10, 1399, 1459};
+        for (int payloadSize : payloadSizes) {
+            ByteBuffer buffer = bufferWithPayload(payloadSize);
+            template.writeTcp(buffer, (byte) (TCPHeader.PSH | TCPHeader.ACK), 0xFFFFFF00L, 0x01020305L, payloadSize);
+            assertEquals(HEADER_SIZE, buffer.position());
+            short incrementalTcp = buffer.getShort(Packet.IP4_HEADER_SIZE + 16);
+            short incrementalIp = buffer.getShort(10);
+
+            buffer.position(0);
+            Packet written = new Packet(buffer);
+            written.updateTCPChecksum(payloadSize);
+            written.updateIP4Checksum();
+
+            assertEquals("TCP checksum for payload " + payloadSize,
+                    buffer.getShort(Packet.IP4_HEADER_SIZE + 16), incrementalTcp);
+            assertEquals("IP checksum for payload " + payloadSize, buffer.getShort(10), incrementalIp);
+        }
+    }
+
+    @Test
+    public void forTcpPacket_writesThePacketsOwnHeaders() {
+        int payloadSize = 10;
+        ByteBuffer expected = bufferWithPayload(payloadSize);
+        ByteBuffer actual = bufferWithPayload(payloadSize);
+
+        // synPacket was swapped in setUp, so it now holds the headers of a response
+        template.writeTcp(expected, (byte) TCPHeader.ACK, 5L, 6L, payloadSize);
+        HeaderTemplate.forTcpPacket(synPacket.ip4Header, synPacket.tcpHeader)
+                .writeTcp(actual, (byte) TCPHeader.ACK, 5L, 6L, payloadSize);
+
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            assertEquals("byte " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void writeTcp_producesValidChecksums() {
+        ByteBuffer buffer = bufferWithPayload(101);
+        long payloadSum = InternetChecksum.sum(buffer, HEADER_SIZE, 101);
+        template.writeTcp(buffer, (byte) TCPHeader.ACK, 7L, 9L, 101, payloadSum);
+
+        buffer.position(0).limit(HEADER_SIZE + 101);
+        PacketView view = new PacketView();
+        assertTrue(view.wrap(buffer));
+        assertTrue(view.hasValidTransportChecksum());
+        assertEquals(0xFFFF, InternetChecksum.fold(InternetChecksum.sum(buffer, 0, Packet.IP4_HEADER_SIZE)));
+        assertEquals(0x5DB8D822, view.getSourceAddress());
+        assertEquals(0x0A000002, view.getDestinationAddress());
+        assertEquals(80, view.getSourcePort());
+        assertEquals(48000, view.getDestinationPort());
+        assertEquals(7L, view.getSequenceNumber());
+        assertEquals(9L, view.getAcknowledgementNumber());
+    }
+
+    @Test
+    public void addresses_areSeenFromTheResponse() {
+        assertEquals(0x5DB8D822, template.getSourceAddress());
+        assertEquals(0x0A000002, template.getDestinationAddress());
+    }
+
+    @Test
+    public void writeTcp_atOffsetBuildsBackToBackSegments() {
+        int[] payloadSizes = {1460, 1460, 77};
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 * HEADER_SIZE + 3000 + 77 + HEADER_SIZE);
+        int offset = 0;
+        long sequenceNum = 1000;
+        for (int payloadSize : payloadSizes) {
+            long payloadSum = InternetChecksum.sum(buffer, offset + HEADER_SIZE, payloadSize);
+            template.writeTcp(buffer, offset, (byte) TCPHeader.ACK, sequenceNum, 9L, payloadSize, payloadSum);
+            assertEquals(offset + HEADER_SIZE, buffer.position());
+            sequenceNum += payloadSize;
+            offset += HEADER_SIZE + payloadSize;
+        }
+
+        PacketView view = new PacketView();
+        offset = 0;
+        sequenceNum = 1000;
+        for (int payloadSize : payloadSizes) {
+            assertEquals(HEADER_SIZE + payloadSize, PacketView.packetLength(buffer, offset));
+            buffer.limit(offset + HEADER_SIZE + payloadSize).position(offset);
+            assertTrue(view.wrap(buffer));
+            assertTrue(view.hasValidTransportChecksum());
+            assertEquals(sequenceNum, view.getSequenceNumber());
+            buffer.clear();
+            sequenceNum += payloadSize;
+            offset += HEADER_SIZE + payloadSize;
+        }
+    }
+
+    @Test
+    public void writeSynAck_advertisesMssAndWindowScale() {
+        int[] windowShifts = {6, -1};
+        for (int windowShift : windowShifts) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+            template.writeSynAck(buffer, 1000L, 0x01020305L, 0xFFFF, 1460, windowShift);
+            buffer.flip();
+
+            PacketView view = new PacketView();
+            assertTrue(view.wrap(buffer));
+            assertTrue(view.hasValidTransportChecksum());
+            assertEquals(1000L, view.getSequenceNumber());
+            assertEquals(0x01020305L, view.getAcknowledgementNumber());
+
+            Packet synAck = new Packet(buffer.duplicate());
+            assertEquals(windowShift >= 0 ? 48 : 44, synAck.ip4Header.totalLength);
+            assertTrue(synAck.tcpHeader.isSYN());
+            assertTrue(synAck.tcpHeader.isACK());
+            assertEquals(0xFFFF, synAck.tcpHeader.window);
+            assertEquals(1460, synAck.tcpHeader.getMaximumSegmentSize());
+            assertEquals(windowShift, synAck.tcpHeader.getWindowScale());
+            assertFalse(synAck.tcpHeader.isSackPermitted());
+        }
+    }
+
+    @Test
+    public void setWindow_changesTheWindowOfLaterResponses() {
+        template.setWindow(4096);
+        ByteBuffer buffer = bufferWithPayload(0);
+        template.writeTcp(buffer, (byte) TCPHeader.ACK, 7L, 9L, 0);
+        buffer.flip();
+
+        PacketView view = new PacketView();
+        assertTrue(view.wrap(buffer));
+        assertTrue(view.hasValidTransportChecksum());
+        assertEquals(4096, new Packet(buffer.duplicate()).tcpHeader.window);
+        assertEquals(4096, template.getWindow());
+    }
+
+    @Test
+    public void writeUdp_producesValidChecksums() {
+        ByteBuffer buffer = ByteBuffer.allocate(28);
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) 28).putInt(0x12340000);
+        buffer.put((byte) 64).put((byte) 17).putShort((short) 0);
+        buffer.putInt(0x0A000002).putInt(0x08080808);
+        buffer.putShort((short) 40000).putShort((short) 53).putShort((short) 8).putShort((short) 0);
+        buffer.flip();
+        Packet query = new Packet(buffer);
+        HeaderTemplate udpTemplate = HeaderTemplate.forUdpResponse(query.ip4Header, query.udpHeader);
+
+        int[] payloadSizes = {0, 1, 77, 1200};
+        for (int payloadSize : payloadSizes) {
+            ByteBuffer reply = ByteBuffer.allocateDirect(HeaderTemplate.UDP_HEADER_SIZE + payloadSize);
+            for (int i = 0; i < payloadSize; i++) {
+                reply.put(HeaderTemplate.UDP_HEADER_SIZE + i, (byte) (i * 31 + 5));
+            }
+            long payloadSum = InternetChecksum.sum(reply, HeaderTemplate.UDP_HEADER_SIZE, payloadSize);
+            udpTemplate.writeUdp(reply, 0, payloadSize, payloadSum);
+            assertEquals(HeaderTemplate.UDP_HEADER_SIZE, reply.position());
+
+            reply.clear();
+            PacketView view = new PacketView();
+            assertTrue(view.wrap(reply));
+            assertTrue(view.isUDP());
+            assertNotEquals("A checksum is always sent", 0, reply.getShort(26));
+            assertTrue(view.hasValidTransportChecksum());
+            assertEquals(0xFFFF, InternetChecksum.fold(InternetChecksum.sum(reply, 0, Packet.IP4_HEADER_SIZE)));
+            assertEquals(0x08080808, view.getSourceAddress());
+            assertEquals(0x0A000002, view.getDestinationAddress());
+            assertEquals(53, view.getSourcePort());
+            assertEquals(40000, view.getDestinationPort());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HostnameMapTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private HostnameMap map;
+    private long now;
+
+    @Before
+    public void setUp() {
+        map = new HostnameMap(4);
+        now = System.nanoTime();
+    }
+
+    private int observe(ByteBuffer response, long nowNanos) {
+        return map.observe(response, 0, response.limit(), nowNanos);
+    }
+
+    @Test
+    public void testLearnsAnswersUnderTheQuestionName() {
+        assertEquals(2, observe(DnsCacheTest.response(1, "WWW.Example.com", 0, -1, 0, 300, 300), now));
+
+        assertEquals("www.example.com", map.lookup(0x5DB8D800));
+        assertEquals("www.example.com", map.lookup(0x5DB8D801));
+        assertEquals("www.example.com", map.lookup("93.184.216.0"));
+        assertNull(map.lookup(0x5DB8D802));
+        assertEquals(2, map.getLearnedCount());
+    }
+
+    @Test
+    public void testLearnsIPv6AnswersAndFollowsCnames() {
+        ByteBuffer response = ByteBuffer.allocate(512);
+        response.putShort((short) 1).putShort((short) 0x8180).putShort((short) 1).putShort((short) 2)
+                .putShort((short) 0).putShort((short) 0);
+        response.put((byte) 3).put("cdn".getBytes()).put((byte) 4).put("test".getBytes()).put((byte) 0);
+        response.putShort((short) 28).putShort((short) 1);
+        // CNAME to edge.test, then the AAAA record of the alias
+        response.putShort((short) 0xC00C).putShort((short) 5).putShort((short) 1).putInt(60).putShort((short) 7);
+        int alias = response.position();
+        response.put((byte) 4).put("edge".getBytes()).putShort((short) 0xC010);
+        response.putShort((short) (0xC000 | alias)).putShort((short) 28).putShort((short) 1).putInt(60)
+                .putShort((short) 16);
+        response.putLong(0x20010DB800000000L).putLong(1);
+        response.flip();
+
+        assertEquals(1, observe(response, now));
+        assertEquals("cdn.test", map.lookup(0x20010DB800000000L, 1));
+        assertEquals("cdn.test", map.lookup("2001:db8::1"));
+    }
+
+    @Test
+    public void testEntriesOutliveShortTtlsThenExpire() {
+        long retention = HostnameMap.MIN_RETENTION_SECONDS * SECOND;
+        observe(DnsCacheTest.response(1, "example.com", 0, -1, 0, 5), now - retention + 60 * SECOND);
+        assertEquals("example.com", map.lookup(0x5DB8D800));
+
+        observe(DnsCacheTest.response(1, "example.com", 0, -1, 0, 5), now - retention - SECOND);
+        assertNull(map.lookup(0x5DB8D800));
+    }
+
+    @Test
+    public void testIgnoresFailuresAndQueries() {
+        assertEquals(0, observe(DnsCacheTest.response(1, "example.com", DnsMessage.RCODE_NXDOMAIN, 60, 60), now));
+        assertEquals(0, observe(DnsCacheTest.query(1, "example.com", true), now));
+        ByteBuffer cut = DnsCacheTest.response(1, "example.com", 0, -1, 0, 300);
+        assertEquals(0, map.observe(cut, 0, cut.limit() - 20, now));
+        assertEquals(0, map.size());
+        assertNull(map.lookup("not an address"));
+        assertNull(map.lookup("1.2.3.256"));
+    }
+
+    @Test
+    public void testFlushesWhenFullOfLiveEntries() {
+        for (String name : new String[] {"a.example", "b.example", "c.example", "d.example"}) {
+            observe(DnsCacheTest.response(1, name, 0, -1, 0, 300), now);
+        }
+        assertEquals("Every answer uses the same address", 1, map.size());
+
+        observe(DnsCacheTest.response(1, "many.example", 0, -1, 0, 300, 300, 300, 300, 300), now);
+        assertEquals(1, map.size());
+        assertEquals("many.example", map.lookup(0x5DB8D804));
+        assertTrue(map.getStats().endsWith("1 flushes"));
+    }
+}
@@ -32,8 +32,8 @@ public class IP4HeaderTest {
         Assert.assertEquals(20, header.headerLength);
         Assert.assertEquals(64, header.TTL);
         Assert.assertEquals(6, header.protocol.getNumber()); // TCP protocol
-        Assert.assertEquals("192.168.0.1", header.sourceAddress.getHostAddress());
-        Assert.assertEquals("192.168.0.2", header.destinationAddress.getHostAddress());
+        Assert.assertEquals("192.168.0.1", IPAddressFormatter.formatIPv4(header.sourceAddress));
+        Assert.assertEquals("192.168.0.2", IPAddressFormatter.formatIPv4(header.destinationAddress));
     }
 
     @Test
@@ -48,8 +48,8 @@ public class IP4HeaderTest {
         IP4Header header = new IP4Header(buffer);
         header.swapSourceAndDestination();
 
-        Assert.assertEquals("5.6.7.8", header.sourceAddress.getHostAddress());
-        Assert.assertEquals("1.2.3.4", header.destinationAddress.getHostAddress());
+        Assert.assertEquals("5.6.7.8", IPAddressFormatter.formatIPv4(header.sourceAddress));
+        Assert.assertEquals("1.2.3.4", IPAddressFormatter.formatIPv4(header.destinationAddress));
     }
 
     @Test
@@ -66,8 +66,8 @@ public class IP4HeaderTest {
         header.totalLength = 20;
         header.TTL = 64;
         header.protocol = TransportProtocol.TCP;
-        header.sourceAddress = InetAddress.getByName("1.2.3.4");
-        header.destinationAddress = InetAddress.getByName("5.6.7.8");
+        header.sourceAddress = 0x01020304; // 1.2.3.4
+        header.destinationAddress = 0x05060708; // 5.6.7.8
 
         // Create a new ByteBuffer for filling
         ByteBuffer fillBuffer = ByteBuffer.allocate(IP4Header.IP4_HEADER_SIZE);
@@ -81,8 +81,8 @@ public class IP4HeaderTest {
         Assert.assertEquals(5, parsedHeader.IHL);
         Assert.assertEquals(64, parsedHeader.TTL);
         Assert.assertEquals(TransportProtocol.TCP, parsedHeader.protocol);
-        Assert.assertEquals("1.2.3.4", parsedHeader.sourceAddress.getHostAddress());
-        Assert.assertEquals("5.6.7.8", parsedHeader.destinationAddress.getHostAddress());
+        Assert.assertEquals("1.2.3.4", IPAddressFormatter.formatIPv4(parsedHeader.sourceAddress));
+        Assert.assertEquals("5.6.7.8", IPAddressFormatter.formatIPv4(parsedHeader.destinationAddress));
     }
 
 }
@@ -0,0 +1,48 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class IPAddressFormatterTest {
+
+    @Test
+    public void formatIPv4_producesDottedDecimal() {
+        assertEquals("192.168.0.1", IPAddressFormatter.formatIPv4(0xC0A80001));
+        assertEquals("0.0.0.0", IPAddressFormatter.formatIPv4(0));
+        assertEquals("255.255.255.255", IPAddressFormatter.formatIPv4(0xFFFFFFFF));
+    }
+
+    @Test
+    public void formatIPv4_returnsCachedInstanceForRepeatedAddress() {
+        String first = IPAddressFormatter.formatIPv4(0x08080808);
+        String second = IPAddressFormatter.formatIPv4(0x08080808);
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void formatIPv6_matchesInetAddressFormatting() throws Exception {
+        long high = 0x20010DB800000000L;
+        long low = 0x0000000000000001L;
+        String expected = InetAddress.getByName("2001:db8::1").getHostAddress();
+
+        assertEquals(expected, IPAddressFormatter.formatIPv6(high, low));
+    }
+
+    @Test
+    public void toInetAddress_roundTripsIPv4() {
+        InetAddress address = IPAddressFormatter.toInetAddress(0x01020304);
+
+        assertEquals("1.2.3.4", address.getHostAddress());
+    }
+
+    @Test
+    public void toInetAddress_roundTripsIPv6() {
+        InetAddress address = IPAddressFormatter.toInetAddress(0xFE80000000000000L, 0x0000000000000ABCL);
+
+        assertEquals(IPAddressFormatter.formatIPv6(0xFE80000000000000L, 0x0000000000000ABCL), address.getHostAddress());
+    }
+}
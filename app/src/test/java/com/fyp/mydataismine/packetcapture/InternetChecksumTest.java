@@ -0,0 +1,117 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class InternetChecksumTest {
+
+    // The one-word-at-a-time loop the wide sum replaces
+    private static int referenceSum(ByteBuffer buffer, int offset, int length) {
+        int sum = 0;
+        int index = offset;
+        for (; length > 1; length -= 2, index += 2) {
+            sum += BitUtils.getUnsignedShort(buffer.getShort(index));
+        }
+        if (length > 0) {
+            sum += BitUtils.getUnsignedByte(buffer.get(index)) << 8;
+        }
+        while (sum >> 16 > 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
+        return sum;
+    }
+
+    private static ByteBuffer randomBuffer(boolean direct, int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        buffer.put(data);
+        buffer.clear();
+        return buffer;
+    }
+
+    @Test
+    public void sum_matchesReferenceForAllLengthsAndOffsets() {
+        ByteBuffer direct = randomBuffer(true, 256, 1);
+        ByteBuffer heap = randomBuffer(false, 256, 1);
+
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length <= 200; length++) {
+                int expected = referenceSum(heap, offset, length);
+                assertEquals("direct offset " + offset + " length " + length,
+                        expected, InternetChecksum.fold(InternetChecksum.sum(direct, offset, length)));
+                assertEquals("heap offset " + offset + " length " + length,
+                        expected, InternetChecksum.fold(InternetChecksum.sum(heap, offset, length)));
+            }
+        }
+    }
+
+    @Test
+    public void sum_handlesEndAroundCarry() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0xFF);
+        }
+        buffer.put(4095, (byte) 0xFE);
+
+        assertEquals(referenceSum(buffer, 0, 4096), InternetChecksum.fold(InternetChecksum.sum(buffer, 0, 4096)));
+    }
+
+    @Test
+    public void sum_ignoresBufferByteOrder() {
+        ByteBuffer bigEndian = randomBuffer(true, 101, 7);
+        ByteBuffer littleEndian = randomBuffer(true, 101, 7).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(InternetChecksum.fold(InternetChecksum.sum(bigEndian, 3, 97)),
+                InternetChecksum.fold(InternetChecksum.sum(littleEndian, 3, 97)));
+    }
+
+    @Test
+    public void sum_doesNotMoveBufferPosition() {
+        ByteBuffer buffer = randomBuffer(true, 64, 3);
+        buffer.position(5).limit(60);
+
+        InternetChecksum.sum(buffer, 7, 33);
+
+        assertEquals(5, buffer.position());
+        assertEquals(60, buffer.limit());
+    }
+
+    @Test
+    public void combine_swapsPartialSumsAtOddOffsets() {
+        ByteBuffer buffer = randomBuffer(false, 120, 11);
+        int expected = referenceSum(buffer, 0, 120);
+
+        for (int split = 0; split <= 120; split++) {
+            long sum = InternetChecksum.sum(buffer, 0, split);
+            sum = InternetChecksum.combine(sum, InternetChecksum.sum(buffer, split, 120 - split), split);
+            assertEquals("split " + split, expected, InternetChecksum.fold(sum));
+        }
+    }
+
+    @Test
+    public void pseudoHeaderSum_matchesSerialisedPseudoHeader() {
+        ByteBuffer ipv4 = ByteBuffer.allocate(12);
+        ipv4.putInt(0xC0A80001).putInt(0x08080808).put((byte) 0).put((byte) 6).putShort((short) 1460);
+        assertEquals(referenceSum(ipv4, 0, 12),
+                InternetChecksum.fold(InternetChecksum.pseudoHeaderSum(0xC0A80001, 0x08080808, 6, 1460)));
+
+        ByteBuffer ipv6 = ByteBuffer.allocate(40);
+        ipv6.putLong(0x20010DB800000000L).putLong(1L).putLong(0xFE80000000000000L).putLong(0xFFFFFFFFFFFFFFFFL);
+        ipv6.putInt(72).putInt(58);
+        assertEquals(referenceSum(ipv6, 0, 40), InternetChecksum.fold(InternetChecksum.pseudoHeaderSum(
+                0x20010DB800000000L, 1L, 0xFE80000000000000L, 0xFFFFFFFFFFFFFFFFL, 58, 72)));
+    }
+
+    @Test
+    public void finish_complementsFoldedSum() {
+        assertEquals(0xFFFF, InternetChecksum.fold(0x1FFFEL));
+        assertEquals(0x0000, InternetChecksum.finish(0xFFFFL));
+        assertEquals(0xFFFF, InternetChecksum.finish(0L));
+    }
+}
@@ -231,8 +231,8 @@ public class PacketTest {
         Packet swappedPacket = originalPacket.swapSourceAndDestination();
 
         // Verify that the source and destination addresses and ports have been swapped
-        assertEquals("Source IP should be swapped", destinationIp, ByteBuffer.wrap(swappedPacket.getIp4Header().sourceAddress.getAddress()).getInt() & 0xFFFFFFFF);
-        assertEquals("Destination IP should be swapped", sourceIp, ByteBuffer.wrap(swappedPacket.getIp4Header().destinationAddress.getAddress()).getInt() & 0xFFFFFFFF);
+        assertEquals("Source IP should be swapped", destinationIp, swappedPacket.getIp4Header().sourceAddress);
+        assertEquals("Destination IP should be swapped", sourceIp, swappedPacket.getIp4Header().destinationAddress);
 
         assertEquals("Source port should be swapped", destinationPort, swappedPacket.getTcpHeader().sourcePort);
         assertEquals("Destination port should be swapped", sourcePort, swappedPacket.getTcpHeader().destinationPort);
@@ -288,4 +288,163 @@ public class PacketTest {
 
 
 
+
+    private ByteBuffer tcpSynBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE);
+        buffer.put((byte) 0x45); // Version and IHL
+        buffer.put((byte) 0x00); // Type of Service
+        buffer.putShort((short) (Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE)); // Total length
+        buffer.putInt(0x1234C000); // Identification, Flags, Fragment Offset
+        buffer.put((byte) 64); // TTL
+        buffer.put((byte) 6); // Protocol (TCP)
+        buffer.putShort((short) 0); // Header checksum
+        buffer.putInt(0x0A000002); // Source IP
+        buffer.putInt(0xC0A8FE10); // Destination IP
+        buffer.putShort((short) 51234); // Source port
+        buffer.putShort((short) 443); // Destination port
+        buffer.putInt(0x89ABCDEF); // Sequence number
+        buffer.putInt(0); // Acknowledgment number
+        buffer.put((byte) (5 << 4)); // Data offset
+        buffer.put((byte) TCPHeader.SYN); // Flags
+        buffer.putShort((short) 0xFFF0); // Window
+        buffer.putShort((short) 0); // Checksum
+        buffer.putShort((short) 0); // Urgent pointer
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer responseBuffer(int payloadLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE + payloadLength);
+        for (int i = 0; i < payloadLength; i++) {
+            buffer.put(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE + i, (byte) (i * 31 + 7));
+        }
+        return buffer;
+    }
+
+    @Test
+    public void testIncrementalChecksumsMatchFullRecomputation() {
+        int[] payloadLengths = {0, 1, 2, 3, 5, 1399, 1400};
+        for (int payloadLength : payloadLengths) {
+            Packet packet = new Packet(tcpSynBuffer());
+            packet.swapSourceAndDestination();
+
+            ByteBuffer response = responseBuffer(payloadLength);
+            packet.updateTCPBuffer(response, (byte) (TCPHeader.PSH | TCPHeader.ACK),
+                    0xFFFFFFF0L, 0x89ABCDF0L, payloadLength);
+            short incrementalTcp = response.getShort(IP4_HEADER_SIZE + 16);
+            short incrementalIp = response.getShort(10);
+
+            packet.updateTCPChecksum(payloadLength);
+            packet.updateIP4Checksum();
+
+            assertEquals("TCP checksum for payload " + payloadLength,
+                    response.getShort(IP4_HEADER_SIZE + 16), incrementalTcp);
+            assertEquals("IP checksum for payload " + payloadLength, response.getShort(10), incrementalIp);
+        }
+    }
+
+    @Test
+    public void testPrecomputedPayloadSumMatchesInternalSum() {
+        int payloadLength = 777;
+        ByteBuffer first = responseBuffer(payloadLength);
+        ByteBuffer second = responseBuffer(payloadLength);
+        Packet packet = new Packet(tcpSynBuffer());
+        packet.swapSourceAndDestination();
+
+        packet.updateTCPBuffer(first, (byte) TCPHeader.ACK, 1000L, 2000L, payloadLength);
+        long payloadSum = InternetChecksum.sum(second, Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE, payloadLength);
+        packet.updateTCPBuffer(second, (byte) TCPHeader.ACK, 1000L, 2000L, payloadLength, payloadSum);
+
+        assertEquals(first.getShort(IP4_HEADER_SIZE + 16), second.getShort(IP4_HEADER_SIZE + 16));
+        assertEquals(first.getShort(10), second.getShort(10));
+    }
+
+    @Test
+    public void testUpdatedBuffersCarryValidChecksums() {
+        Packet tcpPacket = new Packet(tcpSynBuffer());
+        tcpPacket.swapSourceAndDestination();
+        ByteBuffer tcpResponse = responseBuffer(333);
+        tcpPacket.updateTCPBuffer(tcpResponse, (byte) TCPHeader.ACK, 42L, 4242L, 333);
+
+        PacketView view = new PacketView();
+        tcpResponse.position(0).limit(tcpPacket.ip4Header.totalLength);
+        assertTrue(view.wrap(tcpResponse));
+        assertTrue(view.hasValidTransportChecksum());
+
+        int payloadSize = 57;
+        ByteBuffer udpBuffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE + payloadSize);
+        udpBuffer.put((byte) 0x45);
+        udpBuffer.put((byte) 0x00);
+        udpBuffer.putShort((short) udpBuffer.capacity());
+        udpBuffer.putInt(0);
+        udpBuffer.put((byte) 0x40);
+        udpBuffer.put((byte) 0x11);
+        udpBuffer.putShort((short) 0);
+        udpBuffer.putInt(0xC0A80001);
+        udpBuffer.putInt(0x08080808);
+        udpBuffer.putShort((short) 5353);
+        udpBuffer.putShort((short) 53);
+        udpBuffer.putShort((short) (Packet.UDP_HEADER_SIZE + payloadSize));
+        udpBuffer.putShort((short) 0);
+        for (int i = 0; i < payloadSize; i++) {
+            udpBuffer.put((byte) (i * 13));
+        }
+        udpBuffer.flip();
+        Packet udpPacket = new Packet(udpBuffer);
+        udpPacket.swapSourceAndDestination();
+
+        ByteBuffer udpResponse = ByteBuffer.allocate(udpBuffer.capacity());
+        for (int i = 0; i < payloadSize; i++) {
+            udpResponse.put(Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE + i, (byte) (i * 7 + 1));
+        }
+        udpPacket.updateUDPBuffer(udpResponse, payloadSize);
+
+        udpResponse.position(0).limit(udpResponse.capacity());
+        assertTrue(view.wrap(udpResponse));
+        assertNotEquals(0, udpResponse.getShort(Packet.IP4_HEADER_SIZE + 6));
+        assertTrue(view.hasValidTransportChecksum());
+        assertEquals(0xFFFF, InternetChecksum.fold(InternetChecksum.sum(udpResponse, 0, Packet.IP4_HEADER_SIZE)));
+    }
+
+    @Test
+    public void testPayloadSliceDoesNotCopyOrMoveBackingBuffer() {
+        byte[] payload = {0x68, 0x65, 0x6C, 0x6C, 0x6F}; // "hello" in ASCII
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + payload.length);
+        initializeIPv4Buffer(buffer, payload);
+        Packet packet = new Packet(buffer);
+        ByteBuffer backingBuffer = packet.getBackingBuffer();
+        int position = backingBuffer.position();
+        int limit = backingBuffer.limit();
+
+        ByteBuffer slice = packet.getPayloadSlice();
+
+        assertEquals(5, slice.remaining());
+        assertEquals(5, packet.getPayloadSize());
+        assertEquals(0x68, slice.get(0));
+        assertTrue(slice.isReadOnly());
+        assertEquals(position, backingBuffer.position());
+        assertEquals(limit, backingBuffer.limit());
+
+        // The slice is a view, so it sees later writes to the underlying buffer
+        buffer.put(Packet.IP4_HEADER_SIZE, (byte) 0x48);
+        assertEquals(0x48, slice.get(0));
+        assertEquals("A copy is unaffected", 0x48, packet.getPayload().get(0));
+    }
+
+    @Test
+    public void testTakesOwnershipOfItsBufferWithoutCopying() {
+        ByteBufferPool.clear();
+        ByteBuffer pooled = ByteBufferPool.acquire();
+        pooled.put(tcpSynBuffer());
+        pooled.flip();
+
+        Packet packet = new Packet(pooled);
+        assertSame(pooled, packet.getBackingBuffer());
+        assertEquals(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE, pooled.position());
+        assertSame("Swapping hands the buffer over", pooled, packet.swapSourceAndDestination().getBackingBuffer());
+
+        // The consumer releases the packet's buffer, and it is reused for a later read
+        ByteBufferPool.release(packet.getBackingBuffer());
+        assertSame(pooled, ByteBufferPool.acquire());
+    }
 }
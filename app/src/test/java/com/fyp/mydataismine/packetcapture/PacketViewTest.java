@@ -0,0 +1,178 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PacketViewTest {
+    private PacketView view;
+
+    @Before
+    public void setUp() {
+        view = new PacketView();
+    }
+
+    private ByteBuffer buildIPv4TcpPacket(byte[] payload) {
+        int totalLength = Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE + payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+
+        buffer.put((byte) 0x45); // Version (4) and IHL (5)
+        buffer.put((byte) 0x00); // Type of Service
+        buffer.putShort((short) totalLength); // Total Length
+        buffer.putInt(0); // ID, Flags, Fragment Offset
+        buffer.put((byte) 0x40); // TTL
+        buffer.put((byte) 0x06); // Protocol (TCP)
+        buffer.putShort((short) 0); // Header checksum
+        buffer.putInt(0xC0A80001); // Source address
+        buffer.putInt(0x08080808); // Destination address
+
+        buffer.putShort((short) 40000); // Source port
+        buffer.putShort((short) 443); // Destination port
+        buffer.putInt(0xFFFFFFF0); // Sequence number
+        buffer.putInt(2000); // Acknowledgment number
+        buffer.put((byte) (5 << 4)); // Data offset
+        buffer.put((byte) (TCPHeader.PSH | TCPHeader.ACK)); // Flags
+        buffer.putShort((short) 65535); // Window size
+        buffer.putShort((short) 0); // Checksum
+        buffer.putShort((short) 0); // Urgent pointer
+
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer buildIPv6UdpPacket(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(PacketView.IP6_HEADER_SIZE + Packet.UDP_HEADER_SIZE + payload.length);
+        buffer.putInt(0x60000000); // Version, traffic class, flow label
+        buffer.putShort((short) (Packet.UDP_HEADER_SIZE + payload.length)); // Payload length
+        buffer.put((byte) 17); // Next header (UDP)
+        buffer.put((byte) 64); // Hop limit
+        buffer.putLong(0x20010DB800000000L); // Source address
+        buffer.putLong(1L);
+        buffer.putLong(0x2001486048600000L); // Destination address
+        buffer.putLong(0x8888L);
+
+        buffer.putShort((short) 5353); // Source port
+        buffer.putShort((short) 53); // Destination port
+        buffer.putShort((short) (Packet.UDP_HEADER_SIZE + payload.length)); // Length
+        buffer.putShort((short) 0); // Checksum
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void wrap_decodesIPv4TcpFields() {
+        ByteBuffer buffer = buildIPv4TcpPacket(new byte[]{1, 2, 3, 4, 5});
+
+        assertTrue(view.wrap(buffer));
+        assertTrue(view.isIPv4());
+        assertTrue(view.isTCP());
+        assertFalse(view.isUDP());
+        assertEquals(0xC0A80001, view.getSourceAddress());
+        assertEquals(0x08080808, view.getDestinationAddress());
+        assertEquals(40000, view.getSourcePort());
+        assertEquals(443, view.getDestinationPort());
+        assertEquals(0xFFFFFFF0L, view.getSequenceNumber());
+        assertEquals(2000L, view.getAcknowledgementNumber());
+        assertTrue(view.hasTcpFlag(TCPHeader.ACK));
+        assertFalse(view.hasTcpFlag(TCPHeader.SYN));
+        assertEquals(65535, view.getWindow());
+        assertEquals(64, view.getHopLimit());
+        assertEquals(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE, view.getPayloadOffset());
+        assertEquals(5, view.getPayloadLength());
+    }
+
+    @Test
+    public void wrap_decodesIPv6UdpFields() {
+        ByteBuffer buffer = buildIPv6UdpPacket(new byte[12]);
+
+        assertTrue(view.wrap(buffer));
+        assertTrue(view.isIPv6());
+        assertTrue(view.isUDP());
+        assertEquals(0x20010DB800000000L, view.getSourceAddressHigh());
+        assertEquals(1L, view.getSourceAddressLow());
+        assertEquals(0x2001486048600000L, view.getDestinationAddressHigh());
+        assertEquals(0x8888L, view.getDestinationAddressLow());
+        assertEquals(53, view.getDestinationPort());
+        assertEquals(12, view.getPayloadLength());
+    }
+
+    @Test
+    public void wrap_matchesPacketParsing() {
+        ByteBuffer buffer = buildIPv4TcpPacket(new byte[20]);
+        Packet packet = new Packet(buffer.duplicate());
+
+        assertTrue(view.wrap(buffer));
+        assertEquals(packet.tcpHeader.sourcePort, view.getSourcePort());
+        assertEquals(packet.tcpHeader.destinationPort, view.getDestinationPort());
+        assertEquals(packet.tcpHeader.sequenceNumber, view.getSequenceNumber());
+        assertEquals(packet.calculatePayloadSize(), view.getPayloadLength());
+    }
+
+    @Test
+    public void wrap_doesNotMoveBufferPosition() {
+        ByteBuffer buffer = buildIPv4TcpPacket(new byte[8]);
+        int position = buffer.position();
+        int limit = buffer.limit();
+
+        view.wrap(buffer);
+        view.getSourcePort();
+        view.getPayloadLength();
+
+        assertEquals(position, buffer.position());
+        assertEquals(limit, buffer.limit());
+    }
+
+    @Test
+    public void wrap_canBeReusedAcrossPackets() {
+        assertTrue(view.wrap(buildIPv4TcpPacket(new byte[3])));
+        assertTrue(view.isTCP());
+
+        assertTrue(view.wrap(buildIPv6UdpPacket(new byte[7])));
+        assertFalse(view.isTCP());
+        assertTrue(view.isUDP());
+        assertEquals(7, view.getPayloadLength());
+    }
+
+    @Test
+    public void wrap_rejectsTruncatedPacket() {
+        ByteBuffer buffer = buildIPv4TcpPacket(new byte[10]);
+        buffer.limit(buffer.limit() - 5);
+
+        assertFalse(view.wrap(buffer));
+        assertFalse(view.isTCP());
+    }
+
+    @Test
+    public void wrap_rejectsUnknownVersion() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x50, 0, 0, 0});
+
+        assertFalse(view.wrap(buffer));
+    }
+
+    @Test
+    public void getPayloadSlice_viewsPayloadWithoutCopying() {
+        ByteBuffer buffer = buildIPv4TcpPacket(new byte[]{9, 8, 7});
+        assertTrue(view.wrap(buffer));
+
+        ByteBuffer slice = view.getPayloadSlice();
+
+        assertEquals(3, slice.remaining());
+        assertEquals(9, slice.get(0));
+        assertEquals(7, slice.get(2));
+        buffer.put(view.getPayloadOffset(), (byte) 1);
+        assertEquals(1, slice.get(0));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void getPayloadSlice_isNullWithoutPayload() {
+        assertTrue(view.wrap(buildIPv4TcpPacket(new byte[0])));
+
+        assertNull(view.getPayloadSlice());
+    }
+}
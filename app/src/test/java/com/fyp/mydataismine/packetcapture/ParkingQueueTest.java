@@ -0,0 +1,68 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ParkingQueueTest {
+
+    private final ParkingQueue<String> queue = new ParkingQueue<>();
+
+    @Test
+    public void awaitItems_returnsAtOnceWhenItemsAreWaiting() throws Exception {
+        queue.offer("packet");
+
+        queue.awaitItems();
+
+        assertEquals("packet", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void offer_unparksAWaitingConsumer() throws Exception {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.offer("packet");
+            }
+        });
+        producer.start();
+
+        long start = System.nanoTime();
+        queue.awaitItems();
+        producer.join();
+
+        assertTrue("The wait should end when the item arrives",
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals("packet", queue.poll());
+    }
+
+    @Test
+    public void awaitItems_throwsWhenInterrupted() throws Exception {
+        final Throwable[] thrown = new Throwable[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.awaitItems();
+                } catch (Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+        consumer.interrupt();
+        consumer.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertFalse(consumer.isAlive());
+        assertTrue(thrown[0] instanceof InterruptedException);
+    }
+}
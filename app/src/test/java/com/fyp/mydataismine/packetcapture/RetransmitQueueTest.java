@@ -0,0 +1,118 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RetransmitQueueTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private TimerWheel timerWheel;
+    private RetransmitQueue queue;
+    private long start;
+
+    @Before
+    public void setUp() {
+        ByteBufferPool.clear();
+        outputQueue = new ConcurrentLinkedQueue<>();
+        start = System.nanoTime();
+        timerWheel = new TimerWheel(10 * MILLIS, 64, start);
+        queue = new RetransmitQueue(outputQueue, timerWheel);
+    }
+
+    @After
+    public void tearDown() {
+        queue.clear();
+        ByteBufferPool.clear();
+    }
+
+    // One pooled buffer holding two 100 byte packets back to back, ending at sequence numbers 1100 and 1200
+    private ByteBuffer addTwoSegments(long nowNanos) {
+        ByteBuffer buffer = ByteBufferPool.acquire();
+        for (int i = 0; i < 200; i++) {
+            buffer.put(i, (byte) i);
+        }
+        queue.add(buffer, 0, 100, 1100, nowNanos);
+        queue.add(buffer, 100, 100, 1200, nowNanos);
+        return buffer;
+    }
+
+    @Test
+    public void getBufferedBytes_countsASharedBufferOnce() {
+        assertEquals(0, queue.getBufferedBytes());
+        ByteBuffer buffer = addTwoSegments(start);
+        assertEquals(buffer.capacity(), queue.getBufferedBytes());
+
+        queue.acknowledge(1200, start + 20 * MILLIS);
+        assertEquals(0, queue.getBufferedBytes());
+    }
+
+    @Test
+    public void acknowledge_releasesTheBufferWithItsLastSegment() {
+        ByteBuffer buffer = addTwoSegments(start);
+
+        queue.acknowledge(1100, start + 20 * MILLIS);
+        assertEquals(1, queue.size());
+        assertNotSame("The buffer still holds an unacknowledged segment", buffer, ByteBufferPool.acquire());
+
+        queue.acknowledge(1200, start + 20 * MILLIS);
+        assertEquals(0, queue.size());
+        assertSame(buffer, ByteBufferPool.acquire());
+        assertEquals(0, timerWheel.size());
+    }
+
+    @Test
+    public void acknowledge_updatesTheRtoFromMeasuredRtt() {
+        assertEquals(-1, queue.getSmoothedRttNanos());
+        assertEquals(TimeUnit.SECONDS.toNanos(1), queue.getRtoNanos());
+
+        addTwoSegments(start);
+        queue.acknowledge(1200, start + 40 * MILLIS);
+
+        assertEquals(40 * MILLIS, queue.getSmoothedRttNanos());
+        assertEquals("Short RTTs are held to the minimum RTO", 200 * MILLIS, queue.getRtoNanos());
+    }
+
+    @Test
+    public void thirdDuplicateAck_retransmitsACopyOfTheOldestSegment() {
+        addTwoSegments(start);
+
+        queue.onDuplicateAck();
+        queue.onDuplicateAck();
+        assertTrue(outputQueue.isEmpty());
+        queue.onDuplicateAck();
+
+        ByteBuffer copy = outputQueue.poll();
+        assertNotNull(copy);
+        copy.flip();
+        assertEquals(100, copy.remaining());
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) i, copy.get(i));
+        }
+        queue.onDuplicateAck();
+        assertTrue("Only the third duplicate retransmits", outputQueue.isEmpty());
+    }
+
+    @Test
+    public void timeout_retransmitsAndBacksOff() {
+        addTwoSegments(start);
+
+        timerWheel.advance(start + 900 * MILLIS);
+        assertTrue(outputQueue.isEmpty());
+        timerWheel.advance(start + 1100 * MILLIS);
+        assertEquals(1, outputQueue.size());
+        assertEquals(TimeUnit.SECONDS.toNanos(2), queue.getRtoNanos());
+
+        // Karn's algorithm: an acknowledged retransmission gives no RTT sample
+        queue.acknowledge(1100, start + 1200 * MILLIS);
+        assertEquals(-1, queue.getSmoothedRttNanos());
+        assertEquals(1, timerWheel.size());
+    }
+}
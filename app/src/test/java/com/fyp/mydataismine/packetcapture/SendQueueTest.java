@@ -0,0 +1,119 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import static org.junit.Assert.*;
+
+public class SendQueueTest {
+
+    private SendQueue queue;
+
+    // Accepts at most `accepting` bytes, like a socket with a nearly full send buffer
+    private static class SlowChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int accepting;
+        int writeCalls;
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            writeCalls++;
+            long count = 0;
+            for (int i = offset; i < offset + length; i++) {
+                count += copy(sources[i]);
+            }
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            writeCalls++;
+            return copy(source);
+        }
+
+        private int copy(ByteBuffer source) {
+            int count = Math.min(accepting, source.remaining());
+            for (int i = 0; i < count; i++) {
+                written.write(source.get());
+            }
+            accepting -= count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        queue = new SendQueue(100000);
+    }
+
+    @After
+    public void tearDown() {
+        queue.clear();
+        ByteBufferPool.clear();
+    }
+
+    private static ByteBuffer payload(int size, int seed) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) (seed + i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void writeTo_preservesOrderAcrossPartialWrites() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 30; i++) {
+            ByteBuffer segment = payload(1460, i);
+            expected.write(segment.array(), 0, segment.limit());
+            assertTrue(queue.offer(segment));
+            assertFalse(segment.hasRemaining());
+        }
+        assertEquals(30 * 1460, queue.size());
+
+        SlowChannel channel = new SlowChannel();
+        while (!queue.isEmpty()) {
+            channel.accepting = 7000;
+            int before = queue.size();
+            assertEquals(Math.min(7000, before), queue.writeTo(channel));
+            assertEquals(before - Math.min(7000, before), queue.size());
+        }
+        assertEquals("One gathering write per call", (30 * 1460 + 6999) / 7000, channel.writeCalls);
+        assertArrayEquals(expected.toByteArray(), channel.written.toByteArray());
+    }
+
+    @Test
+    public void offer_refusesWhatDoesNotFit() {
+        SendQueue small = new SendQueue(3000);
+        assertTrue(small.offer(payload(1460, 0)));
+        assertTrue(small.offer(payload(1460, 1)));
+
+        ByteBuffer tooBig = payload(1460, 2);
+        assertFalse(small.offer(tooBig));
+        assertEquals("A refused payload is left untouched", 1460, tooBig.remaining());
+        assertEquals(80, small.remainingCapacity());
+        small.clear();
+        assertTrue(small.isEmpty());
+        assertEquals(3000, small.remainingCapacity());
+    }
+}
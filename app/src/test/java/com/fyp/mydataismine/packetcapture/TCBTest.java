@@ -4,28 +4,34 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.After;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
 import static org.mockito.Mockito.*;
 import static org.junit.Assert.*;
 
 public class TCBTest {
     private TCB tcb;
-    private String ipAndPort = "192.168.1.1:80";
+    private int address = 0xC0A80101; // 192.168.1.1
+    private long flowKey = TCB.flowKey(address, 80, 40000);
     private SocketChannel channel;
-    private Packet referencePacket;
+    private HeaderTemplate headerTemplate;
+    private TCBTable table;
 
     @Before
     public void setUp() throws Exception {
         channel = mock(SocketChannel.class);
-        referencePacket = mock(Packet.class);
-        tcb = new TCB(ipAndPort, 0L, 0L, 0L, 0L, channel, referencePacket);
+        headerTemplate = mock(HeaderTemplate.class);
+        tcb = new TCB(address, 80, 40000, 0L, 0L, 0L, 0L, channel, headerTemplate);
 
-        TCB.putTCB(ipAndPort, tcb);
+        table = new TCBTable();
+        table.put(tcb);
     }
 
     @Test
     public void testTCBCreationAndRetrieval() {
-        TCB retrievedTCB = TCB.getTCB(ipAndPort);
+        TCB retrievedTCB = table.get(flowKey);
 
         assertNotNull("TCB should not be null after creation", retrievedTCB);
         assertEquals("Retrieved TCB should match the original", tcb, retrievedTCB);
@@ -34,33 +40,124 @@ public class TCBTest {
     @Test
     public void testTCBUpdate() {
         tcb.mySequenceNum = 1L;
-        TCB retrievedTCB = TCB.getTCB(ipAndPort);
+        TCB retrievedTCB = table.get(flowKey);
 
         assertEquals("Sequence number should be updated", 1L, retrievedTCB.mySequenceNum);
     }
 
+    @Test
+    public void testFlowKeyDistinguishesPorts() {
+        assertNotEquals(TCB.flowKey(address, 80, 40000), TCB.flowKey(address, 80, 40001));
+        assertNotEquals(TCB.flowKey(address, 80, 40000), TCB.flowKey(address, 443, 40000));
+        assertNull("A different local port should not match", table.get(TCB.flowKey(address, 80, 40001)));
+    }
+
     @Test
     public void testCloseTCB() throws Exception {
         TCB.closeTCB(tcb);
 
-        assertNull("TCB should be removed from cache", TCB.getTCB(ipAndPort));
+        assertNull("TCB should be removed from cache", table.get(flowKey));
         verify(channel, times(1)).close();
     }
 
     @Test
     public void testCloseAll() throws Exception {
-        TCB newTCB = new TCB("192.168.1.2:80", 1L, 1L, 1L, 1L, channel, referencePacket);
-        TCB.putTCB("192.168.1.2:80", newTCB);
+        TCB newTCB = new TCB(0xC0A80102, 80, 40000, 1L, 1L, 1L, 1L, channel, headerTemplate);
+        table.put(newTCB);
 
-        TCB.closeAll();
+        table.closeAll();
 
-        assertNull("All TCBs should be removed from cache", TCB.getTCB(ipAndPort));
-        assertNull("All TCBs should be removed from cache", TCB.getTCB("192.168.1.2:80"));
+        assertNull("All TCBs should be removed from cache", table.get(flowKey));
+        assertNull("All TCBs should be removed from cache", table.get(TCB.flowKey(0xC0A80102, 80, 40000)));
         verify(channel, times(2)).close();
     }
 
+    @Test
+    public void testExpireIdleUsesPerStateTimeouts() {
+        long now = System.nanoTime();
+        tcb.status = TCB.TCBStatus.ESTABLISHED;
+        tcb.lastActivityNanos = now - TimeUnit.MINUTES.toNanos(30);
+
+        TCB closing = new TCB(0xC0A80103, 80, 40000, 1L, 1L, 1L, 1L, channel, headerTemplate);
+        closing.status = TCB.TCBStatus.LAST_ACK;
+        closing.lastActivityNanos = now - TimeUnit.MINUTES.toNanos(1);
+        table.put(closing);
+
+        assertEquals(1, table.expireIdle(now));
+        assertNotNull("An established connection idle for 30 minutes is kept", table.get(flowKey));
+        assertNull("A connection idle in LAST_ACK for a minute is expired", table.get(closing.flowKey));
+
+        tcb.lastActivityNanos = now - TimeUnit.HOURS.toNanos(3);
+        assertEquals(1, table.expireIdle(now));
+        assertNull(table.get(flowKey));
+    }
+
+    @Test
+    public void testTouchRestartsIdleTimeout() {
+        tcb.status = TCB.TCBStatus.SYN_SENT;
+        tcb.lastActivityNanos = System.nanoTime() - TimeUnit.MINUTES.toNanos(5);
+        assertTrue(tcb.isIdleExpired(System.nanoTime()));
+
+        tcb.touch();
+        assertFalse(tcb.isIdleExpired(System.nanoTime()));
+    }
+
+    @Test
+    public void testIdleTimerClosesOnlyExpiredConnections() {
+        long now = System.nanoTime();
+        tcb.status = TCB.TCBStatus.ESTABLISHED;
+        tcb.lastActivityNanos = now - TimeUnit.MINUTES.toNanos(1);
+
+        tcb.onIdleTimer(now);
+        assertNotNull("Recent activity reschedules the timer instead", table.get(flowKey));
+
+        tcb.status = TCB.TCBStatus.LAST_ACK;
+        tcb.onIdleTimer(now);
+        assertNull("LAST_ACK cleanup closes the connection", table.get(flowKey));
+    }
+
+    @Test
+    public void testTableStatsReportOccupancy() {
+        assertEquals(1, table.size());
+        assertTrue(table.getEstimatedMemoryBytes() > 0);
+        assertTrue(table.getStats().startsWith("1/"));
+    }
+
+    @Test
+    public void testTableMemoryIncludesQueuedBuffers() {
+        long idleBytes = table.getEstimatedMemoryBytes();
+        assertEquals(0, table.getBufferedBytes());
+
+        ByteBuffer queued = ByteBuffer.allocate(100);
+        assertTrue(tcb.sendQueue.offer(queued));
+
+        long bufferedBytes = table.getBufferedBytes();
+        assertTrue("A queued payload pins a whole pooled buffer", bufferedBytes >= 100);
+        assertEquals(bufferedBytes, tcb.getBufferedBytes());
+        assertEquals(idleBytes + bufferedBytes, table.getEstimatedMemoryBytes());
+    }
+
     @After
     public void tearDown() throws Exception {
-        TCB.closeAll(); // Ensure all TCBs are closed and removed from the cache
+        table.closeAll(); // Ensure all TCBs are closed and removed from the cache
+    }
+
+    @Test
+    public void testDeviceWindowTracksAcknowledgements() {
+        tcb.deviceWindowShift = 2;
+        tcb.theirAcknowledgementNum = 0xFFFFF000L;
+        tcb.mySequenceNum = 0x770L; // 6000 bytes on, wrapped past 2^32
+
+        assertEquals(6000, tcb.getBytesInFlight());
+        assertTrue(tcb.onDeviceAck(0L, 1000));
+        assertEquals(1904, tcb.getBytesInFlight());
+        assertEquals(4000, tcb.deviceWindow);
+        assertEquals(2096, tcb.getUsableWindow());
+
+        assertFalse("Data that was never sent cannot be acknowledged", tcb.onDeviceAck(0x2000L, 0xFFFF));
+        assertEquals(4000, tcb.deviceWindow);
+
+        assertTrue(tcb.onDeviceAck(0L, 0));
+        assertEquals(0, tcb.getUsableWindow());
     }
 }
@@ -59,4 +59,43 @@ public class TCPHeaderTest {
         assertFalse(tcpHeader.isPSH());
         assertFalse(tcpHeader.isURG());
     }
+
+    @Test
+    public void testMaximumSegmentSizeOption() {
+        assertEquals("No options means no MSS", -1, tcpHeader.getMaximumSegmentSize());
+
+        ByteBuffer syn = ByteBuffer.allocate(TCP_HEADER_SIZE + 8);
+        syn.putShort((short) 1234).putShort((short) 80).putInt(0).putInt(0);
+        syn.put((byte) 0x70).put((byte) TCPHeader.SYN).putShort((short) 65535).putInt(0);
+        syn.put(new byte[] {1, 1, 2, 4, 0x05, (byte) 0xB4, 0, 0}); // NOP, NOP, MSS 1460, end of options
+        syn.flip();
+
+        assertEquals(1460, new TCPHeader(syn).getMaximumSegmentSize());
+    }
+
+    @Test
+    public void testWindowScaleAndSackPermittedOptions() {
+        assertEquals("No options means no window scaling", -1, tcpHeader.getWindowScale());
+        assertFalse(tcpHeader.isSackPermitted());
+
+        // A typical Linux SYN: MSS, SACK-permitted, timestamps, NOP, window scale
+        ByteBuffer syn = ByteBuffer.allocate(TCP_HEADER_SIZE + 20);
+        syn.putShort((short) 1234).putShort((short) 80).putInt(0).putInt(0);
+        syn.put((byte) 0xA0).put((byte) TCPHeader.SYN).putShort((short) 65535).putInt(0);
+        syn.put(new byte[] {2, 4, 0x05, (byte) 0xB4, 4, 2, 8, 10, 0, 0, 0, 1, 0, 0, 0, 0, 1, 3, 3, 7});
+        syn.flip();
+
+        TCPHeader header = new TCPHeader(syn);
+        assertEquals(1460, header.getMaximumSegmentSize());
+        assertEquals(7, header.getWindowScale());
+        assertTrue(header.isSackPermitted());
+
+        TCB tcb = new TCB(0, 80, 1234, 0L, 0L, 0L, 0L, null, null);
+        tcb.negotiateOptions(header);
+        assertEquals(1460, tcb.deviceMss);
+        assertTrue(tcb.windowScaling);
+        assertEquals(7, tcb.deviceWindowShift);
+        assertEquals(TCB.LOCAL_WINDOW_SHIFT, tcb.localWindowShift);
+        assertTrue(tcb.deviceSackPermitted);
+    }
 }
@@ -5,16 +5,20 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import java.util.Iterator;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class TCPInputTest {
@@ -33,9 +37,8 @@ public class TCPInputTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         outputQueue = new ConcurrentLinkedQueue<>();
-        FileDescriptor fd = mock(FileDescriptor.class); // Use a mock FileDescriptor
 
-        tcpInput = new TCPInput(outputQueue, fd);
+        tcpInput = new TCPInput(outputQueue);
 
         when(mockKey.channel()).thenReturn(mockChannel);
         when(mockKey.attachment()).thenReturn(mockTCB);
@@ -44,7 +47,8 @@ public class TCPInputTest {
         initializeIPv4Buffer(buffer, new byte[20]); // Assuming 20 bytes payload
         referencePacket = new Packet(buffer);
 
-        mockTCB.referencePacket = referencePacket; // Directly assign the reference packet
+        mockTCB.headerTemplate = HeaderTemplate.forTcpResponse(referencePacket.ip4Header,
+                referencePacket.tcpHeader); // Directly assign the header template
 
         when(mockKeyIterator.hasNext()).thenReturn(true, false); // Ensures the loop runs once
         when(mockKeyIterator.next()).thenReturn(mockKey);
@@ -126,4 +130,131 @@ public class TCPInputTest {
         verify(mockTCB).status = TCB.TCBStatus.CLOSE_WAIT;
         assertFalse(outputQueue.isEmpty());
     }
+
+    @Test
+    public void testProcessInput_SplitsDataIntoDeviceSizedSegments() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel remote = server.accept();
+        try {
+            ByteBuffer data = ByteBuffer.allocate(4000);
+            while (data.hasRemaining())
+                remote.write(data);
+            Thread.sleep(50);
+
+            TCB tcb = new TCB(0x5DB8D822, 80, 48000, 5000L, 0L, 77L, 0L, client, mockTCB.headerTemplate);
+            tcb.setDeviceMss(1460);
+            SelectionKey key = mock(SelectionKey.class);
+            when(key.channel()).thenReturn(client);
+            when(key.attachment()).thenReturn(tcb);
+
+            tcpInput.processInput(key, mockKeyIterator);
+
+            ByteBuffer output = outputQueue.poll();
+            output.flip();
+            int[] expectedSizes = {1460, 1460, 1080};
+            PacketView view = new PacketView();
+            long sequenceNum = 5000;
+            for (int i = 0; i < expectedSizes.length; i++) {
+                int start = output.position();
+                int length = PacketView.packetLength(output, start);
+                assertEquals(40 + expectedSizes[i], length);
+                ByteBuffer packet = output.duplicate();
+                packet.limit(start + length);
+                assertTrue(view.wrap(packet));
+                assertTrue(view.hasValidTransportChecksum());
+                assertEquals(sequenceNum, view.getSequenceNumber());
+                assertEquals("Only the last segment is pushed", i == expectedSizes.length - 1,
+                        (view.getTcpFlags() & TCPHeader.PSH) != 0);
+                sequenceNum += expectedSizes[i];
+                output.position(start + length);
+            }
+            assertFalse(output.hasRemaining());
+            assertEquals(9000L, tcb.mySequenceNum);
+            assertNull(outputQueue.poll());
+        } finally {
+            remote.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testProcessInput_StopsReadingWhenDeviceWindowIsFull() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel remote = server.accept();
+        try {
+            ByteBuffer data = ByteBuffer.allocate(4000);
+            while (data.hasRemaining())
+                remote.write(data);
+            Thread.sleep(50);
+
+            TCB tcb = new TCB(0x5DB8D822, 80, 48000, 5000L, 0L, 77L, 4000L, client, mockTCB.headerTemplate);
+            tcb.setDeviceMss(1460);
+            tcb.deviceWindow = 3000; // 1000 bytes already in flight
+            SelectionKey key = mock(SelectionKey.class);
+            when(key.channel()).thenReturn(client);
+            when(key.attachment()).thenReturn(tcb);
+            when(key.interestOps()).thenReturn(SelectionKey.OP_READ);
+
+            tcpInput.processInput(key, mockKeyIterator);
+
+            ByteBuffer output = outputQueue.poll();
+            output.flip();
+            assertEquals(40 + 1460, PacketView.packetLength(output, 0));
+            assertEquals(40 + 540, PacketView.packetLength(output, 40 + 1460));
+            assertEquals(7000L, tcb.mySequenceNum);
+            assertEquals(0, tcb.getUsableWindow());
+            assertTrue(tcb.readPaused);
+            verify(key).interestOps(0);
+
+            tcpInput.processInput(key, mockKeyIterator);
+            assertNull("Nothing is read while the window is full", outputQueue.poll());
+        } finally {
+            remote.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testProcessInput_WrapsSequenceNumberPast32Bits() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel remote = server.accept();
+        try {
+            ByteBuffer data = ByteBuffer.allocate(2000);
+            while (data.hasRemaining())
+                remote.write(data);
+            Thread.sleep(50);
+
+            long initialSequenceNum = 0xFFFFFFFFL - 999; // 1000 bytes short of 2^32
+            TCB tcb = new TCB(0x5DB8D822, 80, 48000, initialSequenceNum, 0L, 77L, initialSequenceNum, client,
+                    mockTCB.headerTemplate);
+            tcb.setDeviceMss(1460);
+            SelectionKey key = mock(SelectionKey.class);
+            when(key.channel()).thenReturn(client);
+            when(key.attachment()).thenReturn(tcb);
+
+            tcpInput.processInput(key, mockKeyIterator);
+
+            ByteBuffer output = outputQueue.poll();
+            output.flip();
+            PacketView view = new PacketView();
+            ByteBuffer packet = output.duplicate();
+            packet.position(40 + 1460);
+            assertTrue(view.wrap(packet));
+            assertEquals(460L, view.getSequenceNumber());
+            assertEquals(1000L, tcb.mySequenceNum);
+            assertEquals(2000, tcb.getBytesInFlight());
+        } finally {
+            remote.close();
+            client.close();
+            server.close();
+        }
+    }
 }
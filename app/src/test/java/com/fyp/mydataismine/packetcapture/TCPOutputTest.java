@@ -0,0 +1,282 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TCPOutputTest {
+    private static final int DEVICE_ADDRESS = 0x0A000002;
+    private static final int REMOTE_ADDRESS = 0x7F000001;
+    private static final int DEVICE_PORT = 48000;
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel remote;
+    private Selector selector;
+    private TCBTable tcbTable;
+    private ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private TCPOutput tcpOutput;
+    private TCB tcb;
+    private final ByteBuffer sink = ByteBuffer.allocate(65536);
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        client.configureBlocking(false);
+        remote = server.accept();
+        remote.configureBlocking(false);
+        selector = Selector.open();
+
+        tcbTable = new TCBTable();
+        outputQueue = new ConcurrentLinkedQueue<>();
+        // The connection already exists, so the VPN service is never needed to protect a new socket
+        tcpOutput = new TCPOutput(outputQueue, selector, tcbTable, null);
+
+        int remotePort = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        Packet syn = new Packet(devicePacket(remotePort, 4999, TCPHeader.SYN, 0));
+        tcb = new TCB(REMOTE_ADDRESS, remotePort, DEVICE_PORT, 1000L, 4999L, 5000L, 1000L, client,
+                HeaderTemplate.forTcpResponse(syn.ip4Header, syn.tcpHeader));
+        tcb.status = TCB.TCBStatus.ESTABLISHED;
+        tcb.waitingForNetworkData = true;
+        tcb.selectionKey = client.register(selector, SelectionKey.OP_READ, tcb);
+        tcbTable.put(tcb);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tcbTable.closeAll();
+        selector.close();
+        remote.close();
+        server.close();
+    }
+
+    private static ByteBuffer devicePacket(int remotePort, long sequenceNum, int flags, int payloadSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE + payloadSize);
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) buffer.capacity()).putInt(0);
+        buffer.put((byte) 64).put((byte) 6).putShort((short) 0);
+        buffer.putInt(DEVICE_ADDRESS).putInt(REMOTE_ADDRESS);
+        buffer.putShort((short) DEVICE_PORT).putShort((short) remotePort);
+        buffer.putInt((int) sequenceNum).putInt(1000);
+        buffer.put((byte) 0x50).put((byte) flags).putShort((short) 0xFFFF).putInt(0);
+        buffer.position(0);
+        return buffer;
+    }
+
+    // Uploads a megabyte in full-sized segments and returns the number of packets written back to the device
+    private int uploadMegabyte() throws Exception {
+        long sequenceNum = 5000;
+        int sent = 0;
+        while (sent < MEGABYTE) {
+            int payloadSize = Math.min(TCB.LOCAL_MSS, MEGABYTE - sent);
+            tcpOutput.processPacket(new Packet(devicePacket(tcb.destinationPort, sequenceNum,
+                    TCPHeader.ACK, payloadSize)));
+            tcpOutput.flushPendingWrites();
+            sequenceNum += payloadSize;
+            sent += payloadSize;
+            sink.clear();
+            while (remote.read(sink) > 0)
+                sink.clear();
+        }
+        assertEquals(sequenceNum, tcb.myAcknowledgementNum);
+        return outputQueue.size();
+    }
+
+    @Test
+    public void delayedAck_halvesTheTunWritesPerMegabyteUploaded() throws Exception {
+        tcpOutput.setDelayedAck(1, 0);
+        int everySegment = uploadMegabyte();
+        outputQueue.clear();
+
+        tcpOutput.setDelayedAck(TCPOutput.DEFAULT_ACK_EVERY_SEGMENTS, TCPOutput.DEFAULT_DELAYED_ACK_MILLIS);
+        tcb.myAcknowledgementNum = 5000L;
+        int delayed = uploadMegabyte();
+
+        // 718 full segments and a short one: one ACK each, or one per pair plus one for the short tail
+        assertEquals(719, everySegment);
+        assertEquals(360, delayed);
+        assertEquals(0, tcb.unacknowledgedSegments);
+    }
+
+    @Test
+    public void delayedAck_isSentWhenTheTimerExpires() throws Exception {
+        tcpOutput.processPacket(new Packet(devicePacket(tcb.destinationPort, 5000, TCPHeader.ACK, 1460)));
+        assertTrue("A lone full segment is not acknowledged at once", outputQueue.isEmpty());
+
+        tcbTable.getTimerWheel().advance(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300));
+        ByteBuffer ack = outputQueue.poll();
+        assertNotNull(ack);
+        ack.flip();
+        PacketView view = new PacketView();
+        assertTrue(view.wrap(ack));
+        assertEquals(6460L, view.getAcknowledgementNumber());
+    }
+
+    @Test
+    public void smallSegments_areGatheredUntilFlushedOrPushed() throws Exception {
+        int remotePort = tcb.destinationPort;
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5000, TCPHeader.ACK, 10)));
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5010, TCPHeader.ACK, 10)));
+        assertEquals(20, tcb.sendQueue.size());
+        assertTrue(tcb.flushPending);
+        assertEquals(0, remote.read(sink));
+
+        tcpOutput.flushPendingWrites();
+        assertTrue(tcb.sendQueue.isEmpty());
+        assertFalse(tcb.flushPending);
+        assertEquals(20, readRemote(20));
+
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5020, TCPHeader.ACK, 10)));
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5030, TCPHeader.PSH | TCPHeader.ACK, 10)));
+        assertTrue("A push flushes what was gathered before it", tcb.sendQueue.isEmpty());
+        assertEquals(20, readRemote(20));
+    }
+
+    // Reads what the remote host has received, waiting briefly for loopback delivery
+    private int readRemote(int expected) throws Exception {
+        int total = 0;
+        for (int attempt = 0; attempt < 100 && total < expected; attempt++) {
+            sink.clear();
+            total += remote.read(sink);
+            if (total < expected)
+                Thread.sleep(5);
+        }
+        return total;
+    }
+
+    private long pollAckNumber() {
+        ByteBuffer ack = outputQueue.poll();
+        assertNotNull("Expected an ACK for the device", ack);
+        ack.flip();
+        PacketView view = new PacketView();
+        assertTrue(view.wrap(ack));
+        return view.getAcknowledgementNumber();
+    }
+
+    @Test
+    public void duplicateSegment_isReAckedInsteadOfForwarded() throws Exception {
+        int remotePort = tcb.destinationPort;
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5000, TCPHeader.PSH | TCPHeader.ACK, 10)));
+        assertEquals(10, readRemote(10));
+        outputQueue.clear();
+
+        // Our ACK was lost, so the device sends the same segment again
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5000, TCPHeader.PSH | TCPHeader.ACK, 10)));
+        tcpOutput.flushPendingWrites();
+        assertEquals(0, remote.read(sink));
+        assertTrue(tcb.sendQueue.isEmpty());
+        assertEquals(5010L, tcb.myAcknowledgementNum);
+        assertEquals(5010L, pollAckNumber());
+
+        // A segment past a gap is not forwarded either; the device resends from what we expect
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5100, TCPHeader.PSH | TCPHeader.ACK, 10)));
+        assertEquals(0, remote.read(sink));
+        assertEquals(5010L, pollAckNumber());
+    }
+
+    @Test
+    public void overlappingRetransmission_forwardsOnlyTheNewData() throws Exception {
+        int remotePort = tcb.destinationPort;
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5000, TCPHeader.PSH | TCPHeader.ACK, 10)));
+        assertEquals(10, readRemote(10));
+        outputQueue.clear();
+
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5004, TCPHeader.PSH | TCPHeader.ACK, 10)));
+        assertEquals(4, readRemote(4));
+        assertEquals(0, remote.read(sink));
+        assertEquals(5014L, tcb.myAcknowledgementNum);
+        assertEquals("A retransmission is acknowledged at once", 5014L, pollAckNumber());
+    }
+
+    @Test
+    public void finalAck_writesQueuedDataBeforeClosing() throws Exception {
+        int remotePort = tcb.destinationPort;
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5000, TCPHeader.ACK, 10)));
+        assertEquals("Unpushed data waits for the flush", 10, tcb.sendQueue.size());
+
+        tcb.status = TCB.TCBStatus.LAST_ACK;
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5010, TCPHeader.ACK, 0)));
+
+        assertNull(tcbTable.get(tcb.flowKey));
+        assertEquals(10, readRemote(10));
+    }
+
+    @Test
+    public void processWrite_closesOnceTheQueueIsDrained() throws Exception {
+        // A close that found more data queued than the socket would take
+        assertTrue(tcb.sendQueue.offer(ByteBuffer.allocate(10)));
+        tcb.closeWhenFlushed = true;
+
+        tcpOutput.processWrite(tcb.selectionKey);
+
+        assertNull(tcbTable.get(tcb.flowKey));
+        assertEquals(10, readRemote(10));
+    }
+
+    @Test
+    public void deviceRst_afterUnpushedBurst_writesTheWholeBurst() throws Exception {
+        int remotePort = tcb.destinationPort;
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5000, TCPHeader.ACK, 10)));
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5010, TCPHeader.ACK, 10)));
+        // The RST arrives in the same batch, before flushPendingWrites runs
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5020, TCPHeader.RST, 0)));
+        tcpOutput.flushPendingWrites();
+
+        assertNull(tcbTable.get(tcb.flowKey));
+        assertEquals(20, readRemote(20));
+    }
+
+    @Test
+    public void deviceFin_afterUnpushedBurst_writesItAtOnce() throws Exception {
+        int remotePort = tcb.destinationPort;
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5000, TCPHeader.ACK, 10)));
+        tcpOutput.processPacket(new Packet(devicePacket(remotePort, 5010, TCPHeader.FIN | TCPHeader.ACK, 0)));
+
+        assertTrue(tcb.sendQueue.isEmpty());
+        assertEquals(10, readRemote(10));
+    }
+
+    @Test
+    public void tableClose_writesQueuedDataBeforeReleasing() throws Exception {
+        tcpOutput.processPacket(new Packet(devicePacket(tcb.destinationPort, 5000, TCPHeader.ACK, 10)));
+
+        // As the idle timer does
+        tcbTable.close(tcb);
+
+        assertTrue(tcb.sendQueue.isEmpty());
+        assertEquals(10, readRemote(10));
+    }
+
+    @Test
+    public void deviceRst_releasesTheResponseBufferOnce() throws Exception {
+        ByteBufferPool.enableThreadCache();
+        try {
+            tcpOutput.processPacket(new Packet(devicePacket(tcb.destinationPort, 5000, TCPHeader.RST, 0)));
+            assertNull(tcbTable.get(TCB.flowKey(REMOTE_ADDRESS, tcb.destinationPort, DEVICE_PORT)));
+
+            ByteBuffer first = ByteBufferPool.acquire();
+            ByteBuffer second = ByteBufferPool.acquire();
+            assertNotSame("The response buffer must not be pooled twice", first, second);
+        } finally {
+            ByteBufferPool.disableThreadCache();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setDelayedAck_rejectsDelaysBeyondTheRfcLimit() {
+        tcpOutput.setDelayedAck(2, 501);
+    }
+}
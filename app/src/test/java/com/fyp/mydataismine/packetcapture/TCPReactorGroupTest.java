@@ -0,0 +1,43 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TCPReactorGroupTest {
+
+    @Test
+    public void shardFor_isStableAndInRange() {
+        for (int shards = 1; shards <= TCPReactorGroup.MAX_SHARDS; shards++) {
+            for (int port = 40000; port < 40100; port++) {
+                long flowKey = TCB.flowKey(0xC0A80101, 443, port);
+                int shard = TCPReactorGroup.shardFor(flowKey, shards);
+                assertTrue(shard >= 0 && shard < shards);
+                assertEquals(shard, TCPReactorGroup.shardFor(flowKey, shards));
+            }
+        }
+    }
+
+    @Test
+    public void shardFor_spreadsConnectionsToOneServer() {
+        int shards = 4;
+        int[] counts = new int[shards];
+        for (int port = 40000; port < 44000; port++) {
+            counts[TCPReactorGroup.shardFor(TCB.flowKey(0x08080808, 443, port), shards)]++;
+        }
+        for (int count : counts) {
+            assertTrue("Uneven spread: " + count, count > 800 && count < 1200);
+        }
+    }
+
+    @Test
+    public void defaultShardCount_isWithinLimits() {
+        int shards = TCPReactorGroup.defaultShardCount();
+        assertTrue(shards >= 1 && shards <= TCPReactorGroup.MAX_SHARDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsZeroShards() throws Exception {
+        new TCPReactorGroup(0, null, null);
+    }
+}
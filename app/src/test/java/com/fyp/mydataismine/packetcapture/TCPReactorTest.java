@@ -0,0 +1,63 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+public class TCPReactorTest {
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE;
+
+    @Before
+    public void setUp() {
+        ByteBufferPool.clear();
+    }
+
+    @After
+    public void tearDown() {
+        ByteBufferPool.clear();
+    }
+
+    // A SYN read from the device into a pooled buffer, as VPNRunnable queues it
+    private static Packet pooledSyn() {
+        ByteBuffer buffer = ByteBufferPool.acquire();
+        buffer.put((byte) 0x45);
+        buffer.put((byte) 0);
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.putInt(0);
+        buffer.put((byte) 64);
+        buffer.put((byte) 6);
+        buffer.putShort((short) 0);
+        buffer.putInt(0x0A000002);
+        buffer.putInt(0x5DB8D822);
+        buffer.putShort((short) 48000);
+        buffer.putShort((short) 443);
+        buffer.putInt(1);
+        buffer.putInt(0);
+        buffer.put((byte) (5 << 4));
+        buffer.put((byte) TCPHeader.SYN);
+        buffer.putShort((short) 65535);
+        buffer.putInt(0);
+        buffer.flip();
+        return new Packet(buffer);
+    }
+
+    @Test
+    public void run_releasesTheBuffersOfUnprocessedPacketsWhenStopping() throws Exception {
+        TCPReactor reactor = new TCPReactor(new ConcurrentLinkedQueue<ByteBuffer>(), null, 16);
+        Packet packet = pooledSyn();
+        ByteBuffer buffer = packet.backingBuffer;
+        reactor.getDeviceToNetworkQueue().offer(packet);
+
+        // Stop before the first pass of the loop, leaving the packet queued
+        Thread.currentThread().interrupt();
+        reactor.run();
+
+        assertTrue(reactor.getDeviceToNetworkQueue().isEmpty());
+        assertSame(buffer, ByteBufferPool.acquire());
+    }
+}
@@ -0,0 +1,182 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long START = 1_000_000_000L;
+
+    private final List<String> fired = new ArrayList<>();
+
+    private TimerWheel.Timer timer(final String name) {
+        return new TimerWheel.Timer(new Runnable() {
+            @Override
+            public void run() {
+                fired.add(name);
+            }
+        });
+    }
+
+    @Test
+    public void advance_firesTimersOnlyOnceDue() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        wheel.schedule(timer("a"), START + 3 * TICK);
+        wheel.schedule(timer("b"), START + 5 * TICK);
+
+        assertEquals(0, wheel.advance(START + 2 * TICK));
+        assertEquals(1, wheel.advance(START + 3 * TICK));
+        assertEquals(1, wheel.advance(START + 5 * TICK + 1));
+
+        assertEquals(2, fired.size());
+        assertEquals("a", fired.get(0));
+        assertEquals("b", fired.get(1));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void advance_neverFiresBeforeDeadline() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        // A deadline part-way through a tick rounds up to the next tick
+        wheel.schedule(timer("a"), START + TICK + 1);
+
+        assertEquals(0, wheel.advance(START + TICK));
+        assertEquals(1, wheel.advance(START + 2 * TICK));
+    }
+
+    @Test
+    public void schedule_beyondOneTurnWaitsForLaterRounds() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        wheel.schedule(timer("far"), START + 20 * TICK);
+
+        for (int tick = 1; tick < 20; tick++) {
+            assertEquals("Fired early at tick " + tick, 0, wheel.advance(START + tick * TICK));
+        }
+        assertEquals(1, wheel.advance(START + 20 * TICK));
+    }
+
+    @Test
+    public void cancel_andReschedule() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        TimerWheel.Timer cancelled = timer("cancelled");
+        TimerWheel.Timer moved = timer("moved");
+        wheel.schedule(cancelled, START + 2 * TICK);
+        wheel.schedule(moved, START + 2 * TICK);
+
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        wheel.schedule(moved, START + 6 * TICK);
+        assertEquals(1, wheel.size());
+
+        assertEquals(0, wheel.advance(START + 5 * TICK));
+        assertTrue(wheel.isScheduled(moved));
+        assertEquals(1, wheel.advance(START + 6 * TICK));
+        assertFalse(wheel.isScheduled(moved));
+        assertEquals("moved", fired.get(0));
+    }
+
+    @Test
+    public void schedule_pastDeadlineFiresOnNextTick() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        wheel.advance(START + 4 * TICK);
+        wheel.schedule(timer("late"), START);
+
+        assertEquals(0, wheel.advance(START + 4 * TICK + 1));
+        assertEquals(1, wheel.advance(START + 5 * TICK));
+    }
+
+    @Test
+    public void advance_afterLongStallFiresEverythingDue() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        for (int i = 1; i <= 30; i++) {
+            wheel.schedule(timer("t" + i), START + i * TICK);
+        }
+        wheel.schedule(timer("later"), START + 10_000 * TICK);
+
+        assertEquals(30, wheel.advance(START + 1_000 * TICK));
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(START + 10_000 * TICK));
+    }
+
+    @Test
+    public void expiredTimer_mayRescheduleItself() {
+        final TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        final int[] runs = new int[1];
+        final TimerWheel.Timer[] holder = new TimerWheel.Timer[1];
+        holder[0] = new TimerWheel.Timer(new Runnable() {
+            @Override
+            public void run() {
+                if (++runs[0] < 3) {
+                    wheel.schedule(holder[0], START + (runs[0] + 1) * TICK);
+                }
+            }
+        });
+        wheel.schedule(holder[0], START + TICK);
+
+        for (int tick = 1; tick <= 5; tick++) {
+            wheel.advance(START + tick * TICK);
+        }
+        assertEquals(3, runs[0]);
+        assertFalse(wheel.isScheduled(holder[0]));
+    }
+
+    @Test
+    public void millisUntilNextExpiry_isZeroWithoutTimers() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        assertEquals(0, wheel.millisUntilNextExpiry(START));
+
+        TimerWheel.Timer a = timer("a");
+        wheel.schedule(a, START + TICK);
+        wheel.cancel(a);
+        assertEquals(0, wheel.millisUntilNextExpiry(START + TimeUnit.MILLISECONDS.toNanos(60)));
+    }
+
+    @Test
+    public void millisUntilNextExpiry_waitsForTheEarliestTimer() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, START);
+        TimerWheel.Timer a = timer("a");
+        TimerWheel.Timer b = timer("b");
+        wheel.schedule(a, START + 5 * TICK);
+        wheel.schedule(b, START + 2 * TICK);
+
+        assertEquals(200, wheel.millisUntilNextExpiry(START));
+        assertEquals(140, wheel.millisUntilNextExpiry(START + TimeUnit.MILLISECONDS.toNanos(60)));
+        assertEquals(1, wheel.millisUntilNextExpiry(START + 2 * TICK - 1));
+        assertEquals("An overdue timer never blocks indefinitely", 1, wheel.millisUntilNextExpiry(START + 3 * TICK));
+
+        wheel.cancel(b);
+        assertEquals(500, wheel.millisUntilNextExpiry(START));
+
+        // Beyond one turn of the wheel, the selector wakes each time the timer's bucket comes round
+        wheel.schedule(timer("c"), START + 20 * TICK);
+        wheel.advance(START + 5 * TICK);
+        assertEquals(700, wheel.millisUntilNextExpiry(START + 5 * TICK));
+        assertEquals(0, wheel.advance(START + 12 * TICK));
+        assertEquals(800, wheel.millisUntilNextExpiry(START + 12 * TICK));
+    }
+
+    @Test
+    public void millisUntilNextExpiry_findsTheNextBucketAcrossWords() {
+        TimerWheel wheel = new TimerWheel(TICK, 512, START);
+        TimerWheel.Timer a = timer("a");
+        TimerWheel.Timer b = timer("b");
+        wheel.schedule(a, START + 300 * TICK);
+        wheel.schedule(b, START + 130 * TICK);
+        assertEquals(13000, wheel.millisUntilNextExpiry(START));
+
+        wheel.cancel(b);
+        assertEquals(30000, wheel.millisUntilNextExpiry(START));
+
+        // Past the last bucket the search wraps round to the first
+        wheel.advance(START + 400 * TICK);
+        assertEquals(1, fired.size());
+        wheel.schedule(b, START + 520 * TICK);
+        assertEquals(12000, wheel.millisUntilNextExpiry(START + 400 * TICK));
+    }
+}
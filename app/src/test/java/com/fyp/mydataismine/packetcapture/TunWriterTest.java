@@ -0,0 +1,65 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TunWriterTest {
+
+    private static void putPacket(ByteBuffer buffer, int length) {
+        int start = buffer.position();
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) length);
+        buffer.position(start + length);
+    }
+
+    @Test
+    public void run_drainsEveryQueuedBufferOnePacketPerWrite() throws Exception {
+        final List<Integer> writes = Collections.synchronizedList(new ArrayList<Integer>());
+        FileChannel vpnOutput = mock(FileChannel.class);
+        when(vpnOutput.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                ByteBuffer buffer = invocation.getArgument(0);
+                int length = buffer.remaining();
+                buffer.position(buffer.limit());
+                writes.add(length);
+                return length;
+            }
+        });
+        ParkingQueue<ByteBuffer> queue = new ParkingQueue<>();
+        Thread writer = new Thread(new TunWriter(vpnOutput, queue));
+        writer.start();
+
+        ByteBuffer first = ByteBufferPool.acquire();
+        putPacket(first, 60);
+        putPacket(first, 1500);
+        ByteBuffer second = ByteBufferPool.acquire();
+        putPacket(second, 40);
+        queue.offer(first);
+        queue.offer(second);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (writes.size() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertFalse("The writer should stop when interrupted", writer.isAlive());
+        assertEquals(Arrays.asList(60, 1500, 40), writes);
+        assertTrue(queue.isEmpty());
+    }
+}
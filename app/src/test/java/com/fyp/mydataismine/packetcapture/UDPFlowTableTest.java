@@ -0,0 +1,89 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UDPFlowTableTest {
+
+    private UDPFlowTable table;
+    private HeaderTemplate headerTemplate;
+
+    @Before
+    public void setUp() {
+        table = new UDPFlowTable(4, 2);
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE);
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) 28).putInt(0);
+        buffer.put((byte) 64).put((byte) 17).putShort((short) 0);
+        buffer.putInt(0x0A000002).putInt(0x08080808);
+        buffer.putShort((short) 40000).putShort((short) 53).putShort((short) 8).putShort((short) 0);
+        buffer.flip();
+        Packet packet = new Packet(buffer);
+        headerTemplate = HeaderTemplate.forUdpResponse(packet.ip4Header, packet.udpHeader);
+    }
+
+    @After
+    public void tearDown() {
+        table.closeAll();
+    }
+
+    private UDPFlow flow(int destinationPort, int sourcePort) throws Exception {
+        return new UDPFlow(0x08080808, destinationPort, sourcePort, DatagramChannel.open(), headerTemplate);
+    }
+
+    @Test
+    public void testDnsFlowsExpireSoonerThanOthers() throws Exception {
+        long now = System.nanoTime();
+        UDPFlow dns = flow(53, 40000);
+        UDPFlow quic = flow(443, 40001);
+        assertTrue(table.put(dns));
+        assertTrue(table.put(quic));
+        dns.lastActivityNanos = now - TimeUnit.MINUTES.toNanos(1);
+        quic.lastActivityNanos = now - TimeUnit.MINUTES.toNanos(1);
+
+        assertEquals(1, table.expireIdle(now));
+        assertNull(table.get(dns.flowKey));
+        assertFalse("Expired flows have their channel closed", dns.channel.isOpen());
+        assertSame(quic, table.get(quic.flowKey));
+
+        quic.lastActivityNanos = now - TimeUnit.MINUTES.toNanos(3);
+        assertEquals(1, table.expireIdle(now));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testIdleTimerClosesOnlyExpiredFlows() throws Exception {
+        long now = System.nanoTime();
+        UDPFlow flow = flow(443, 40000);
+        table.put(flow);
+        flow.lastActivityNanos = now - TimeUnit.MINUTES.toNanos(1);
+
+        flow.onIdleTimer(now);
+        assertSame("Recent activity reschedules the timer instead", flow, table.get(flow.flowKey));
+
+        flow.onIdleTimer(now + TimeUnit.MINUTES.toNanos(2));
+        assertNull(table.get(flow.flowKey));
+        assertFalse(flow.channel.isOpen());
+    }
+
+    @Test
+    public void testFullTableMakesRoomFromIdleFlows() throws Exception {
+        UDPFlow first = flow(443, 40000);
+        UDPFlow second = flow(443, 40001);
+        UDPFlow third = flow(443, 40002);
+        assertTrue(table.put(first));
+        assertTrue(table.put(second));
+        assertFalse("No flow is idle yet", table.put(third));
+
+        first.lastActivityNanos = System.nanoTime() - TimeUnit.MINUTES.toNanos(3);
+        assertTrue(table.put(third));
+        assertNull(table.get(first.flowKey));
+        assertEquals("2/2 flows", table.getStats());
+    }
+}
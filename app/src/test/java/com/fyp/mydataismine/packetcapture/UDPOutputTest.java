@@ -0,0 +1,234 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class UDPOutputTest {
+    private static final int DEVICE_ADDRESS = 0x0A000002;
+    private static final int REMOTE_ADDRESS = 0x7F000001;
+    private static final int DEVICE_PORT = 40000;
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE;
+
+    private DatagramChannel remote;
+    private int remotePort;
+    private Selector selector;
+    private UDPFlowTable flowTable;
+    private ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private VPNNetworkService vpnService;
+    private UDPOutput udpOutput;
+    private UDPInput udpInput;
+
+    @Before
+    public void setUp() throws Exception {
+        remote = DatagramChannel.open();
+        remote.bind(new InetSocketAddress("127.0.0.1", 0));
+        remotePort = ((InetSocketAddress) remote.getLocalAddress()).getPort();
+        selector = Selector.open();
+        flowTable = new UDPFlowTable();
+        outputQueue = new ConcurrentLinkedQueue<>();
+        vpnService = mock(VPNNetworkService.class);
+        udpOutput = new UDPOutput(outputQueue, selector, flowTable, null, null, vpnService);
+        udpInput = new UDPInput(outputQueue, null, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowTable.closeAll();
+        selector.close();
+        remote.close();
+    }
+
+    private Packet devicePacket(int sourcePort, byte[] payload) {
+        return devicePacket(sourcePort, remotePort, payload);
+    }
+
+    private Packet devicePacket(int sourcePort, int destinationPort, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.put((byte) 0x45);
+        buffer.put((byte) 0);
+        buffer.putShort((short) (HEADER_SIZE + payload.length));
+        buffer.putInt(0);
+        buffer.put((byte) 64);
+        buffer.put((byte) 17);
+        buffer.putShort((short) 0);
+        buffer.putInt(DEVICE_ADDRESS);
+        buffer.putInt(REMOTE_ADDRESS);
+        buffer.putShort((short) sourcePort);
+        buffer.putShort((short) destinationPort);
+        buffer.putShort((short) (Packet.UDP_HEADER_SIZE + payload.length));
+        buffer.putShort((short) 0);
+        buffer.put(payload);
+        buffer.flip();
+        return new Packet(buffer);
+    }
+
+    private SocketAddress receiveAtRemote(ByteBuffer buffer) throws Exception {
+        remote.configureBlocking(true);
+        return remote.receive(buffer);
+    }
+
+    @Test
+    public void processPacket_forwardsEachFlowOnItsOwnProtectedChannel() throws Exception {
+        udpOutput.processPacket(devicePacket(DEVICE_PORT, "first".getBytes("US-ASCII")));
+        udpOutput.processPacket(devicePacket(DEVICE_PORT, "second".getBytes("US-ASCII")));
+        udpOutput.processPacket(devicePacket(DEVICE_PORT + 1, "other".getBytes("US-ASCII")));
+
+        assertEquals(2, flowTable.size());
+        verify(vpnService, times(2)).protect(any(java.net.DatagramSocket.class));
+
+        ByteBuffer received = ByteBuffer.allocate(64);
+        SocketAddress firstSender = receiveAtRemote(received);
+        assertEquals("first", new String(received.array(), 0, received.position(), "US-ASCII"));
+        received.clear();
+        assertEquals("Datagrams of one flow share a channel", firstSender, receiveAtRemote(received));
+        assertEquals("second", new String(received.array(), 0, received.position(), "US-ASCII"));
+        received.clear();
+        assertNotEquals(firstSender, receiveAtRemote(received));
+    }
+
+    @Test
+    public void processPacket_dropsADatagramCutShortByTheRead() throws Exception {
+        Packet packet = devicePacket(DEVICE_PORT, "truncated".getBytes("US-ASCII"));
+        packet.ip4Header.totalLength += 16;
+
+        udpOutput.processPacket(packet);
+
+        assertEquals(0, flowTable.size());
+    }
+
+    @Test
+    public void processPacket_dropsTheFirstFragmentOfALargerDatagram() throws Exception {
+        Packet packet = devicePacket(DEVICE_PORT, "fragment".getBytes("US-ASCII"));
+        // The UDP header of a fragmented datagram gives the length of the whole datagram
+        packet.udpHeader.length += 1480;
+
+        udpOutput.processPacket(packet);
+
+        assertEquals(0, flowTable.size());
+    }
+
+    @Test
+    public void processInput_wrapsRepliesForTheDevice() throws Exception {
+        udpOutput.processPacket(devicePacket(DEVICE_PORT, new byte[] {1, 2, 3}));
+        ByteBuffer received = ByteBuffer.allocate(64);
+        SocketAddress sender = receiveAtRemote(received);
+
+        byte[] reply = new byte[333];
+        for (int i = 0; i < reply.length; i++) {
+            reply[i] = (byte) (i * 7 + 1);
+        }
+        remote.send(ByteBuffer.wrap(reply), sender);
+
+        assertEquals(1, selector.select(1000));
+        SelectionKey key = selector.selectedKeys().iterator().next();
+        udpInput.processInput(key);
+
+        ByteBuffer packet = outputQueue.poll();
+        assertNotNull(packet);
+        packet.flip();
+        assertEquals(HEADER_SIZE + reply.length, packet.remaining());
+        PacketView view = new PacketView();
+        assertTrue(view.wrap(packet));
+        assertTrue(view.isUDP());
+        assertTrue(view.hasValidTransportChecksum());
+        assertEquals(REMOTE_ADDRESS, view.getSourceAddress());
+        assertEquals(DEVICE_ADDRESS, view.getDestinationAddress());
+        assertEquals(remotePort, view.getSourcePort());
+        assertEquals(DEVICE_PORT, view.getDestinationPort());
+        assertEquals(reply[reply.length - 1], packet.get(HEADER_SIZE + reply.length - 1));
+    }
+
+    @Test
+    public void processInput_drainsABurstIntoBackToBackPackets() throws Exception {
+        udpOutput.processPacket(devicePacket(DEVICE_PORT, new byte[] {1}));
+        ByteBuffer received = ByteBuffer.allocate(64);
+        SocketAddress sender = receiveAtRemote(received);
+
+        // A 32 KB pooled buffer holds 21 full-sized packets, so this burst needs three of them
+        int datagrams = 43;
+        int payloadSize = Packet.MAX_PACKET_SIZE - HEADER_SIZE;
+        for (int i = 0; i < datagrams; i++) {
+            ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+            payload.put(0, (byte) i);
+            remote.send(payload, sender);
+        }
+        Thread.sleep(50);
+
+        assertEquals(1, selector.select(1000));
+        udpInput.processInput(selector.selectedKeys().iterator().next());
+
+        PacketView view = new PacketView();
+        int packets = 0;
+        int buffers = 0;
+        ByteBuffer buffer;
+        while ((buffer = outputQueue.poll()) != null) {
+            buffer.flip();
+            buffers++;
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                assertEquals(Packet.MAX_PACKET_SIZE, PacketView.packetLength(buffer, start));
+                ByteBuffer packet = buffer.duplicate();
+                packet.limit(start + Packet.MAX_PACKET_SIZE);
+                assertTrue(view.wrap(packet));
+                assertTrue(view.hasValidTransportChecksum());
+                assertEquals("Datagrams keep their order", (byte) packets, buffer.get(start + HEADER_SIZE));
+                buffer.position(start + Packet.MAX_PACKET_SIZE);
+                packets++;
+            }
+        }
+        assertEquals("One wakeup reads the whole burst", datagrams, packets);
+        assertEquals(3, buffers);
+    }
+
+    @Test
+    public void processPacket_answersCachedDnsQueriesWithoutOpeningAFlow() throws Exception {
+        DnsCache dnsCache = new DnsCache();
+        ByteBuffer response = DnsCacheTest.response(1, "example.com", 0, -1, 0, 300);
+        dnsCache.put(response, 0, response.limit(), System.nanoTime());
+        udpOutput = new UDPOutput(outputQueue, selector, flowTable, dnsCache, null, vpnService);
+
+        ByteBuffer query = DnsCacheTest.query(0x4242, "example.com", true);
+        byte[] queryBytes = new byte[query.remaining()];
+        query.get(queryBytes);
+        udpOutput.processPacket(devicePacket(DEVICE_PORT, DnsMessage.PORT, queryBytes));
+
+        assertEquals(0, flowTable.size());
+        verify(vpnService, never()).protect(any(java.net.DatagramSocket.class));
+        ByteBuffer packet = outputQueue.poll();
+        assertNotNull(packet);
+        packet.flip();
+        assertEquals(HEADER_SIZE + response.limit(), packet.remaining());
+        PacketView view = new PacketView();
+        assertTrue(view.wrap(packet));
+        assertTrue(view.hasValidTransportChecksum());
+        assertEquals(DnsMessage.PORT, view.getSourcePort());
+        assertEquals(DEVICE_PORT, view.getDestinationPort());
+        assertEquals(0x4242, DnsMessage.getId(packet, HEADER_SIZE));
+        assertEquals(1, dnsCache.getHits());
+    }
+
+    @Test
+    public void close_closesTheFlowsChannel() throws Exception {
+        udpOutput.processPacket(devicePacket(DEVICE_PORT, new byte[] {1}));
+        UDPFlow flow = flowTable.get(TCB.flowKey(REMOTE_ADDRESS, remotePort, DEVICE_PORT));
+        assertNotNull(flow);
+
+        flowTable.close(flow);
+        assertFalse(flow.channel.isOpen());
+        assertNull(flowTable.get(flow.flowKey));
+        assertEquals(0, flowTable.size());
+    }
+}
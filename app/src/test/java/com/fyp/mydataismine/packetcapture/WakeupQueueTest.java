@@ -0,0 +1,78 @@
+package com.fyp.mydataismine.packetcapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WakeupQueueTest {
+
+    private Selector selector;
+    private WakeupQueue<String> queue;
+
+    @Before
+    public void setUp() throws Exception {
+        selector = Selector.open();
+        queue = new WakeupQueue<>(selector);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        selector.close();
+    }
+
+    @Test
+    public void select_returnsAtOnceWhenItemsAreWaiting() throws Exception {
+        queue.offer("packet");
+
+        long start = System.nanoTime();
+        queue.select(TimeUnit.SECONDS.toMillis(10));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals("packet", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void offer_wakesABlockedSelect() throws Exception {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.offer("packet");
+            }
+        });
+        producer.start();
+
+        long start = System.nanoTime();
+        queue.select(TimeUnit.SECONDS.toMillis(10));
+        producer.join();
+
+        assertTrue("Select should end when the item arrives",
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals("packet", queue.poll());
+    }
+
+    @Test
+    public void offer_whileNotSelectingLeavesNoWakeupBehind() throws Exception {
+        queue.offer("first");
+        queue.offer("second");
+        queue.poll();
+        queue.poll();
+
+        long start = System.nanoTime();
+        queue.select(200);
+
+        assertTrue("No stale wakeup should cut the next select short",
+                System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue(queue.isEmpty());
+    }
+}